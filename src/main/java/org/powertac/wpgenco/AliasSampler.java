@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import java.util.Random;
+
+/**
+ * Draws indexes 0..n-1 with given probabilities in constant time, using
+ * Vose's alias method. Building the tables is O(n); each draw then takes
+ * one uniform number: its integer part picks a column, its fraction decides
+ * between the column's own index and its alias.
+ *
+ * The tables are not changed after construction, so one sampler can be
+ * shared by threads that each use their own Random.
+ *
+ * @author Shashank Pande
+ */
+public class AliasSampler
+{
+  private final double[] threshold;
+  private final int[] alias;
+
+  /**
+   * @param probabilities weights of the indexes; they need not sum to 1
+   */
+  public AliasSampler (double[] probabilities)
+  {
+    int n = probabilities.length;
+    threshold = new double[n];
+    alias = new int[n];
+    if (n == 0) {
+      return;
+    }
+    double total = 0;
+    for (int i = 0; i < n; i++) {
+      total += probabilities[i];
+    }
+    double[] scaled = new double[n];
+    int[] small = new int[n];
+    int[] large = new int[n];
+    int smallCount = 0;
+    int largeCount = 0;
+    for (int i = 0; i < n; i++) {
+      scaled[i] = probabilities[i] * n / total;
+      if (scaled[i] < 1.0) {
+        small[smallCount++] = i;
+      }
+      else {
+        large[largeCount++] = i;
+      }
+    }
+    while (smallCount > 0 && largeCount > 0) {
+      int less = small[--smallCount];
+      int more = large[--largeCount];
+      threshold[less] = scaled[less];
+      alias[less] = more;
+      scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+      if (scaled[more] < 1.0) {
+        small[smallCount++] = more;
+      }
+      else {
+        large[largeCount++] = more;
+      }
+    }
+    // what is left is 1 up to rounding
+    while (largeCount > 0) {
+      int i = large[--largeCount];
+      threshold[i] = 1.0;
+      alias[i] = i;
+    }
+    while (smallCount > 0) {
+      int i = small[--smallCount];
+      threshold[i] = 1.0;
+      alias[i] = i;
+    }
+  }
+
+  /**
+   * Number of indexes.
+   */
+  public int size ()
+  {
+    return threshold.length;
+  }
+
+  /**
+   * Draws one index.
+   */
+  public int sample (Random random)
+  {
+    double u = random.nextDouble() * threshold.length;
+    int column = (int) u;
+    return (u - column < threshold[column]) ? column : alias[column];
+  }
+
+  /**
+   * Draws length indexes into out, starting at offset.
+   */
+  public void sample (Random random, int[] out, int offset, int length)
+  {
+    final double[] t = threshold;
+    final int[] a = alias;
+    final int n = t.length;
+    for (int i = offset; i < offset + length; i++) {
+      double u = random.nextDouble() * n;
+      int column = (int) u;
+      out[i] = (u - column < t[column]) ? column : a[column];
+    }
+  }
+
+} // class AliasSampler
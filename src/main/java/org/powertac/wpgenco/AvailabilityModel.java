@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.joda.time.DateTimeConstants;
+import org.joda.time.Instant;
+import org.joda.time.Interval;
+
+/**
+ * Turbine availability of a wind farm: planned maintenance, which takes a
+ * known number of turbines out of service for a time interval, and forced
+ * outages, which take each turbine in service out independently with a
+ * fixed probability.
+ *
+ * The number of turbines running out of n in service is then binomial, and
+ * the farm output is the all-turbines output scaled by the running fraction.
+ * Rather than simulating turbines, the binomial distribution is folded into
+ * the output distribution of each hour on a grid, so the number of outcomes
+ * per hour is bounded by the grid size and does not grow with the turbine
+ * count.
+ *
+ * Maintenance entries are written as count@start/end, with start and end
+ * ISO-8601 instants, e.g. 5@2011-01-03T08:00Z/2011-01-03T16:00Z.
+ *
+ * @author Shashank Pande
+ */
+public class AvailabilityModel
+{
+  private static Logger log = Logger.getLogger(AvailabilityModel.class);
+
+  // binomial terms below this fraction of the mode are dropped
+  private static final double PMF_CUTOFF = 1e-9;
+
+  private final int turbines;
+  private final double forcedOutageRate;
+  private final List<Interval> maintenanceIntervals = new ArrayList<Interval>();
+  private final List<Integer> maintenanceCounts = new ArrayList<Integer>();
+
+  public AvailabilityModel (int turbines, double forcedOutageRate,
+                            List<String> maintenanceSchedule)
+  {
+    this.turbines = turbines;
+    this.forcedOutageRate = forcedOutageRate;
+    if (maintenanceSchedule == null) {
+      return;
+    }
+    for (String entry : maintenanceSchedule) {
+      String[] parts = entry.trim().split("@");
+      if (parts.length != 2) {
+        log.error("bad maintenance entry " + entry);
+        continue;
+      }
+      try {
+        maintenanceCounts.add(Integer.valueOf(parts[0].trim()));
+        maintenanceIntervals.add(new Interval(parts[1].trim()));
+      }
+      catch (IllegalArgumentException iae) {
+        log.error("bad maintenance entry " + entry, iae);
+        if (maintenanceCounts.size() > maintenanceIntervals.size()) {
+          maintenanceCounts.remove(maintenanceCounts.size() - 1);
+        }
+      }
+    }
+  }
+
+  public int getTurbines ()
+  {
+    return turbines;
+  }
+
+  public double getForcedOutageRate ()
+  {
+    return forcedOutageRate;
+  }
+
+  /**
+   * Number of turbines not on planned maintenance at the given time.
+   */
+  public int getTurbinesInService (Instant when)
+  {
+    int out = 0;
+    for (int i = 0; i < maintenanceIntervals.size(); i++) {
+      if (maintenanceIntervals.get(i).contains(when)) {
+        out += maintenanceCounts.get(i);
+      }
+    }
+    return Math.max(0, turbines - out);
+  }
+
+  /**
+   * Applies this farm's availability to an output distribution whose lead
+   * hour 1 starts at firstHour.
+   */
+  public PowerDistribution apply (PowerDistribution dist, Instant firstHour,
+                                  double binWidth)
+  {
+    int[] inService = new int[dist.getHours()];
+    for (int h = 0; h < inService.length; h++) {
+      inService[h] =
+        getTurbinesInService(firstHour.plus((long) h * DateTimeConstants.MILLIS_PER_HOUR));
+    }
+    return apply(dist, turbines, inService, forcedOutageRate, binWidth);
+  }
+
+  /**
+   * Output distribution when, in hour h, inService[h] of totalTurbines
+   * turbines are in service and each of those is out with probability
+   * forcedOutageRate. dist is the output with all turbines running.
+   */
+  public static PowerDistribution apply (PowerDistribution dist,
+                                         int totalTurbines, int[] inService,
+                                         double forcedOutageRate,
+                                         double binWidth)
+  {
+    int hours = dist.getHours();
+    double[][] values = new double[hours][];
+    double[][] probs = new double[hours][];
+    for (int h = 0; h < hours; h++) {
+      double[] v = dist.getValues(h);
+      double[] p = dist.getProbabilities(h);
+      int n = inService[h];
+      if (forcedOutageRate <= 0.0 || n == 0) {
+        // deterministic scaling, no grid needed
+        double scale = (totalTurbines == 0) ? 0.0 : (double) n / totalTurbines;
+        values[h] = new double[v.length];
+        for (int i = 0; i < v.length; i++) {
+          values[h][i] = v[i] * scale;
+        }
+        probs[h] = p;
+        continue;
+      }
+      double[] pmf = binomial(n, 1.0 - forcedOutageRate);
+      int lo = 0;
+      while (pmf[lo] == 0.0) {
+        lo++;
+      }
+      int hi = n;
+      while (pmf[hi] == 0.0) {
+        hi--;
+      }
+      double max = 0;
+      for (int i = 0; i < v.length; i++) {
+        max = Math.max(max, v[i]);
+      }
+      double[] grid =
+        new double[(int) Math.ceil(max * hi / totalTurbines / binWidth) + 2];
+      for (int i = 0; i < v.length; i++) {
+        double x0 = Math.max(0.0, v[i]) / totalTurbines / binWidth;
+        for (int k = lo; k <= hi; k++) {
+          double x = x0 * k;
+          int bin = (int) x;
+          double frac = x - bin;
+          double mass = p[i] * pmf[k];
+          grid[bin] += mass * (1.0 - frac);
+          grid[bin + 1] += mass * frac;
+        }
+      }
+      int nonZero = 0;
+      for (int b = 0; b < grid.length; b++) {
+        if (grid[b] > 0.0) {
+          nonZero++;
+        }
+      }
+      values[h] = new double[nonZero];
+      probs[h] = new double[nonZero];
+      int j = 0;
+      for (int b = 0; b < grid.length; b++) {
+        if (grid[b] > 0.0) {
+          values[h][j] = b * binWidth;
+          probs[h][j] = grid[b];
+          j++;
+        }
+      }
+    }
+    return new PowerDistribution(values, probs);
+  }
+
+  /**
+   * Binomial(n, p) probabilities for 0..n, computed outward from the mode
+   * by the ratio of successive terms so that large n does not underflow.
+   * Terms below PMF_CUTOFF of the mode are set to zero.
+   */
+  static double[] binomial (int n, double p)
+  {
+    double[] pmf = new double[n + 1];
+    if (p >= 1.0) {
+      pmf[n] = 1.0;
+      return pmf;
+    }
+    if (p <= 0.0) {
+      pmf[0] = 1.0;
+      return pmf;
+    }
+    int mode = Math.min(n, (int) Math.floor((n + 1) * p));
+    double odds = p / (1.0 - p);
+    pmf[mode] = 1.0;
+    double sum = 1.0;
+    for (int k = mode + 1; k <= n; k++) {
+      pmf[k] = pmf[k - 1] * odds * (n - k + 1) / k;
+      if (pmf[k] < PMF_CUTOFF) {
+        pmf[k] = 0.0;
+        break;
+      }
+      sum += pmf[k];
+    }
+    for (int k = mode - 1; k >= 0; k--) {
+      pmf[k] = pmf[k + 1] / odds * (k + 1) / (n - k);
+      if (pmf[k] < PMF_CUTOFF) {
+        pmf[k] = 0.0;
+        break;
+      }
+      sum += pmf[k];
+    }
+    for (int k = 0; k <= n; k++) {
+      pmf[k] /= sum;
+    }
+    return pmf;
+  }
+
+} // class AvailabilityModel
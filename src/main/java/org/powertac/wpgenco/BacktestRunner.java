@@ -0,0 +1,533 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+import org.joda.time.DateTimeConstants;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Instant;
+import org.joda.time.LocalDate;
+import org.powertac.common.Timeslot;
+
+/**
+ * Replays recorded or synthetic days through the genco's offer strategy
+ * outside the server: forecast scenarios, price model and offer calculator,
+ * then settlement of the offers against the realized wind and prices.
+ *
+ * Each day is offered at its start for its 24 hours, as a day-ahead
+ * market. The price model of a day is rebuilt from the recorded prices of
+ * the preceding days, so days do not depend on each other's decisions and
+ * are simulated in parallel. An offer clears in full if the clearing price
+ * is at least the ask price; the difference between realized output and
+ * cleared quantity is settled under the imbalance price model with the
+ * recorded system imbalance.
+ *
+ * Input is CSV with a header line and 24 rows per day, hours in order:
+ * <pre>
+ *   date,hour,forecastWindSpeed,temperature,windSpeed,clearingPrice,systemImbalance
+ * </pre>
+ * with dates as yyyy-mm-dd (UTC).
+ *
+ * @author Shashank Pande
+ */
+public class BacktestRunner
+{
+  private static Logger log = Logger.getLogger(BacktestRunner.class);
+
+  public static final int HOURS = 24;
+
+  // days of price history given to each day's price model
+  private static final int PRICE_HISTORY_DAYS = 30;
+
+  /**
+   * Recorded data of one day.
+   */
+  public static class Day
+  {
+    final Instant start;
+    final double[] forecastWindSpeed = new double[HOURS];
+    final double[] temperature = new double[HOURS];
+    final double[] windSpeed = new double[HOURS];
+    final double[] clearingPrice = new double[HOURS];
+    final double[] systemImbalance = new double[HOURS];
+
+    public Day (Instant start)
+    {
+      this.start = start;
+    }
+
+    public Instant getStart ()
+    {
+      return start;
+    }
+  }
+
+  /**
+   * Totals over simulated days, with time spent per stage.
+   */
+  public static class Result
+  {
+    private int days = 0;
+    private double revenue = 0;
+    private double imbalanceCost = 0;
+    private double imbalanceVolume = 0;
+    private double offered = 0;
+    private double produced = 0;
+    private long scenarioNanos = 0;
+    private long pricingNanos = 0;
+    private long optimizationNanos = 0;
+
+    void add (Result other)
+    {
+      days += other.days;
+      revenue += other.revenue;
+      imbalanceCost += other.imbalanceCost;
+      imbalanceVolume += other.imbalanceVolume;
+      offered += other.offered;
+      produced += other.produced;
+      scenarioNanos += other.scenarioNanos;
+      pricingNanos += other.pricingNanos;
+      optimizationNanos += other.optimizationNanos;
+    }
+
+    public int getDays ()
+    {
+      return days;
+    }
+
+    /**
+     * Market revenue plus imbalance settlement, in $.
+     */
+    public double getRevenue ()
+    {
+      return revenue;
+    }
+
+    /**
+     * Part of the revenue from imbalance settlement; negative if the genco
+     * paid on balance.
+     */
+    public double getImbalanceSettlement ()
+    {
+      return imbalanceCost;
+    }
+
+    /**
+     * Total absolute imbalance in MWh.
+     */
+    public double getImbalanceVolume ()
+    {
+      return imbalanceVolume;
+    }
+
+    public double getClearedVolume ()
+    {
+      return offered;
+    }
+
+    public double getProducedVolume ()
+    {
+      return produced;
+    }
+
+    /**
+     * CPU time, summed over days, spent computing forecast scenarios.
+     */
+    public long getScenarioNanos ()
+    {
+      return scenarioNanos;
+    }
+
+    public long getPricingNanos ()
+    {
+      return pricingNanos;
+    }
+
+    public long getOptimizationNanos ()
+    {
+      return optimizationNanos;
+    }
+
+    @Override
+    public String toString ()
+    {
+      return String.format("%d days: revenue %.2f (imbalance %.2f),"
+                           + " cleared %.1f MWh, produced %.1f MWh,"
+                           + " imbalance %.1f MWh;"
+                           + " scenarios %d ms, prices %d ms, offers %d ms",
+                           days, revenue, imbalanceCost, offered, produced,
+                           imbalanceVolume, scenarioNanos / 1000000,
+                           pricingNanos / 1000000, optimizationNanos / 1000000);
+    }
+  }
+
+  private final ScenarioMatrix errors;
+  private final FarmPowerCurve powerCurve;
+  private final double askPrice;
+  private final int threads;
+  private long seed = 0L;
+
+  /**
+   * @param errors forecast error scenarios, shared read-only by all days
+   * @param powerCurve power curve of the farm
+   * @param askPrice price of every offer
+   * @param threads number of days simulated at a time
+   */
+  public BacktestRunner (ScenarioMatrix errors, FarmPowerCurve powerCurve,
+                         double askPrice, int threads)
+  {
+    this.errors = errors;
+    this.powerCurve = powerCurve;
+    this.askPrice = askPrice;
+    this.threads = threads;
+  }
+
+  /**
+   * Seed of the random streams of the simulated days; a backtest is
+   * repeatable for a given seed, whatever the number of threads.
+   */
+  public void setSeed (long seed)
+  {
+    this.seed = seed;
+  }
+
+  /**
+   * Simulates all days, spread over the configured number of threads.
+   * If a day fails, or the caller is interrupted, the days not yet
+   * simulated are cancelled and the failure is thrown; a partial total is
+   * never returned.
+   */
+  public Result run (final List<Day> days)
+    throws InterruptedException, ExecutionException
+  {
+    Result total = new Result();
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Result>> results = new ArrayList<Future<Result>>();
+      for (int d = 0; d < days.size(); d++) {
+        final int day = d;
+        results.add(pool.submit(new Callable<Result>() {
+          @Override
+          public Result call ()
+          {
+            return simulate(days, day);
+          }
+        }));
+      }
+      for (Future<Result> result : results) {
+        total.add(result.get());
+      }
+    }
+    finally {
+      pool.shutdownNow();
+    }
+    return total;
+  }
+
+  /**
+   * Simulates day d of the list.
+   */
+  Result simulate (List<Day> days, int d)
+  {
+    Day day = days.get(d);
+    Result result = new Result();
+    result.days = 1;
+
+    // forecast scenarios
+    long start = System.nanoTime();
+    WindForecast forecast = new WindForecast();
+    forecast.setForecast(asList(day.forecastWindSpeed),
+                         Collections.nCopies(HOURS, WindForecast.defaultAirPressure),
+                         asList(day.temperature));
+    ForecastScenarios scenarios =
+      new ForecastScenarios(errors, forecast, powerCurve);
+    scenarios.calcWindSpeedForecastScenarios();
+    scenarios.calcPowerOutputScenarios();
+    PowerDistribution distribution =
+      PowerDistribution.fromMatrix(scenarios.getPowerOutputMatrix());
+    long scenariosDone = System.nanoTime();
+    result.scenarioNanos = scenariosDone - start;
+
+    // price model from the preceding days; the initial prices, used only
+    // without history, are drawn from a stream fixed per day
+    WindFarmGencoPriceModel priceModel =
+      new WindFarmGencoPriceModel(new Random(seed + d));
+    Timeslot previous = null;
+    for (int p = Math.max(0, d - PRICE_HISTORY_DAYS); p < d; p++) {
+      Day past = days.get(p);
+      for (int h = 0; h < HOURS; h++) {
+        previous = new Timeslot(0, hourStart(past, h), previous);
+        priceModel.updatePrices(previous, past.systemImbalance[h],
+                                past.clearingPrice[h]);
+      }
+    }
+    List<Timeslot> slots = new ArrayList<Timeslot>();
+    for (int h = 0; h < HOURS; h++) {
+      previous = new Timeslot(h + 1, hourStart(day, h), previous);
+      slots.add(previous);
+    }
+    long pricingDone = System.nanoTime();
+    result.pricingNanos = pricingDone - scenariosDone;
+
+    // offers
+    WindFarmOfferCalculator calculator =
+      new WindFarmOfferCalculator(powerCurve.getCapacity(), distribution,
+                                  priceModel);
+    List<Double> offers = calculator.getOptimalOfferCapacities(slots);
+    result.optimizationNanos = System.nanoTime() - pricingDone;
+
+    // settlement
+    for (int h = 0; h < HOURS; h++) {
+      double mcp = day.clearingPrice[h];
+      double cleared = (mcp >= askPrice) ? offers.get(h) : 0.0;
+      double airDensity =
+        WindfarmGenco.getDryAirDensity(WindForecast.defaultAirPressure,
+                                       day.temperature[h]);
+      double output = powerCurve.getPowerOutput(day.windSpeed[h], airDensity);
+      double imbalance = output - cleared;
+      double settlement =
+        realizedImbalancePrice(mcp, day.systemImbalance[h])
+          .getImbalancePrice(imbalance) * Math.abs(imbalance);
+      result.revenue += cleared * mcp + settlement;
+      result.imbalanceCost += settlement;
+      result.imbalanceVolume += Math.abs(imbalance);
+      result.offered += cleared;
+      result.produced += output;
+    }
+    return result;
+  }
+
+  // Imbalance prices as WindFarmGencoPriceModel.updatePrices() derives them
+  private static WindFarmGencoPriceModel.ImbalancePrice
+  realizedImbalancePrice (double mcp, double systemImbalance)
+  {
+    short regStat = WindFarmGencoPriceModel.NO_REG_EMPLOYED;
+    if (Math.abs(systemImbalance) > WindFarmGencoPriceModel.ZERO_TOLERANCE) {
+      regStat = (short) Math.signum(systemImbalance);
+    }
+    double cup = mcp;
+    double cdn = mcp;
+    if (regStat == WindFarmGencoPriceModel.REG_UP_EMPLOYED) {
+      cup = mcp * WindFarmGencoPriceModel.GREATER_THAN_ZERO_MULTIPLIER;
+    }
+    else if (regStat == WindFarmGencoPriceModel.REG_DN_EMPLOYED) {
+      cdn = mcp * WindFarmGencoPriceModel.LESS_THAN_ZERO_MULTIPLIER;
+    }
+    return new WindFarmGencoPriceModel.ImbalancePrice(mcp, cup, cdn, regStat);
+  }
+
+  private static Instant hourStart (Day day, int hour)
+  {
+    return day.start.plus((long) hour * DateTimeConstants.MILLIS_PER_HOUR);
+  }
+
+  private static List<Double> asList (double[] values)
+  {
+    List<Double> result = new ArrayList<Double>(values.length);
+    for (double value : values) {
+      result.add(value);
+    }
+    return result;
+  }
+
+  /**
+   * Reads days in the CSV format described above. Incomplete days are
+   * skipped.
+   */
+  public static List<Day> readDays (Reader input) throws IOException
+  {
+    List<Day> days = new ArrayList<Day>();
+    BufferedReader reader = new BufferedReader(input);
+    String line = reader.readLine(); // header
+    int lineNumber = 1;
+    Day day = null;
+    int hours = 0;
+    while ((line = reader.readLine()) != null) {
+      lineNumber++;
+      line = line.trim();
+      if (line.length() == 0) {
+        continue;
+      }
+      String[] fields = line.split(",");
+      if (fields.length < 7) {
+        throw new IOException("line " + lineNumber + ": 7 fields expected");
+      }
+      try {
+        Instant dayStart = LocalDate.parse(fields[0].trim())
+            .toDateTimeAtStartOfDay(DateTimeZone.UTC).toInstant();
+        if (day == null || !day.start.equals(dayStart)) {
+          if (day != null && hours != HOURS) {
+            log.warn("skipping incomplete day " + day.start);
+            days.remove(days.size() - 1);
+          }
+          day = new Day(dayStart);
+          days.add(day);
+          hours = 0;
+        }
+        int h = Integer.parseInt(fields[1].trim());
+        day.forecastWindSpeed[h] = Double.parseDouble(fields[2].trim());
+        day.temperature[h] = Double.parseDouble(fields[3].trim());
+        day.windSpeed[h] = Double.parseDouble(fields[4].trim());
+        day.clearingPrice[h] = Double.parseDouble(fields[5].trim());
+        day.systemImbalance[h] = Double.parseDouble(fields[6].trim());
+        hours++;
+      }
+      catch (IllegalArgumentException iae) {
+        throw new IOException("line " + lineNumber + ": " + iae.getMessage());
+      }
+      catch (ArrayIndexOutOfBoundsException aie) {
+        throw new IOException("line " + lineNumber + ": hour out of range");
+      }
+    }
+    if (day != null && hours != HOURS) {
+      log.warn("skipping incomplete day " + day.start);
+      days.remove(days.size() - 1);
+    }
+    return days;
+  }
+
+  /**
+   * Synthetic days: a daily wind cycle with persistent weather, forecast
+   * errors growing with lead hour, and clearing prices following load.
+   */
+  public static List<Day> syntheticDays (int count, Instant first, long seed)
+  {
+    Random random = new Random(seed);
+    List<Day> days = new ArrayList<Day>();
+    double weather = 0;
+    for (int d = 0; d < count; d++) {
+      Day day = new Day(first.plus((long) d * DateTimeConstants.MILLIS_PER_DAY));
+      double forecastError = 0;
+      for (int h = 0; h < HOURS; h++) {
+        weather = 0.9 * weather + random.nextGaussian();
+        double cycle = Math.sin(2 * Math.PI * (h - 9) / HOURS);
+        double wind = Math.max(0, 7.0 + 2.0 * cycle + weather);
+        forecastError = 0.8 * forecastError + 0.4 * random.nextGaussian();
+        day.windSpeed[h] = wind;
+        day.forecastWindSpeed[h] = Math.max(0, wind - forecastError);
+        day.temperature[h] = 10.0 + 5.0 * cycle;
+        day.clearingPrice[h] =
+          Math.max(5.0, 30.0 - 10.0 * Math.cos(2 * Math.PI * h / HOURS)
+                        + 5.0 * random.nextGaussian());
+        day.systemImbalance[h] = 500.0 * random.nextGaussian();
+      }
+      days.add(day);
+    }
+    return days;
+  }
+
+  // Default turbine with the efficiency curve of the bundled configuration,
+  // which outside the server is not applied by a configurator
+  private static WindTurbine defaultTurbine () throws IOException
+  {
+    Properties config = new Properties();
+    InputStream input = BacktestRunner.class.getClassLoader()
+        .getResourceAsStream("config/windfarm-genco.properties");
+    if (input == null) {
+      throw new IOException("config/windfarm-genco.properties not found");
+    }
+    try {
+      config.load(input);
+    }
+    finally {
+      input.close();
+    }
+    String prefix = "wpgenco.windTurbineEfficiencyCurve.";
+    WindTurbine turbine = new WindTurbine();
+    turbine.setEfficiencyCurve(splitList(config.getProperty(prefix + "cfgWindSpeedbands")),
+                               splitList(config.getProperty(prefix + "cfgSlope")),
+                               splitList(config.getProperty(prefix + "cfgYIntercept")));
+    return turbine;
+  }
+
+  private static List<String> splitList (String value)
+  {
+    return Arrays.asList(value.split(","));
+  }
+
+  /**
+   * Runs a backtest of a farm of 100 default turbines.
+   * Arguments: error scenario file, then a CSV file or "synthetic:days",
+   * then optionally the ask price and the number of threads.
+   */
+  public static void main (String[] args)
+    throws IOException, InterruptedException
+  {
+    if (args.length < 2) {
+      System.err.println("usage: BacktestRunner scenarioFile (data.csv|synthetic:days)"
+                         + " [askPrice] [threads]");
+      return;
+    }
+    ScenarioMatrix errors =
+      WindForecastErrorScenarios.readScenarioFile(args[0]).getErrorMatrix(HOURS);
+    List<Day> days;
+    if (args[1].startsWith("synthetic:")) {
+      int count = Integer.parseInt(args[1].substring("synthetic:".length()));
+      days = syntheticDays(count, new LocalDate(2011, 1, 1)
+          .toDateTimeAtStartOfDay(DateTimeZone.UTC).toInstant(), 42L);
+    }
+    else {
+      FileReader input = new FileReader(args[1]);
+      try {
+        days = readDays(input);
+      }
+      finally {
+        input.close();
+      }
+    }
+    double askPrice = (args.length > 2) ? Double.parseDouble(args[2]) : 1.0;
+    int threads = (args.length > 3) ? Integer.parseInt(args[3])
+                                    : Runtime.getRuntime().availableProcessors();
+    FarmPowerCurve powerCurve =
+      TurbineModelRegistry.getFarmPowerCurve(Arrays.asList(defaultTurbine()),
+                                             Arrays.asList(100));
+    BacktestRunner runner =
+      new BacktestRunner(errors, powerCurve, askPrice, threads);
+    long start = System.currentTimeMillis();
+    Result result;
+    try {
+      result = runner.run(days);
+    }
+    catch (ExecutionException ee) {
+      log.error("backtest day failed", ee.getCause());
+      System.err.println("backtest failed: " + ee.getCause());
+      System.exit(1);
+      return;
+    }
+    System.out.println(result);
+    System.out.println("elapsed " + (System.currentTimeMillis() - start)
+                       + " ms on " + threads + " threads");
+  }
+
+} // class BacktestRunner
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+/**
+ * Final check shared by the interval searches: the searches only visit
+ * interior points, so the interval ends are compared with the point found.
+ * With revenue monotone in the quantity the maximum is at an end.
+ *
+ * @author Shashank Pande
+ */
+final class BoundedMaximum
+{
+  private BoundedMaximum ()
+  {
+  }
+
+  static double best (OfferOptimizer.RevenueFunction function, double lower,
+                      double upper, double found)
+  {
+    double best = found;
+    double bestRevenue = function.revenue(found);
+    double r = function.revenue(lower);
+    if (r > bestRevenue) {
+      best = lower;
+      bestRevenue = r;
+    }
+    if (function.revenue(upper) > bestRevenue) {
+      best = upper;
+    }
+    return best;
+  }
+
+} // class BoundedMaximum
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+/**
+ * Brent's method for the maximum of a unimodal revenue function: parabolic
+ * interpolation through the three best points so far, falling back to a
+ * golden-section step when the parabola is not trusted. Smooth revenue
+ * functions, such as those with volume-dependent imbalance prices,
+ * converge in a handful of evaluations.
+ *
+ * @author Shashank Pande
+ */
+public class BrentOptimizer implements OfferOptimizer
+{
+  private static final double GOLDEN = (3.0 - Math.sqrt(5.0)) / 2.0;
+  private static final int MAX_ITERATIONS = 100;
+
+  @Override
+  public double maximize (RevenueFunction function, double lower,
+                          double upper, double tolerance)
+  {
+    // minimizes -revenue; x is the best point, w the second best, v the
+    // previous w
+    double a = lower;
+    double b = upper;
+    double x = a + GOLDEN * (b - a);
+    double w = x;
+    double v = x;
+    double fx = -function.revenue(x);
+    double fw = fx;
+    double fv = fx;
+    double d = 0.0;
+    double e = 0.0;
+    for (int i = 0; i < MAX_ITERATIONS; i++) {
+      double middle = 0.5 * (a + b);
+      double tol1 = 0.5 * tolerance;
+      double tol2 = 2.0 * tol1;
+      if (Math.abs(x - middle) <= tol2 - 0.5 * (b - a)) {
+        break;
+      }
+      boolean golden = true;
+      if (Math.abs(e) > tol1) {
+        double r = (x - w) * (fx - fv);
+        double q = (x - v) * (fx - fw);
+        double p = (x - v) * q - (x - w) * r;
+        q = 2.0 * (q - r);
+        if (q > 0.0) {
+          p = -p;
+        }
+        q = Math.abs(q);
+        double previousE = e;
+        e = d;
+        if (Math.abs(p) < Math.abs(0.5 * q * previousE)
+            && p > q * (a - x) && p < q * (b - x)) {
+          // parabolic step
+          d = p / q;
+          double u = x + d;
+          if (u - a < tol2 || b - u < tol2) {
+            d = (x < middle) ? tol1 : -tol1;
+          }
+          golden = false;
+        }
+      }
+      if (golden) {
+        e = (x < middle) ? b - x : a - x;
+        d = GOLDEN * e;
+      }
+      double u = (Math.abs(d) >= tol1) ? x + d : x + Math.signum(d) * tol1;
+      double fu = -function.revenue(u);
+      if (fu <= fx) {
+        if (u < x) {
+          b = x;
+        }
+        else {
+          a = x;
+        }
+        v = w;
+        fv = fw;
+        w = x;
+        fw = fx;
+        x = u;
+        fx = fu;
+      }
+      else {
+        if (u < x) {
+          a = u;
+        }
+        else {
+          b = u;
+        }
+        if (fu <= fw || w == x) {
+          v = w;
+          fv = fw;
+          w = u;
+          fw = fu;
+        }
+        else if (fu <= fv || v == x || v == w) {
+          v = u;
+          fv = fu;
+        }
+      }
+    }
+    return BoundedMaximum.best(function, lower, upper, x);
+  }
+
+} // class BrentOptimizer
@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+/**
+ * Scenario matrix stored at reduced precision, for the error scenario
+ * library and the per-timeslot wind speed and power scenarios when many
+ * gencos run in one server.
+ *
+ * Values are held row-major, like ScenarioMatrix, as
+ * <ul>
+ * <li>"double": 8 bytes, exact;</li>
+ * <li>"float": 4 bytes, relative error at most 2^-24;</li>
+ * <li>"fixed16": 2 bytes, an unsigned 16-bit step between a minimum and
+ * maximum set per lead hour; the error is at most half a step, plus the
+ * distance to the range for values outside it, which are clamped.</li>
+ * </ul>
+ * Rows and columns are decoded into caller-supplied double arrays, so the
+ * arithmetic stays in double.
+ *
+ * @author Shashank Pande
+ */
+public class CompactScenarioMatrix
+{
+  public static final String DOUBLE = "double";
+  public static final String FLOAT = "float";
+  public static final String FIXED16 = "fixed16";
+
+  private static final int FIXED_STEPS = 0xFFFF;
+
+  private final int scenarioCount;
+  private final int hours;
+  private final String precision;
+  private final double[] probabilities;
+  private double[] doubles = null;
+  private float[] floats = null;
+  private short[] fixed = null;
+  // fixed16 range of each hour
+  private final double[] offset;
+  private final double[] scale;
+  // worst rounding or clamping error of the values written so far
+  private double maxError = 0.0;
+
+  /**
+   * Matrix of zeros with the given precision. For fixed16 the range of each
+   * hour must be set with setColumnRange() before values are written.
+   */
+  public CompactScenarioMatrix (int scenarioCount, int hours,
+                                String precision)
+  {
+    this.scenarioCount = scenarioCount;
+    this.hours = hours;
+    this.probabilities = new double[scenarioCount];
+    this.offset = new double[hours];
+    this.scale = new double[hours];
+    if (FLOAT.equals(precision)) {
+      floats = new float[scenarioCount * hours];
+    }
+    else if (FIXED16.equals(precision)) {
+      fixed = new short[scenarioCount * hours];
+    }
+    else {
+      precision = DOUBLE;
+      doubles = new double[scenarioCount * hours];
+    }
+    this.precision = precision;
+  }
+
+  /**
+   * Copy of a matrix at the given precision; fixed16 ranges are taken from
+   * the values of each hour.
+   */
+  public static CompactScenarioMatrix encode (ScenarioMatrix matrix,
+                                              String precision)
+  {
+    int count = matrix.getScenarioCount();
+    int hours = matrix.getHours();
+    CompactScenarioMatrix result =
+      new CompactScenarioMatrix(count, hours, precision);
+    System.arraycopy(matrix.getProbabilities(), 0, result.probabilities, 0,
+                     count);
+    double[] values = matrix.getValues();
+    for (int h = 0; h < hours; h++) {
+      double min = Double.POSITIVE_INFINITY;
+      double max = Double.NEGATIVE_INFINITY;
+      for (int i = h; i < values.length; i += hours) {
+        min = Math.min(min, values[i]);
+        max = Math.max(max, values[i]);
+      }
+      if (count > 0) {
+        result.setColumnRange(h, min, max);
+      }
+    }
+    for (int s = 0; s < count; s++) {
+      result.setRow(s, values, s * hours);
+    }
+    return result;
+  }
+
+  public int getScenarioCount ()
+  {
+    return scenarioCount;
+  }
+
+  public int getHours ()
+  {
+    return hours;
+  }
+
+  public String getPrecision ()
+  {
+    return precision;
+  }
+
+  public double getProbability (int scenario)
+  {
+    return probabilities[scenario];
+  }
+
+  public void setProbability (int scenario, double probability)
+  {
+    probabilities[scenario] = probability;
+  }
+
+  /**
+   * Probability of each row; the array itself, not to be modified.
+   */
+  double[] getProbabilities ()
+  {
+    return probabilities;
+  }
+
+  /**
+   * Range of the fixed16 values of the given hour; ignored at other
+   * precisions.
+   */
+  public void setColumnRange (int hour, double min, double max)
+  {
+    offset[hour] = min;
+    scale[hour] = (max > min) ? (max - min) / FIXED_STEPS : 0.0;
+  }
+
+  /**
+   * Worst-case absolute error of the values written so far.
+   */
+  public double getMaxRoundingError ()
+  {
+    return maxError;
+  }
+
+  /**
+   * Bytes used by the values.
+   */
+  public long getStorageBytes ()
+  {
+    long cells = (long) scenarioCount * hours;
+    if (floats != null) {
+      return cells * 4;
+    }
+    if (fixed != null) {
+      return cells * 2;
+    }
+    return cells * 8;
+  }
+
+  public double getValue (int scenario, int hour)
+  {
+    int i = scenario * hours + hour;
+    if (doubles != null) {
+      return doubles[i];
+    }
+    if (floats != null) {
+      return floats[i];
+    }
+    return offset[hour] + scale[hour] * (fixed[i] & FIXED_STEPS);
+  }
+
+  public void setValue (int scenario, int hour, double value)
+  {
+    store(scenario * hours + hour, hour, value);
+  }
+
+  /**
+   * Decodes row s into out[0..hours-1].
+   */
+  public void getRow (int scenario, double[] out)
+  {
+    int base = scenario * hours;
+    if (doubles != null) {
+      System.arraycopy(doubles, base, out, 0, hours);
+    }
+    else if (floats != null) {
+      for (int h = 0; h < hours; h++) {
+        out[h] = floats[base + h];
+      }
+    }
+    else {
+      for (int h = 0; h < hours; h++) {
+        out[h] = offset[h] + scale[h] * (fixed[base + h] & FIXED_STEPS);
+      }
+    }
+  }
+
+  /**
+   * Encodes in[from..from+hours-1] as row s.
+   */
+  public void setRow (int scenario, double[] in, int from)
+  {
+    int base = scenario * hours;
+    for (int h = 0; h < hours; h++) {
+      store(base + h, h, in[from + h]);
+    }
+  }
+
+  /**
+   * Decodes column h, the values of all scenarios for one lead hour, into
+   * out[0..scenarioCount-1].
+   */
+  public void getColumn (int hour, double[] out)
+  {
+    if (doubles != null) {
+      for (int s = 0, i = hour; s < scenarioCount; s++, i += hours) {
+        out[s] = doubles[i];
+      }
+    }
+    else if (floats != null) {
+      for (int s = 0, i = hour; s < scenarioCount; s++, i += hours) {
+        out[s] = floats[i];
+      }
+    }
+    else {
+      double o = offset[hour];
+      double k = scale[hour];
+      for (int s = 0, i = hour; s < scenarioCount; s++, i += hours) {
+        out[s] = o + k * (fixed[i] & FIXED_STEPS);
+      }
+    }
+  }
+
+  /**
+   * Copies the values, fixed16 ranges and probabilities of a matrix of the
+   * same shape and precision, without decoding.
+   */
+  public void copyFrom (CompactScenarioMatrix source)
+  {
+    if (doubles != null) {
+      System.arraycopy(source.doubles, 0, doubles, 0, doubles.length);
+    }
+    else if (floats != null) {
+      System.arraycopy(source.floats, 0, floats, 0, floats.length);
+    }
+    else {
+      System.arraycopy(source.fixed, 0, fixed, 0, fixed.length);
+    }
+    System.arraycopy(source.offset, 0, offset, 0, hours);
+    System.arraycopy(source.scale, 0, scale, 0, hours);
+    System.arraycopy(source.probabilities, 0, probabilities, 0,
+                     scenarioCount);
+    maxError = source.maxError;
+  }
+
+  /**
+   * Encodes the values and probabilities of a ScenarioMatrix of the same
+   * shape; for fixed16 the ranges must have been set.
+   */
+  public void copyFrom (ScenarioMatrix source)
+  {
+    double[] values = source.getValues();
+    if (doubles != null) {
+      System.arraycopy(values, 0, doubles, 0, doubles.length);
+    }
+    else {
+      for (int s = 0; s < scenarioCount; s++) {
+        setRow(s, values, s * hours);
+      }
+    }
+    System.arraycopy(source.getProbabilities(), 0, probabilities, 0,
+                     scenarioCount);
+  }
+
+  /**
+   * Decodes the whole matrix into a ScenarioMatrix of the same shape.
+   */
+  public void decodeInto (ScenarioMatrix target)
+  {
+    double[] values = target.getValues();
+    if (doubles != null) {
+      System.arraycopy(doubles, 0, values, 0, values.length);
+    }
+    else {
+      for (int s = 0; s < scenarioCount; s++) {
+        for (int h = 0; h < hours; h++) {
+          values[s * hours + h] = getValue(s, h);
+        }
+      }
+    }
+    for (int s = 0; s < scenarioCount; s++) {
+      target.setProbability(s, probabilities[s]);
+    }
+  }
+
+  private void store (int i, int hour, double value)
+  {
+    double stored;
+    if (doubles != null) {
+      doubles[i] = value;
+      return;
+    }
+    if (floats != null) {
+      floats[i] = (float) value;
+      stored = floats[i];
+    }
+    else {
+      long q = 0;
+      if (scale[hour] > 0.0) {
+        q = Math.round((value - offset[hour]) / scale[hour]);
+        q = Math.max(0, Math.min(FIXED_STEPS, q));
+      }
+      fixed[i] = (short) q;
+      stored = offset[hour] + scale[hour] * q;
+    }
+    double error = Math.abs(value - stored);
+    if (error > maxError) {
+      maxError = error;
+    }
+  }
+
+} // class CompactScenarioMatrix
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Forecast errors of each lead hour sorted by value, with an index by
+ * forecast wind speed of the errors that can occur at that forecast.
+ *
+ * An error e is only possible at forecast f if the actual speed f + e is
+ * not negative, so at forecast f the possible errors of an hour are those
+ * from the first one at least -f up, a suffix of the sorted errors. For
+ * each forecast speed bin [b * w, (b + 1) * w) the index holds where that
+ * suffix starts at the bin edges, so finding it at a given forecast is a
+ * table lookup and a binary search within one bin. The probability of
+ * each suffix is kept too, so that the errors that are not possible can
+ * be counted by their total probability.
+ *
+ * Gencos with the same error scenarios share one index through
+ * forMatrix().
+ *
+ * @author Shashank Pande
+ */
+public class ConditionedErrorIndex
+{
+  // index of each error matrix in use, dropped with the matrix
+  private static final Map<ScenarioMatrix, ConditionedErrorIndex> shared =
+    new WeakHashMap<ScenarioMatrix, ConditionedErrorIndex>();
+
+  private final double binWidth;
+  // per hour: errors ascending, their probabilities, and the probability
+  // of errors i and above
+  private final double[][] errors;
+  private final double[][] probabilities;
+  private final double[][] tailMass;
+  // per hour and bin b: first error at least -b * binWidth
+  private final int[][] binStart;
+
+  /**
+   * @param columns errors of each scenario per hour index, columns[h][s]
+   * @param scenarioProbabilities probability of each scenario
+   * @param binWidth width in m/s of the forecast speed bins
+   */
+  public ConditionedErrorIndex (double[][] columns,
+                                double[] scenarioProbabilities,
+                                double binWidth)
+  {
+    this.binWidth = binWidth;
+    int hours = columns.length;
+    errors = new double[hours][];
+    probabilities = new double[hours][];
+    tailMass = new double[hours][];
+    binStart = new int[hours][];
+    for (int h = 0; h < hours; h++) {
+      PowerDistribution sorted =
+        new PowerDistribution(new double[][] { columns[h] },
+                              new double[][] { scenarioProbabilities }).sorted();
+      double[] e = sorted.getValues(0);
+      double[] p = sorted.getProbabilities(0);
+      int n = e.length;
+      errors[h] = e;
+      probabilities[h] = p;
+      tailMass[h] = new double[n + 1];
+      for (int i = n - 1; i >= 0; i--) {
+        tailMass[h][i] = tailMass[h][i + 1] + p[i];
+      }
+      // bins up to the forecast at which every error is possible
+      int bins = (n == 0 || e[0] >= 0.0)
+          ? 1 : (int) Math.ceil(-e[0] / binWidth) + 1;
+      binStart[h] = new int[bins];
+      for (int b = 0; b < bins; b++) {
+        binStart[h][b] = lowerBound(e, 0, n, -b * binWidth);
+      }
+    }
+  }
+
+  /**
+   * Index of the errors of a scenario matrix.
+   */
+  public static ConditionedErrorIndex fromMatrix (ScenarioMatrix errors,
+                                                  double binWidth)
+  {
+    int hours = errors.getHours();
+    int count = errors.getScenarioCount();
+    double[][] columns = new double[hours][count];
+    for (int s = 0; s < count; s++) {
+      for (int h = 0; h < hours; h++) {
+        columns[h][s] = errors.getValue(s, h);
+      }
+    }
+    return new ConditionedErrorIndex(columns, errors.getProbabilities(),
+                                     binWidth);
+  }
+
+  /**
+   * Index of a shared error matrix, built by the first caller and reused
+   * by later ones with the same bin width.
+   */
+  public static ConditionedErrorIndex forMatrix (ScenarioMatrix errors,
+                                                 double binWidth)
+  {
+    synchronized (shared) {
+      ConditionedErrorIndex result = shared.get(errors);
+      if (result == null || result.binWidth != binWidth) {
+        result = fromMatrix(errors, binWidth);
+        shared.put(errors, result);
+      }
+      return result;
+    }
+  }
+
+  public int getHours ()
+  {
+    return errors.length;
+  }
+
+  /**
+   * Errors of the given hour index in ascending order.
+   */
+  double[] getErrors (int hour)
+  {
+    return errors[hour];
+  }
+
+  double[] getProbabilities (int hour)
+  {
+    return probabilities[hour];
+  }
+
+  /**
+   * Index of the first error of the hour that is possible at the given
+   * forecast speed; all errors from there up are possible.
+   */
+  public int firstPossible (int hour, double forecast)
+  {
+    double[] e = errors[hour];
+    int[] starts = binStart[hour];
+    if (forecast < 0.0) {
+      return lowerBound(e, starts[0], e.length, -forecast);
+    }
+    int b = (int) (forecast / binWidth);
+    if (b + 1 >= starts.length) {
+      // the last bin starts at a forecast where every error is possible
+      return 0;
+    }
+    // -(b + 1) * w < -forecast <= -b * w
+    return lowerBound(e, starts[b + 1], starts[b], -forecast);
+  }
+
+  /**
+   * Probability of the errors from index first up.
+   */
+  public double getMass (int hour, int first)
+  {
+    return tailMass[hour][first];
+  }
+
+  // First index in [lo, hi) of an ascending array whose value is at least
+  // key, or hi if there is none
+  private static int lowerBound (double[] sorted, int lo, int hi, double key)
+  {
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (sorted[mid] < key) {
+        lo = mid + 1;
+      }
+      else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+} // class ConditionedErrorIndex
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Append-only binary log of the inputs and outputs of each activation of a
+ * genco, for reconstructing offers after a game.
+ *
+ * The genco fills a record in a preallocated ring and publishes it; a
+ * background thread, parked until a record is published, copies published
+ * records into a memory-mapped file. Recording allocates nothing and never
+ * blocks: if the writer falls a whole ring behind, the record is dropped and
+ * counted instead. The owner must close() the journal when the game ends.
+ *
+ * Each record in the file is
+ * <pre>
+ *   int    RECORD_MARKER
+ *   int    slot count n
+ *   long   activation time (ms)
+ *   long   serial number of the first open timeslot
+ *   n * FIELDS doubles: for each slot the forecast wind speed, expected
+ *          output, quantity already cleared, quantity offered, offer price,
+ *          the mean clearing, surplus and shortfall prices of the price
+ *          scenarios the offer was computed with, and the 10%, 50% and 90%
+ *          quantiles of the output distribution
+ * </pre>
+ * in big-endian order. The file is extended in regions of REGION_SIZE
+ * bytes; the zero-filled tail after the last record has no marker.
+ *
+ * @author Shashank Pande
+ */
+public class DecisionJournal
+{
+  private static Logger log = Logger.getLogger(DecisionJournal.class);
+
+  public static final int RECORD_MARKER = 0x57504a32; // "WPJ2"
+  public static final int FIELDS = 11;
+  public static final int WIND_SPEED = 0;
+  public static final int EXPECTED_OUTPUT = 1;
+  public static final int CLEARED = 2;
+  public static final int OFFERED = 3;
+  public static final int PRICE = 4;
+  public static final int CLEARING_PRICE = 5;
+  public static final int SURPLUS_PRICE = 6;
+  public static final int SHORTFALL_PRICE = 7;
+  public static final int OUTPUT_P10 = 8;
+  public static final int OUTPUT_P50 = 9;
+  public static final int OUTPUT_P90 = 10;
+
+  private static final int RING_SIZE = 64;
+  private static final int HEADER_BYTES = 24;
+  private static final long REGION_SIZE = 1 << 20;
+
+  private final int maxSlots;
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private MappedByteBuffer region;
+  private long regionStart;
+
+  // ring of records; only the genco writes them before publishing and only
+  // the writer thread reads them after
+  private final long[] times = new long[RING_SIZE];
+  private final long[] firstSerials = new long[RING_SIZE];
+  private final int[] slotCounts = new int[RING_SIZE];
+  private final double[] data;
+
+  private long claimed = 0; // genco thread only
+  private volatile long published = 0;
+  private volatile long written = 0;
+  private final AtomicLong dropped = new AtomicLong();
+  private volatile boolean running = true;
+  private final Thread writer;
+
+  /**
+   * Opens the journal file for appending and starts the writer thread.
+   *
+   * @param maxSlots largest number of slots in a record
+   */
+  public DecisionJournal (File journalFile, int maxSlots) throws IOException
+  {
+    this.maxSlots = maxSlots;
+    this.data = new double[RING_SIZE * maxSlots * FIELDS];
+    this.file = new RandomAccessFile(journalFile, "rw");
+    this.channel = file.getChannel();
+    this.regionStart = findEnd();
+    this.region =
+      channel.map(FileChannel.MapMode.READ_WRITE, regionStart, REGION_SIZE);
+    writer = new Thread(new Runnable() {
+      @Override
+      public void run ()
+      {
+        writeLoop();
+      }
+    }, "journal-" + journalFile.getName());
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Claims a record for an activation, with all fields of all slots 0.
+   * Returns the record handle to fill in and commit, or -1 if the ring is
+   * full and the activation is dropped.
+   */
+  public int begin (long time, long firstSerial)
+  {
+    if (claimed - written >= RING_SIZE) {
+      dropped.incrementAndGet();
+      return -1;
+    }
+    int entry = (int) (claimed % RING_SIZE);
+    times[entry] = time;
+    firstSerials[entry] = firstSerial;
+    slotCounts[entry] = 0;
+    Arrays.fill(data, entry * maxSlots * FIELDS,
+                (entry + 1) * maxSlots * FIELDS, 0.0);
+    claimed++;
+    return entry;
+  }
+
+  /**
+   * Sets one field of one slot of a claimed record. Slots beyond maxSlots
+   * are ignored.
+   */
+  public void set (int entry, int slot, int field, double value)
+  {
+    if (entry < 0 || slot >= maxSlots) {
+      return;
+    }
+    data[(entry * maxSlots + slot) * FIELDS + field] = value;
+    if (slot >= slotCounts[entry]) {
+      slotCounts[entry] = slot + 1;
+    }
+  }
+
+  /**
+   * Hands a claimed record to the writer thread and wakes it.
+   */
+  public void commit (int entry)
+  {
+    if (entry >= 0) {
+      published = claimed;
+      LockSupport.unpark(writer);
+    }
+  }
+
+  /**
+   * Number of activations dropped because the writer fell behind.
+   */
+  public long getDroppedCount ()
+  {
+    return dropped.get();
+  }
+
+  /**
+   * Writes the remaining records, stops the writer and truncates the file
+   * to its contents.
+   */
+  public void close () throws IOException
+  {
+    running = false;
+    LockSupport.unpark(writer);
+    try {
+      writer.join();
+    }
+    catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+    region.force();
+    long end = regionStart + region.position();
+    region = null;
+    channel.truncate(end);
+    file.close();
+  }
+
+  private void writeLoop ()
+  {
+    while (true) {
+      long target = published;
+      if (written < target) {
+        while (written < target) {
+          writeRecord((int) (written % RING_SIZE));
+          written = written + 1;
+        }
+        continue;
+      }
+      if (!running) {
+        return;
+      }
+      // woken by commit() or close(); a record published before parking
+      // leaves a permit, so it is not missed
+      LockSupport.park(this);
+    }
+  }
+
+  private void writeRecord (int entry)
+  {
+    int slots = slotCounts[entry];
+    int bytes = HEADER_BYTES + slots * FIELDS * 8;
+    try {
+      if (region.remaining() < bytes) {
+        regionStart += region.position();
+        region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart,
+                             Math.max(REGION_SIZE, bytes));
+      }
+    }
+    catch (IOException ioe) {
+      log.error("cannot extend journal, record dropped", ioe);
+      dropped.incrementAndGet();
+      return;
+    }
+    region.putInt(RECORD_MARKER);
+    region.putInt(slots);
+    region.putLong(times[entry]);
+    region.putLong(firstSerials[entry]);
+    int offset = entry * maxSlots * FIELDS;
+    for (int i = 0; i < slots * FIELDS; i++) {
+      region.putDouble(data[offset + i]);
+    }
+  }
+
+  // Offset just past the last record of an existing journal
+  private long findEnd () throws IOException
+  {
+    long position = 0;
+    long length = file.length();
+    while (position + HEADER_BYTES <= length) {
+      file.seek(position);
+      if (file.readInt() != RECORD_MARKER) {
+        break;
+      }
+      int slots = file.readInt();
+      position += HEADER_BYTES + (long) slots * FIELDS * 8;
+    }
+    return Math.min(position, length);
+  }
+
+} // class DecisionJournal
@@ -0,0 +1,401 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+import org.powertac.common.config.ConfigurableInstance;
+import org.powertac.common.config.ConfigurableValue;
+
+/**
+ * The forecast error scenarios used by the gencos, shared by all gencos
+ * that use the library.
+ *
+ * Error scenarios are kept per location and lead-hour range. Each entry of
+ * scenarioFiles is written location:hours=file, for a file whose scenarios
+ * cover lead hours 1 to hours, or location=file, whose range is taken from
+ * the file. A genco at a location gets the entry of that location with the
+ * shortest range that covers the hours it needs, or else the longest one,
+ * whose errors are extrapolated to the later hours; a location without
+ * entries uses the default file (errorScenarioDataFile). A file is read the first
+ * time a genco asks for it, so only the locations in use are loaded, and
+ * gencos at the same location share one copy.
+ *
+ * With a reload interval the library watches the files it has loaded: a
+ * background thread checks their modification time and size every
+ * interval, and once a change has held still for one interval it reads and
+ * validates the file. A valid new set of scenarios is kept as pending and
+ * only becomes current when swapPending() is called, which the genco
+ * service does at the start of a timeslot, so an activation always sees
+ * one set of scenarios from start to end. An invalid file is logged and
+ * the current scenarios stay in use.
+ *
+ * @author Shashank Pande
+ */
+@ConfigurableInstance
+public class ErrorScenarioLibrary
+{
+  private static Logger log = Logger.getLogger(ErrorScenarioLibrary.class);
+
+  // largest deviation of the total probability from 1
+  static final double PROBABILITY_TOLERANCE = 1e-6;
+
+  @ConfigurableValue(valueType = "Integer", description = "Seconds between checks of the error scenario files for changes, 0 for no reload")
+  private int reloadInterval = 0;
+
+  @ConfigurableValue(valueType = "List", description = "Error scenario files per location as location:hours=file or location=file")
+  private List<String> scenarioFiles = null;
+
+  // one error scenario file, read on first use
+  private static class Site
+  {
+    final String location;
+    final String fileName;
+    // lead hours covered, 0 until known
+    int hours;
+    volatile WindForecastErrorScenarios current = null;
+    final AtomicReference<WindForecastErrorScenarios> pending =
+      new AtomicReference<WindForecastErrorScenarios>();
+    // modification stamps seen by the watcher
+    String loaded = null;
+    String previous = null;
+    // whether a genco has been told that the range is too short
+    boolean shortWarned = false;
+
+    Site (String location, int hours, String fileName)
+    {
+      this.location = location;
+      this.hours = hours;
+      this.fileName = fileName;
+    }
+  }
+
+  private final Site defaultSite;
+  private Map<String, List<Site>> sites = null;
+  private volatile long version = 0;
+  private Thread watcher = null;
+
+  public ErrorScenarioLibrary (String defaultFile)
+  {
+    defaultSite = new Site("", 0, defaultFile);
+  }
+
+  public String getFileName ()
+  {
+    return defaultSite.fileName;
+  }
+
+  /**
+   * The current error scenarios of the default file.
+   */
+  public WindForecastErrorScenarios getScenarios ()
+  {
+    return load(defaultSite);
+  }
+
+  /**
+   * The current error scenarios for the given location that cover at least
+   * lead hours 1 to hours, read from their file on the first call. If no
+   * entry of the location covers hours, the one with the longest range is
+   * used; a location without entries gets the default file. The scenarios
+   * may cover fewer or more hours than asked for.
+   */
+  public WindForecastErrorScenarios getScenarios (String location, int hours)
+  {
+    return load(findSite(location, hours));
+  }
+
+  /**
+   * Number of times scenarios have been swapped in.
+   */
+  public long getVersion ()
+  {
+    return version;
+  }
+
+  /**
+   * Makes reloaded scenarios current, if there are any. Returns true if
+   * any scenarios changed. Gencos notice the change by the scenarios they
+   * get from getScenarios() not being the ones they use.
+   */
+  public synchronized boolean swapPending ()
+  {
+    boolean swapped = false;
+    for (Site site : allSites()) {
+      WindForecastErrorScenarios next = site.pending.getAndSet(null);
+      if (next != null) {
+        site.current = next;
+        swapped = true;
+        log.info("error scenarios from " + site.fileName + " swapped in");
+      }
+    }
+    if (swapped) {
+      version++;
+    }
+    return swapped;
+  }
+
+  /**
+   * Starts the watcher thread if a reload interval is configured and the
+   * watcher is not running yet.
+   */
+  public synchronized void startWatching ()
+  {
+    if (reloadInterval <= 0 || watcher != null) {
+      return;
+    }
+    final long interval = reloadInterval * 1000L;
+    watcher = new Thread(new Runnable() {
+      @Override
+      public void run ()
+      {
+        watch(interval);
+      }
+    }, "error-scenarios");
+    watcher.setDaemon(true);
+    watcher.start();
+  }
+
+  /**
+   * Stops the watcher thread; reloads that are pending stay pending.
+   */
+  public synchronized void stopWatching ()
+  {
+    if (watcher != null) {
+      watcher.interrupt();
+      watcher = null;
+    }
+  }
+
+  // Entry of the location with the shortest range that covers hours
+  private synchronized Site findSite (String location, int hours)
+  {
+    List<Site> candidates = getSites().get(location);
+    if (candidates == null) {
+      return defaultSite;
+    }
+    Site best = null;
+    Site longest = null;
+    for (Site site : candidates) {
+      int range = rangeOf(site);
+      if (longest == null || range > rangeOf(longest)) {
+        longest = site;
+      }
+      if (range >= hours && (best == null || range < rangeOf(best))) {
+        best = site;
+      }
+    }
+    if (best == null) {
+      if (!longest.shortWarned) {
+        longest.shortWarned = true;
+        log.warn("no error scenarios for " + location + " cover " + hours
+                 + " lead hours, extrapolating " + longest.fileName);
+      }
+      return longest;
+    }
+    return best;
+  }
+
+  // Lead hours covered by a site, reading the file if the range is not
+  // configured
+  private int rangeOf (Site site)
+  {
+    if (site.hours <= 0) {
+      load(site);
+    }
+    return site.hours;
+  }
+
+  private WindForecastErrorScenarios load (Site site)
+  {
+    WindForecastErrorScenarios result = site.current;
+    if (result != null) {
+      return result;
+    }
+    synchronized (site) {
+      if (site.current == null) {
+        WindForecastErrorScenarios scenarios =
+          WindForecastErrorScenarios.readScenarioFile(site.fileName);
+        String problem = validate(scenarios, site.hours);
+        if (problem != null) {
+          log.warn("error scenarios in " + site.fileName + ": " + problem);
+        }
+        site.hours = scenarios.getErrorMatrix().getHours();
+        site.loaded = stamp(new File(site.fileName));
+        site.previous = site.loaded;
+        log.info("error scenarios for " + describe(site) + " read from "
+                 + site.fileName);
+        site.current = scenarios;
+      }
+      return site.current;
+    }
+  }
+
+  // Parses scenarioFiles on first use
+  private synchronized Map<String, List<Site>> getSites ()
+  {
+    if (sites != null) {
+      return sites;
+    }
+    sites = new HashMap<String, List<Site>>();
+    if (scenarioFiles == null) {
+      return sites;
+    }
+    for (String entry : scenarioFiles) {
+      int eq = entry.indexOf('=');
+      if (eq <= 0) {
+        log.error("bad scenario file entry " + entry);
+        continue;
+      }
+      String key = entry.substring(0, eq).trim();
+      String fileName = entry.substring(eq + 1).trim();
+      int hours = 0;
+      int colon = key.indexOf(':');
+      if (colon >= 0) {
+        try {
+          hours = Integer.parseInt(key.substring(colon + 1).trim());
+        }
+        catch (NumberFormatException nfe) {
+          log.error("bad lead hours in scenario file entry " + entry);
+          continue;
+        }
+        key = key.substring(0, colon).trim();
+      }
+      List<Site> list = sites.get(key);
+      if (list == null) {
+        list = new ArrayList<Site>();
+        sites.put(key, list);
+      }
+      list.add(new Site(key, hours, fileName));
+    }
+    return sites;
+  }
+
+  private synchronized List<Site> allSites ()
+  {
+    List<Site> result = new ArrayList<Site>();
+    result.add(defaultSite);
+    for (List<Site> list : getSites().values()) {
+      result.addAll(list);
+    }
+    return result;
+  }
+
+  private void watch (long interval)
+  {
+    while (!Thread.currentThread().isInterrupted()) {
+      try {
+        Thread.sleep(interval);
+      }
+      catch (InterruptedException ie) {
+        return;
+      }
+      checkFiles();
+    }
+  }
+
+  /**
+   * One check of the watcher: reads each loaded file whose modification
+   * time or size has changed, and then not changed since the previous
+   * check, and keeps its scenarios as pending if they are valid.
+   */
+  void checkFiles ()
+  {
+    for (Site site : allSites()) {
+      if (site.current == null) {
+        continue;
+      }
+      String seen = stamp(new File(site.fileName));
+      // reload once a change has held still for one interval, so that a
+      // file that is still being written is not read
+      if (!seen.equals(site.loaded) && seen.equals(site.previous)) {
+        site.loaded = seen;
+        reload(site);
+      }
+      site.previous = seen;
+    }
+  }
+
+  private void reload (Site site)
+  {
+    WindForecastErrorScenarios next;
+    try {
+      next = WindForecastErrorScenarios.readScenarioFile(site.fileName);
+    }
+    catch (RuntimeException re) {
+      log.error("cannot read error scenarios from " + site.fileName, re);
+      return;
+    }
+    String problem = validate(next, site.hours);
+    if (problem != null) {
+      log.error("error scenarios in " + site.fileName + " rejected: "
+                + problem);
+      return;
+    }
+    site.pending.set(next);
+    log.info("error scenarios reloaded from " + site.fileName
+             + ", pending until the next timeslot");
+  }
+
+  private static String describe (Site site)
+  {
+    return (site.location.length() == 0 ? "default" : site.location)
+           + ", lead hours 1 to " + site.hours;
+  }
+
+  private static String stamp (File file)
+  {
+    return file.lastModified() + "/" + file.length();
+  }
+
+  /**
+   * Checks that the probabilities of the scenarios sum to 1 and that they
+   * cover lead hours 1 to hours, if hours is positive. That each scenario
+   * has a value for every one of those hours is checked when the file is
+   * read. Returns a description of the first problem found, or null if
+   * there is none.
+   */
+  static String validate (WindForecastErrorScenarios scenarios, int hours)
+  {
+    ScenarioMatrix matrix = (scenarios == null) ? null : scenarios.getErrorMatrix();
+    if (matrix == null || matrix.getScenarioCount() == 0) {
+      return "no scenarios";
+    }
+    if (hours > 0 && matrix.getHours() != hours) {
+      return "lead hours 1 to " + matrix.getHours() + ", expected 1 to "
+             + hours;
+    }
+    double total = 0;
+    for (int s = 0; s < matrix.getScenarioCount(); s++) {
+      if (matrix.getProbability(s) < 0.0) {
+        return "negative probability in scenario row " + (s + 1);
+      }
+      total += matrix.getProbability(s);
+    }
+    if (Math.abs(total - 1.0) > PROBABILITY_TOLERANCE) {
+      return "probabilities sum to " + total;
+    }
+    return null;
+  }
+
+} // class ErrorScenarioLibrary
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Power curve of a whole wind farm, compiled from the turbine models in the
+ * farm and their counts.
+ *
+ * Between two consecutive breakpoints (cut-in, rated and cut-out speeds and
+ * efficiency band edges of all turbine models) every turbine stays in one
+ * region of its curve, so the farm output there has the form
+ * rho * (m * v + b) * v^3 + c: m and b collect the efficiency bands of the
+ * turbines in their partial-load region, c the capacity of the turbines at
+ * rated output. Evaluating the farm is then one segment lookup and one
+ * polynomial, whatever the number of turbine models.
+ *
+ * getPowerOutputs() evaluates a whole scenario matrix in blocks, in a form
+ * the JIT compiler can turn into SIMD code: the segment of each speed is
+ * counted branch-free against each breakpoint in turn (a compare mask per
+ * breakpoint), the segment coefficients are gathered into block arrays, and
+ * the polynomial is then one straight loop. The operations and their order
+ * are those of getPowerOutput(), so both give the same bits.
+ *
+ * @author Shashank Pande
+ */
+public class FarmPowerCurve
+{
+  // sorted breakpoint speeds; segment k covers [breakpoints[k-1], breakpoints[k])
+  private final double[] breakpoints;
+  // per-segment coefficients, length breakpoints.length + 1
+  private final double[] slope;
+  private final double[] intercept;
+  private final double[] constant;
+  private final double capacity;
+
+  // speeds per block of getPowerOutputs()
+  private static final int BLOCK = 256;
+
+  private FarmPowerCurve (double[] breakpoints, double[] slope,
+                          double[] intercept, double[] constant,
+                          double capacity)
+  {
+    this.breakpoints = breakpoints;
+    this.slope = slope;
+    this.intercept = intercept;
+    this.constant = constant;
+    this.capacity = capacity;
+  }
+
+  /**
+   * Compiles the curve of a farm made of counts[i] turbines of model
+   * turbines.get(i).
+   */
+  public static FarmPowerCurve compile (List<WindTurbine> turbines,
+                                        List<Integer> counts)
+  {
+    TreeSet<Double> speeds = new TreeSet<Double>();
+    double capacity = 0;
+    for (int t = 0; t < turbines.size(); t++) {
+      WindTurbine turbine = turbines.get(t);
+      speeds.add(turbine.getCutInSpeed());
+      speeds.add(turbine.getMaxPowerOutputSpeed());
+      speeds.add(turbine.getCutOutSpeed());
+      WindTurbineEfficiencyCurve curve = turbine.getEfficiencyCurve();
+      for (int band = 0; band < curve.getBandCount(); band++) {
+        speeds.add(curve.getBandFromSpeed(band));
+        speeds.add(curve.getBandToSpeed(band));
+      }
+      capacity += turbine.getNominalCapacity() * counts.get(t);
+    }
+    double[] breakpoints = new double[speeds.size()];
+    int n = 0;
+    for (Double speed : speeds) {
+      breakpoints[n++] = speed;
+    }
+
+    int segments = breakpoints.length + 1;
+    double[] slope = new double[segments];
+    double[] intercept = new double[segments];
+    double[] constant = new double[segments];
+    for (int k = 1; k < segments - 1; k++) {
+      // every turbine is in the same region anywhere in the segment,
+      // so classify each one at the midpoint
+      double v = 0.5 * (breakpoints[k - 1] + breakpoints[k]);
+      for (int t = 0; t < turbines.size(); t++) {
+        WindTurbine turbine = turbines.get(t);
+        int count = counts.get(t);
+        if (v < turbine.getCutInSpeed() || v > turbine.getCutOutSpeed()) {
+          continue;
+        }
+        if (v >= turbine.getMaxPowerOutputSpeed()) {
+          constant[k] += turbine.getNominalCapacity() * count;
+          continue;
+        }
+        WindTurbineEfficiencyCurve curve = turbine.getEfficiencyCurve();
+        for (int band = 0; band < curve.getBandCount(); band++) {
+          if (v >= curve.getBandFromSpeed(band) && v < curve.getBandToSpeed(band)) {
+            // 0.5 * efficiency * area * rho * v^3, in MW
+            double factor = 0.5 * turbine.getSweepArea() * count / 1000000;
+            slope[k] += factor * curve.getSlope(band);
+            intercept[k] += factor * curve.getYIntercept(band);
+            break;
+          }
+        }
+      }
+    }
+    return new FarmPowerCurve(breakpoints, slope, intercept, constant,
+                              capacity);
+  }
+
+  /**
+   * Nominal capacity of the farm in MW.
+   */
+  public double getCapacity ()
+  {
+    return capacity;
+  }
+
+  /**
+   * Farm power output in MW at the given wind speed (m/sec) and air
+   * density (kg/m^3).
+   */
+  public double getPowerOutput (double windSpeed, double airDensity)
+  {
+    int k = segment(windSpeed);
+    double v3 = windSpeed * windSpeed * windSpeed;
+    return airDensity * (slope[k] * windSpeed + intercept[k]) * v3
+           + constant[k];
+  }
+
+  /**
+   * Farm output for each wind speed of a row-major scenario matrix with the
+   * given number of hours per row, airDensities[h] being the density of
+   * hour h. Writes out[i] for i from 0 to windSpeeds.length - 1; equal to
+   * getPowerOutput() of each speed.
+   */
+  public void getPowerOutputs (double[] windSpeeds, double[] airDensities,
+                               int hours, double[] out)
+  {
+    getPowerOutputs(windSpeeds, airDensities, hours, out, 0,
+                    windSpeeds.length);
+  }
+
+  /**
+   * As getPowerOutputs() above, for the cells from (inclusive) to to
+   * (exclusive) only.
+   */
+  public void getPowerOutputs (double[] windSpeeds, double[] airDensities,
+                               int hours, double[] out, int from, int to)
+  {
+    final int[] seg = new int[BLOCK];
+    final double[] m = new double[BLOCK];
+    final double[] b = new double[BLOCK];
+    final double[] c = new double[BLOCK];
+    final double[] rho = new double[BLOCK];
+    final int n = to;
+    for (int start = from; start < n; start += BLOCK) {
+      final int len = Math.min(BLOCK, n - start);
+      // segment = number of breakpoints <= speed, one mask per breakpoint
+      for (int i = 0; i < len; i++) {
+        seg[i] = 0;
+      }
+      for (int j = 0; j < breakpoints.length; j++) {
+        final double edge = breakpoints[j];
+        for (int i = 0; i < len; i++) {
+          seg[i] += (edge <= windSpeeds[start + i]) ? 1 : 0;
+        }
+      }
+      // gather the coefficients of each speed's segment and its density
+      int h = start % hours;
+      for (int i = 0; i < len; i++) {
+        final int k = seg[i];
+        m[i] = slope[k];
+        b[i] = intercept[k];
+        c[i] = constant[k];
+        rho[i] = airDensities[h];
+        if (++h == hours) {
+          h = 0;
+        }
+      }
+      // polynomial, as in getPowerOutput()
+      for (int i = 0; i < len; i++) {
+        final double v = windSpeeds[start + i];
+        final double v3 = v * v * v;
+        out[start + i] = rho[i] * (m[i] * v + b[i]) * v3 + c[i];
+      }
+    }
+  }
+
+  // number of breakpoints <= windSpeed, found by bisection
+  private int segment (double windSpeed)
+  {
+    int lo = 0;
+    int hi = breakpoints.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (breakpoints[mid] <= windSpeed) {
+        lo = mid + 1;
+      }
+      else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+} // class FarmPowerCurve
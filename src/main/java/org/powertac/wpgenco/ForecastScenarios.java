@@ -15,16 +15,15 @@
  */
 package org.powertac.wpgenco;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 //import org.apache.log4j.Logger;
 import org.powertac.common.config.ConfigurableInstance;
 import org.powertac.common.config.ConfigurableValue;
 import org.powertac.common.state.Domain;
-import org.powertac.wpgenco.Scenario.ScenarioValue;
 
 /**
  * This class represents forecast scenarios for wind speed forecast errors,
@@ -46,80 +45,622 @@ public class ForecastScenarios
   @ConfigurableValue(valueType = "String", description = "location of forecast")
   String location;
 
-  // member variables
-  private final WindfarmGenco windfarmGenco;
-  private WindForecastErrorScenarios windspeedErrorScenarios = null;
-  private final List<Scenario> windSpeedForecastScenarios =
-    new ArrayList<Scenario>();
-  private final List<Scenario> windFarmPowerOutputScenarios =
-    new ArrayList<Scenario>();
+  // member variables; the error matrix is shared, e.g. with the error
+  // scenario library and other gencos, and only read
+  private final WindForecast windForecast;
+  private final FarmPowerCurve powerCurve;
+  private final AliasSampler sampler;
+  private final ScenarioMatrix windspeedErrorScenarios;
+  private ScenarioMatrix windSpeedForecastScenarios = null;
+  private ScenarioMatrix windFarmPowerOutputScenarios = null;
+
+  // reduced precision storage of the wind speed and power scenarios, used
+  // instead of the matrices above when the precision is not double; the
+  // double power matrix is then only allocated if it is asked for
+  private String precision = CompactScenarioMatrix.DOUBLE;
+  private CompactScenarioMatrix compactWindSpeeds = null;
+  private CompactScenarioMatrix compactPowerOutputs = null;
+  private double[] errorMin = null;
+  private double[] errorMax = null;
+  private double[] row = null;
+  private boolean powerMatrixDecoded = false;
+  private boolean blockKernel = false;
+  private int parallelThreshold = 0;
+
+  // power output scenarios published for readers on other threads, and the
+  // retired snapshots whose buffers can be refilled
+  private volatile ScenarioSnapshot currentSnapshot = null;
+  private final Queue<ScenarioSnapshot> recycledSnapshots =
+    new ConcurrentLinkedQueue<ScenarioSnapshot>();
+  private long snapshotSequence = 0;
+  private int snapshotsCreated = 0;
+
+  // errors by lead hour for the forecast-conditioned distribution, built
+  // on request
+  private ConditionedErrorIndex conditionedIndex = null;
+
+  // sub-hourly resolution: wind speeds and power outputs per interval,
+  // row-major with hours * intervalsPerHour columns, and for each interval
+  // column the two hour columns it is interpolated from and the weight of
+  // the later one
+  private int intervalsPerHour = 1;
+  private double[] intervalWindSpeeds = null;
+  private ScenarioMatrix intervalPowerOutputs = null;
+  private int[] interpolationLeft = null;
+  private int[] interpolationRight = null;
+  private double[] interpolationWeight = null;
 
   public ForecastScenarios (final WindfarmGenco ref)
   {
-    this.windfarmGenco = ref;
-    windspeedErrorScenarios = WindForecastErrorScenarios.getWindForecastErrorScenarios();
+    this(WindForecastErrorScenarios.getWindForecastErrorScenarios(), ref);
+  }
+
+  /**
+   * Scenarios of the given genco for the given error scenarios, e.g. those
+   * of an ErrorScenarioLibrary, over the lead hours of the genco.
+   */
+  public ForecastScenarios (WindForecastErrorScenarios errors,
+                            WindfarmGenco ref)
+  {
+    this(errors.getErrorMatrix(ref.getScenarioHours()), errors.getSampler(), ref.getWindForecast(),
+         ref.getPowerCurve());
+    location = ref.getLocation();
+  }
+
+  /**
+   * Scenarios for the given error scenarios, forecast and farm power curve,
+   * without a genco, e.g. for backtesting. The error matrix is only read.
+   */
+  public ForecastScenarios (ScenarioMatrix errors, WindForecast forecast,
+                            FarmPowerCurve powerCurve)
+  {
+    this(errors, new AliasSampler(errors.getProbabilities()), forecast,
+         powerCurve);
+  }
+
+  ForecastScenarios (ScenarioMatrix errors, AliasSampler sampler,
+                     WindForecast forecast, FarmPowerCurve powerCurve)
+  {
+    this.windForecast = forecast;
+    this.powerCurve = powerCurve;
+    this.sampler = sampler;
+    windspeedErrorScenarios = errors;
+    int count = windspeedErrorScenarios.getScenarioCount();
+    int hours = windspeedErrorScenarios.getHours();
+    windSpeedForecastScenarios = new ScenarioMatrix(count, hours);
+    windFarmPowerOutputScenarios = new ScenarioMatrix(count, hours);
+    for (int s = 0; s < count; s++) {
+      double probability = windspeedErrorScenarios.getProbability(s);
+      windSpeedForecastScenarios.setProbability(s, probability);
+      windFarmPowerOutputScenarios.setProbability(s, probability);
+    }
+  }
+
+
+  /**
+   * Stores the wind speed and power scenarios at the given precision, one
+   * of the CompactScenarioMatrix precisions. Must be called before the
+   * first calculation. The error scenarios stay shared at double precision,
+   * since they are held by the library anyway.
+   */
+  public void setStoragePrecision (String precision)
+  {
+    if (CompactScenarioMatrix.DOUBLE.equals(precision)
+        || compactWindSpeeds != null) {
+      return;
+    }
+    int count = windspeedErrorScenarios.getScenarioCount();
+    int hours = windspeedErrorScenarios.getHours();
+    compactWindSpeeds = new CompactScenarioMatrix(count, hours, precision);
+    if (CompactScenarioMatrix.DOUBLE.equals(compactWindSpeeds.getPrecision())) {
+      // not a reduced precision
+      compactWindSpeeds = null;
+      return;
+    }
+    this.precision = compactWindSpeeds.getPrecision();
+    errorMin = new double[hours];
+    errorMax = new double[hours];
+    for (int h = 0; h < hours; h++) {
+      errorMin[h] = Double.POSITIVE_INFINITY;
+      errorMax[h] = Double.NEGATIVE_INFINITY;
+      for (int s = 0; s < count; s++) {
+        double e = windspeedErrorScenarios.getValue(s, h);
+        errorMin[h] = Math.min(errorMin[h], e);
+        errorMax[h] = Math.max(errorMax[h], e);
+      }
+    }
+    compactPowerOutputs =
+      new CompactScenarioMatrix(count, hours, this.precision);
+    for (int s = 0; s < count; s++) {
+      double probability = windspeedErrorScenarios.getProbability(s);
+      compactWindSpeeds.setProbability(s, probability);
+      compactPowerOutputs.setProbability(s, probability);
+    }
+    for (int h = 0; h < hours; h++) {
+      // output can only exceed capacity through air density above normal
+      compactPowerOutputs.setColumnRange(h, 0.0, powerCurve.getCapacity());
+    }
+    row = new double[hours];
+    windSpeedForecastScenarios = null;
+    windFarmPowerOutputScenarios = null;
+    powerMatrixDecoded = false;
+  }
+
+  /**
+   * Evaluates the power curve over the whole wind speed matrix with the
+   * block kernel of FarmPowerCurve instead of one speed at a time. The
+   * results are the same; only the double precision path uses it.
+   */
+  public void setBlockKernel (boolean blockKernel)
+  {
+    this.blockKernel = blockKernel;
   }
 
+  /**
+   * Matrices of at least this many cells are computed in row blocks on the
+   * shared ScenarioBlocks pool, with the same results as in one pass; 0 for
+   * always sequential. Only the double precision path runs in parallel.
+   */
+  public void setParallelThreshold (int cells)
+  {
+    this.parallelThreshold = cells;
+  }
+
+  /**
+   * Builds the index used by calcConditionedDistribution(), with forecast
+   * speed bins of the given width in m/s. The index is shared by all users
+   * of the same error scenarios.
+   */
+  public void setConditioning (double binWidth)
+  {
+    conditionedIndex =
+      ConditionedErrorIndex.forMatrix(windspeedErrorScenarios, binWidth);
+    // the conditioned distribution does not compute the scenarios, so an
+    // earlier snapshot would only go stale
+    replaceSnapshot(null);
+  }
+
+  /**
+   * Computes the power output at the given number of intervals per hour,
+   * e.g. 4 for 15 minutes, with the wind speed and air density of each
+   * interval interpolated linearly in time between the hourly values, which
+   * hold at the middle of their hour. The power of each lead hour is then
+   * the mean over its intervals. Only the double precision path has
+   * sub-hourly resolution; the interval matrices are allocated here and
+   * reused.
+   */
+  public void setIntervalsPerHour (int intervals)
+  {
+    if (intervals <= 1 || windSpeedForecastScenarios == null) {
+      intervalsPerHour = 1;
+      intervalWindSpeeds = null;
+      intervalPowerOutputs = null;
+      return;
+    }
+    intervalsPerHour = intervals;
+    int count = windSpeedForecastScenarios.getScenarioCount();
+    int hours = windSpeedForecastScenarios.getHours();
+    int columns = hours * intervals;
+    intervalWindSpeeds = new double[count * columns];
+    intervalPowerOutputs = new ScenarioMatrix(count, columns);
+    for (int s = 0; s < count; s++) {
+      intervalPowerOutputs.setProbability(s, windSpeedForecastScenarios.getProbability(s));
+    }
+    interpolationLeft = new int[columns];
+    interpolationRight = new int[columns];
+    interpolationWeight = new double[columns];
+    for (int c = 0; c < columns; c++) {
+      // position of the interval middle in hour-middle units
+      double x = (c + 0.5) / intervals - 0.5;
+      int left = Math.max(0, Math.min(hours - 1, (int) Math.floor(x)));
+      interpolationLeft[c] = left;
+      interpolationRight[c] = Math.min(left + 1, hours - 1);
+      interpolationWeight[c] = Math.max(0.0, Math.min(1.0, x - left));
+    }
+  }
+
+  public int getIntervalsPerHour ()
+  {
+    return intervalsPerHour;
+  }
+
+  /**
+   * Power output of each interval of the last calculation, with
+   * hours * getIntervalsPerHour() columns; null at hourly resolution.
+   */
+  public ScenarioMatrix getIntervalPowerOutputMatrix ()
+  {
+    return intervalPowerOutputs;
+  }
+
+  public String getStoragePrecision ()
+  {
+    return precision;
+  }
+
+  /**
+   * Worst-case rounding error of the stored error, wind speed and power
+   * scenarios so far, in m/s for the first two and MW for the last; 0 at
+   * double precision. The errors are never rounded.
+   */
+  public double[] getMaxRoundingErrors ()
+  {
+    if (compactWindSpeeds == null) {
+      return new double[3];
+    }
+    return new double[] { 0.0,
+                          compactWindSpeeds.getMaxRoundingError(),
+                          compactPowerOutputs.getMaxRoundingError() };
+  }
+
+  /**
+   * Bytes of the scenario values held by this instance: the wind speed and
+   * power scenarios, the interval matrices, the double power matrix if it
+   * has been decoded at reduced precision, and the snapshots. The error
+   * scenarios are shared and not counted.
+   */
+  public long getStorageBytes ()
+  {
+    long cells = (long) windspeedErrorScenarios.getScenarioCount()
+                 * windspeedErrorScenarios.getHours();
+    long result = 0;
+    if (compactWindSpeeds != null) {
+      result += compactWindSpeeds.getStorageBytes()
+                + compactPowerOutputs.getStorageBytes();
+    }
+    if (windSpeedForecastScenarios != null) {
+      result += cells * 8;
+    }
+    if (windFarmPowerOutputScenarios != null) {
+      result += cells * 8;
+    }
+    if (intervalPowerOutputs != null) {
+      result += (long) intervalWindSpeeds.length * 8 * 2;
+    }
+    if (snapshotsCreated > 0) {
+      long snapshotBytes = (compactPowerOutputs != null)
+          ? compactPowerOutputs.getStorageBytes() : cells * 8;
+      result += snapshotsCreated * snapshotBytes;
+    }
+    return result;
+  }
 
   /**
    * calculate wind speed forecast scenarios
    */
   public void calcWindSpeedForecastScenarios ()
   {
-    windSpeedForecastScenarios.clear();
     final List<Double> windSpeedForecastValues =
-      windfarmGenco.getWindForecast().getWindSpeeds();
-    for (final Scenario errorScenario : windspeedErrorScenarios.getScenarios()) {
-      int scenarioNumber = errorScenario.getScenarioNumber();
-      final double probability = errorScenario.getProbability();
-      Scenario windSpeedScenario = new Scenario(scenarioNumber, probability);
-      final Set<ScenarioValue> errorValues = errorScenario.getValues();
-      for (ScenarioValue ev : errorValues) {
-        final int    leadHour = ev.getHour();
-        final double errval = ev.getValue();
-        final double windforecast = windSpeedForecastValues.get(leadHour - 1);
-        final double windSpeed = windforecast + errval;
-        windSpeedScenario.addValue(new ScenarioValue(leadHour, windSpeed));       
+      windForecast.getWindSpeeds();
+    final int hours = windspeedErrorScenarios.getHours();
+    final double[] forecast = new double[hours];
+    for (int h = 0; h < hours; h++) {
+      forecast[h] = windSpeedForecastValues.get(h);
+    }
+    if (compactWindSpeeds != null) {
+      calcCompactWindSpeeds(forecast);
+      return;
+    }
+    final double[] errors = windspeedErrorScenarios.getValues();
+    final double[] windSpeeds = windSpeedForecastScenarios.getValues();
+    ScenarioBlocks.RowTask task = new ScenarioBlocks.RowTask() {
+      @Override
+      public void run (int from, int to)
+      {
+        for (int i = from * hours; i < to * hours; i += hours) {
+          for (int h = 0; h < hours; h++) {
+            windSpeeds[i + h] = forecast[h] + errors[i + h];
+          }
+        } // for each error scenario
       }
-      windSpeedScenario.createValueList();
-      windSpeedForecastScenarios.add(windSpeedScenario);
-    } // for each error scenario
+    };
+    runRows(windSpeedForecastScenarios, task);
   } // calcWindSpeedForecastScenarios()
 
+  // Runs task over all rows of matrix, in parallel blocks if the matrix is
+  // at least the parallel threshold
+  private void runRows (ScenarioMatrix matrix, ScenarioBlocks.RowTask task)
+  {
+    int rows = matrix.getScenarioCount();
+    int hours = matrix.getHours();
+    if (parallelThreshold > 0 && (long) rows * hours >= parallelThreshold) {
+      ScenarioBlocks.run(rows, hours, task);
+    }
+    else {
+      task.run(0, rows);
+    }
+  }
+
+  // Wind speed scenarios at reduced precision, a row at a time through the
+  // scratch row; the range of each hour is the forecast plus the error range
+  private void calcCompactWindSpeeds (double[] forecast)
+  {
+    final int hours = forecast.length;
+    for (int h = 0; h < hours; h++) {
+      compactWindSpeeds.setColumnRange(h, forecast[h] + errorMin[h],
+                                       forecast[h] + errorMax[h]);
+    }
+    final int count = windspeedErrorScenarios.getScenarioCount();
+    final double[] errors = windspeedErrorScenarios.getValues();
+    for (int s = 0; s < count; s++) {
+      for (int h = 0; h < hours; h++) {
+        row[h] = errors[s * hours + h] + forecast[h];
+      }
+      compactWindSpeeds.setRow(s, row, 0);
+    }
+  }
+
   /**
    * Calculate Wind Power output scenarios.
    */
   public void calcPowerOutputScenarios ()
   {
-    windFarmPowerOutputScenarios.clear();
-    final List<Double> powerOutputs = new ArrayList<Double>();
     final List<Double> airPressures =
-      windfarmGenco.getWindForecast().getAirPressure();
+      windForecast.getAirPressure();
     final List<Double> temperatures =
-      windfarmGenco.getWindForecast().getTemperature();
-    for (final Scenario windSpForecastScenario: windSpeedForecastScenarios) {
-      final double probability = windSpForecastScenario.getProbability();
-      final int scenarioNumber = windSpForecastScenario.getScenarioNumber();
-      powerOutputs.clear();
-      final Set<ScenarioValue> windSpeeds = windSpForecastScenario.getValues();
-      Scenario powerOutputScenario = new Scenario(scenarioNumber, probability);
-      for (ScenarioValue wsp : windSpeeds) {
-        int hour = wsp.getHour();
-        double windSpeed = wsp.getValue();
-        double airpressure = airPressures.get(hour - 1);
-        double temperature = temperatures.get(hour - 1);
-        double airdensity = WindfarmGenco.getDryAirDensity(airpressure, temperature);
-        double powerout = windfarmGenco.getEstimatedPowerOutput(windSpeed, airdensity);
-        powerOutputScenario.addValue(new ScenarioValue(hour, powerout));
-      } //for each wind speed scenario value
-      powerOutputScenario.createValueList();
-      windFarmPowerOutputScenarios.add(powerOutputScenario);
-    } // for each wind speed scenario
+      windForecast.getTemperature();
+    final int hours = (compactWindSpeeds == null)
+        ? windSpeedForecastScenarios.getHours() : compactWindSpeeds.getHours();
+    final double[] airDensities = new double[hours];
+    for (int h = 0; h < hours; h++) {
+      airDensities[h] =
+        WindfarmGenco.getDryAirDensity(airPressures.get(h),
+                                       temperatures.get(h));
+    }
+    if (compactWindSpeeds != null) {
+      final int count = compactWindSpeeds.getScenarioCount();
+      for (int s = 0; s < count; s++) {
+        compactWindSpeeds.getRow(s, row);
+        for (int h = 0; h < hours; h++) {
+          row[h] = powerCurve.getPowerOutput(row[h], airDensities[h]);
+        }
+        compactPowerOutputs.setRow(s, row, 0);
+      }
+      powerMatrixDecoded = false;
+      publishSnapshot();
+      return;
+    }
+    if (intervalPowerOutputs != null) {
+      calcIntervalPowerOutputs(airDensities);
+      publishSnapshot();
+      return;
+    }
+    final double[] windSpeeds = windSpeedForecastScenarios.getValues();
+    final double[] powerOutputs = windFarmPowerOutputScenarios.getValues();
+    final boolean block = blockKernel;
+    ScenarioBlocks.RowTask task = new ScenarioBlocks.RowTask() {
+      @Override
+      public void run (int from, int to)
+      {
+        if (block) {
+          powerCurve.getPowerOutputs(windSpeeds, airDensities, hours,
+                                     powerOutputs, from * hours, to * hours);
+          return;
+        }
+        for (int i = from * hours; i < to * hours; i += hours) {
+          for (int h = 0; h < hours; h++) {
+            powerOutputs[i + h] =
+              powerCurve.getPowerOutput(windSpeeds[i + h], airDensities[h]);
+          } //for each wind speed scenario value
+        } // for each wind speed scenario
+      }
+    };
+    runRows(windFarmPowerOutputScenarios, task);
+    publishSnapshot();
   }
 
+  // Power output per interval from interpolated wind speeds and air
+  // densities, averaged into the hourly power output scenarios
+  private void calcIntervalPowerOutputs (double[] airDensities)
+  {
+    final int hours = windSpeedForecastScenarios.getHours();
+    final int k = intervalsPerHour;
+    final int columns = hours * k;
+    final double[] intervalDensities = new double[columns];
+    for (int c = 0; c < columns; c++) {
+      double w = interpolationWeight[c];
+      intervalDensities[c] = (1.0 - w) * airDensities[interpolationLeft[c]]
+                             + w * airDensities[interpolationRight[c]];
+    }
+    final double[] windSpeeds = windSpeedForecastScenarios.getValues();
+    final double[] powerOutputs = windFarmPowerOutputScenarios.getValues();
+    final double[] speeds = intervalWindSpeeds;
+    final double[] intervalPower = intervalPowerOutputs.getValues();
+    final int[] left = interpolationLeft;
+    final int[] right = interpolationRight;
+    final double[] weight = interpolationWeight;
+    ScenarioBlocks.RowTask task = new ScenarioBlocks.RowTask() {
+      @Override
+      public void run (int from, int to)
+      {
+        for (int s = from; s < to; s++) {
+          int hourly = s * hours;
+          int fine = s * columns;
+          for (int c = 0; c < columns; c++) {
+            double w = weight[c];
+            speeds[fine + c] = (1.0 - w) * windSpeeds[hourly + left[c]]
+                               + w * windSpeeds[hourly + right[c]];
+          }
+        }
+        powerCurve.getPowerOutputs(speeds, intervalDensities, columns,
+                                   intervalPower, from * columns,
+                                   to * columns);
+        for (int s = from; s < to; s++) {
+          int fine = s * columns;
+          for (int h = 0; h < hours; h++) {
+            double sum = 0.0;
+            for (int j = 0; j < k; j++) {
+              sum += intervalPower[fine + h * k + j];
+            }
+            powerOutputs[s * hours + h] = sum / k;
+          }
+        }
+      }
+    };
+    runRows(windFarmPowerOutputScenarios, task);
+  }
+
+  // Copies the power output scenarios, at the storage precision and without
+  // decoding, into a recycled or new snapshot and makes it the current one.
+  // The previous snapshot is retired once its last reader releases it.
+  private void publishSnapshot ()
+  {
+    ScenarioSnapshot next = recycledSnapshots.poll();
+    if (next == null) {
+      int count = windspeedErrorScenarios.getScenarioCount();
+      int hours = windspeedErrorScenarios.getHours();
+      next = new ScenarioSnapshot(new CompactScenarioMatrix(count, hours,
+                                                            precision),
+                                  recycledSnapshots);
+      snapshotsCreated++;
+    }
+    if (compactPowerOutputs != null) {
+      next.fill(compactPowerOutputs, ++snapshotSequence);
+    }
+    else {
+      next.fill(windFarmPowerOutputScenarios, ++snapshotSequence);
+    }
+    replaceSnapshot(next);
+  }
+
+  // Makes next the current snapshot, or none, and retires the previous one
+  private void replaceSnapshot (ScenarioSnapshot next)
+  {
+    ScenarioSnapshot previous = currentSnapshot;
+    currentSnapshot = next;
+    if (previous != null) {
+      previous.release();
+    }
+  }
+
+  /**
+   * The power output scenarios of the latest calculation, or null before
+   * the first. Safe to call from any thread; the snapshot does not change
+   * until the caller hands it back with release(). Snapshots are published
+   * by calcPowerOutputScenarios(), so there are none while only
+   * calcConditionedDistribution() is used.
+   */
+  public ScenarioSnapshot acquireSnapshot ()
+  {
+    while (true) {
+      ScenarioSnapshot snapshot = currentSnapshot;
+      if (snapshot == null) {
+        return null;
+      }
+      // fails only if the snapshot was retired since it was read, in
+      // which case a newer one has been published
+      if (snapshot.tryRetain()) {
+        return snapshot;
+      }
+    }
+  }
+
+  /**
+   * Output distribution of each lead hour given the current forecast. Only
+   * the errors that are possible at the forecast speed of the hour
+   * (forecast plus error not negative) are evaluated through the power
+   * curve; the others would leave no wind and are kept as one value, the
+   * output at 0 m/s, with their total probability. So the distribution is
+   * that of the unconditioned scenarios with the wind speed clamped at 0,
+   * at the cost of the possible errors only. Works from the index of
+   * setConditioning() and neither reads nor changes the scenario matrices.
+   */
+  public PowerDistribution calcConditionedDistribution ()
+  {
+    final List<Double> windSpeedForecastValues = windForecast.getWindSpeeds();
+    final List<Double> airPressures = windForecast.getAirPressure();
+    final List<Double> temperatures = windForecast.getTemperature();
+    final int hours = conditionedIndex.getHours();
+    double[][] values = new double[hours][];
+    double[][] probs = new double[hours][];
+    for (int h = 0; h < hours; h++) {
+      double forecast = windSpeedForecastValues.get(h);
+      double airDensity =
+        WindfarmGenco.getDryAirDensity(airPressures.get(h),
+                                       temperatures.get(h));
+      double[] errors = conditionedIndex.getErrors(h);
+      double[] p = conditionedIndex.getProbabilities(h);
+      int first = conditionedIndex.firstPossible(h, forecast);
+      int n = errors.length - first;
+      // one value for the impossible errors, if there are any
+      int offset = (first > 0) ? 1 : 0;
+      values[h] = new double[n + offset];
+      probs[h] = new double[n + offset];
+      if (offset > 0) {
+        values[h][0] = powerCurve.getPowerOutput(0.0, airDensity);
+        probs[h][0] = conditionedIndex.getMass(h, 0)
+                      - conditionedIndex.getMass(h, first);
+      }
+      for (int i = 0; i < n; i++) {
+        values[h][offset + i] =
+          powerCurve.getPowerOutput(forecast + errors[first + i], airDensity);
+        probs[h][offset + i] = p[first + i];
+      }
+    }
+    return new PowerDistribution(values, probs);
+  }
+
+  /**
+   * Power output scenarios of the latest calculation as Scenario objects,
+   * taken from the current snapshot so that they can be read from any
+   * thread; empty if there is none, see acquireSnapshot(). These are
+   * created on each call; the offer calculation uses getPowerOutputMatrix()
+   * instead.
+   */
   public List<Scenario> getWindPowerOutputScenarios ()
   {
-    return Collections.unmodifiableList(windFarmPowerOutputScenarios);
+    ScenarioSnapshot snapshot = acquireSnapshot();
+    if (snapshot == null) {
+      return Collections.emptyList();
+    }
+    try {
+      return Collections.unmodifiableList(snapshot.toScenarios());
+    }
+    finally {
+      snapshot.release();
+    }
+  }
+
+  /**
+   * Draws scenario rows by their probabilities, e.g. to pick the output the
+   * farm actually produces or for Monte Carlo paths.
+   */
+  public AliasSampler getSampler ()
+  {
+    return sampler;
+  }
+
+  /**
+   * Power output scenarios computed by the last call to
+   * calcPowerOutputScenarios(). The matrix is reused across calls, so only
+   * the thread that runs the calculation may use it; others use
+   * acquireSnapshot(). At reduced precision it is decoded on request, into
+   * a double matrix allocated by the first request.
+   */
+  public ScenarioMatrix getPowerOutputMatrix ()
+  {
+    if (compactPowerOutputs != null && !powerMatrixDecoded) {
+      if (windFarmPowerOutputScenarios == null) {
+        windFarmPowerOutputScenarios =
+          new ScenarioMatrix(compactPowerOutputs.getScenarioCount(),
+                             compactPowerOutputs.getHours());
+      }
+      compactPowerOutputs.decodeInto(windFarmPowerOutputScenarios);
+      powerMatrixDecoded = true;
+    }
+    return windFarmPowerOutputScenarios;
+  }
+
+  /**
+   * Marginal distribution of each lead hour of the power output scenarios,
+   * decoded column by column at reduced precision.
+   */
+  public PowerDistribution getPowerDistribution ()
+  {
+    if (compactPowerOutputs != null) {
+      return PowerDistribution.fromCompact(compactPowerOutputs);
+    }
+    return PowerDistribution.fromMatrix(windFarmPowerOutputScenarios);
   }
 
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+/**
+ * Golden-section search for the maximum of a unimodal revenue function.
+ * Each step keeps one interior point and shrinks the interval by the
+ * golden ratio, so about log((upper - lower) / tolerance) / log(1.618)
+ * evaluations are needed.
+ *
+ * @author Shashank Pande
+ */
+public class GoldenSectionOptimizer implements OfferOptimizer
+{
+  private static final double INVERSE_PHI = (Math.sqrt(5.0) - 1.0) / 2.0;
+
+  @Override
+  public double maximize (RevenueFunction function, double lower,
+                          double upper, double tolerance)
+  {
+    double a = lower;
+    double b = upper;
+    double x1 = b - INVERSE_PHI * (b - a);
+    double x2 = a + INVERSE_PHI * (b - a);
+    double f1 = function.revenue(x1);
+    double f2 = function.revenue(x2);
+    while (b - a > tolerance) {
+      if (f1 < f2) {
+        a = x1;
+        x1 = x2;
+        f1 = f2;
+        x2 = a + INVERSE_PHI * (b - a);
+        f2 = function.revenue(x2);
+      }
+      else {
+        b = x2;
+        x2 = x1;
+        f2 = f1;
+        x1 = b - INVERSE_PHI * (b - a);
+        f1 = function.revenue(x1);
+      }
+    }
+    return BoundedMaximum.best(function, lower, upper, 0.5 * (a + b));
+  }
+
+} // class GoldenSectionOptimizer
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+/**
+ * Evaluates the revenue at every multiple of the tolerance in the interval
+ * and takes the best. Makes no assumption about the revenue function, at
+ * a cost of (upper - lower) / tolerance evaluations.
+ *
+ * @author Shashank Pande
+ */
+public class GridOfferOptimizer implements OfferOptimizer
+{
+  @Override
+  public double maximize (RevenueFunction function, double lower,
+                          double upper, double tolerance)
+  {
+    int steps = (int) Math.floor((upper - lower) / tolerance + 1e-9);
+    double best = lower;
+    double bestRevenue = function.revenue(lower);
+    for (int k = 1; k <= steps; k++) {
+      double q = lower + k * tolerance;
+      double r = function.revenue(q);
+      if (r > bestRevenue) {
+        bestRevenue = r;
+        best = q;
+      }
+    }
+    return best;
+  }
+
+} // class GridOfferOptimizer
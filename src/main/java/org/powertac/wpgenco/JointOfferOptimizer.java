@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+/**
+ * Chooses the offer quantities of all open timeslots together, from the
+ * expected revenue of each candidate quantity in each slot, subject to
+ * coupling constraints:
+ * <ul>
+ * <li>a ramp limit: the committed quantities of consecutive slots may differ
+ * by at most rampLimit MW;</li>
+ * <li>a daily cap: the committed quantities of the slots of one day may sum
+ * to at most dailyCap MWh.</li>
+ * </ul>
+ *
+ * The ramp limit is handled by dynamic programming over the slots. The best
+ * predecessor of quantity k is the best value in a window of fixed width
+ * around k, so each slot takes one sliding-window maximum over the
+ * quantities, kept in a monotone deque. A solve is O(slots * quantities).
+ *
+ * The daily cap is relaxed with one Lagrange multiplier per MWh, found by
+ * bisection: each step is one solve with the revenues reduced by
+ * multiplier * quantity. All days share the multiplier, so a day whose cap
+ * does not bind may be offered slightly less than it could be. The result
+ * is the best of all choices that offer at most its total quantity.
+ *
+ * Without a ramp limit a slot whose chosen quantity has negative expected
+ * revenue is offered nothing instead, as when the slots are optimized on
+ * their own; that only lowers the daily totals. With a ramp limit such a
+ * quantity is kept: it is chosen when passing through it is the way to
+ * reach better slots, and lowering it would break the limit.
+ *
+ * @author Shashank Pande
+ */
+public class JointOfferOptimizer
+{
+  private static final int BISECTION_STEPS = 50;
+
+  private final double[] bids;
+  private double rampLimit = -1.0; // negative for no limit
+  private double dailyCap = -1.0; // negative for no limit
+
+  // scratch space, grown as needed
+  private double[][] value = new double[0][];
+  private int[][] choice = new int[0][];
+  private int[] deque = new int[0];
+
+  /**
+   * @param bids candidate quantities in MW, ascending and evenly spaced,
+   *          starting at 0
+   */
+  public JointOfferOptimizer (double[] bids)
+  {
+    this.bids = bids;
+  }
+
+  public void setRampLimit (double rampLimit)
+  {
+    this.rampLimit = rampLimit;
+  }
+
+  public void setDailyCap (double dailyCap)
+  {
+    this.dailyCap = dailyCap;
+  }
+
+  /**
+   * True if any coupling constraint is set; otherwise each slot can be
+   * optimized on its own.
+   */
+  public boolean hasConstraints ()
+  {
+    return rampLimit >= 0 || dailyCap >= 0;
+  }
+
+  /**
+   * Optimal quantity of each slot.
+   *
+   * @param revenue expected revenue of bid k in slot h at revenue[h][k];
+   *          Double.NEGATIVE_INFINITY marks a bid that may not be chosen,
+   *          bid 0 must always be allowed
+   * @param days day of each slot, for the daily cap
+   */
+  public double[] optimize (double[][] revenue, long[] days)
+  {
+    int slots = revenue.length;
+    double[] result = new double[slots];
+    if (slots == 0) {
+      return result;
+    }
+    int[] best = solve(revenue, 0.0);
+    if (dailyCap >= 0 && !withinDailyCap(best, days)) {
+      double lo = 0.0;
+      double hi = maxAverageSlope(revenue) + 1.0;
+      best = solve(revenue, hi);
+      for (int i = 0; i < BISECTION_STEPS; i++) {
+        double mid = 0.5 * (lo + hi);
+        int[] candidate = solve(revenue, mid);
+        if (withinDailyCap(candidate, days)) {
+          hi = mid;
+          best = candidate;
+        }
+        else {
+          lo = mid;
+        }
+      }
+    }
+    for (int h = 0; h < slots; h++) {
+      if (rampLimit < 0 && revenue[h][best[h]] < 0) {
+        best[h] = 0;
+      }
+      result[h] = bids[best[h]];
+    }
+    return result;
+  }
+
+  // Bid index of each slot maximizing the total of
+  // revenue[h][k] - multiplier * bids[k] under the ramp limit
+  private int[] solve (double[][] revenue, double multiplier)
+  {
+    int slots = revenue.length;
+    int n = bids.length;
+    ensureCapacity(slots, n);
+    int window = n;
+    if (rampLimit >= 0 && n > 1) {
+      window = (int) Math.floor(rampLimit / (bids[1] - bids[0]) + 1e-9);
+    }
+    for (int k = 0; k < n; k++) {
+      value[0][k] = revenue[0][k] - multiplier * bids[k];
+    }
+    for (int h = 1; h < slots; h++) {
+      double[] previous = value[h - 1];
+      double[] current = value[h];
+      int[] from = choice[h];
+      // sliding maximum of previous over [k - window, k + window]
+      int head = 0;
+      int tail = 0;
+      int next = 0;
+      for (int k = 0; k < n; k++) {
+        int last = Math.min(n - 1, k + window);
+        while (next <= last) {
+          while (tail > head && previous[deque[tail - 1]] <= previous[next]) {
+            tail--;
+          }
+          deque[tail++] = next++;
+        }
+        while (deque[head] < k - window) {
+          head++;
+        }
+        from[k] = deque[head];
+        current[k] = previous[deque[head]] + revenue[h][k]
+                     - multiplier * bids[k];
+      }
+    }
+    int[] best = new int[slots];
+    double[] lastValue = value[slots - 1];
+    int arg = 0;
+    for (int k = 1; k < n; k++) {
+      if (lastValue[k] > lastValue[arg]) {
+        arg = k;
+      }
+    }
+    for (int h = slots - 1; h >= 0; h--) {
+      best[h] = arg;
+      if (h > 0) {
+        arg = choice[h][arg];
+      }
+    }
+    return best;
+  }
+
+  private boolean withinDailyCap (int[] chosen, long[] days)
+  {
+    int h = 0;
+    while (h < chosen.length) {
+      double total = 0;
+      int start = h;
+      while (h < chosen.length && days[h] == days[start]) {
+        total += bids[chosen[h]];
+        h++;
+      }
+      if (total > dailyCap + 1e-9) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // A multiplier above this makes bid 0 the best in every slot
+  private double maxAverageSlope (double[][] revenue)
+  {
+    double result = 0;
+    for (int h = 0; h < revenue.length; h++) {
+      for (int k = 1; k < bids.length; k++) {
+        if (bids[k] > 0 && revenue[h][k] != Double.NEGATIVE_INFINITY) {
+          result = Math.max(result, (revenue[h][k] - revenue[h][0]) / bids[k]);
+        }
+      }
+    }
+    return result;
+  }
+
+  private void ensureCapacity (int slots, int n)
+  {
+    if (value.length < slots || (slots > 0 && value[0].length < n)) {
+      value = new double[slots][n];
+      choice = new int[slots][n];
+    }
+    if (deque.length < n) {
+      deque = new int[n];
+    }
+  }
+
+} // class JointOfferOptimizer
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import java.util.Random;
+
+/**
+ * Expected revenue of a set of candidate offer quantities under joint power
+ * and price uncertainty.
+ *
+ * Each power outcome of a lead hour is paired with one price scenario,
+ * either by index (outcome i with price scenario i mod n) or by drawing the
+ * price scenario at random, instead of crossing every power outcome with
+ * every price scenario. The revenue of all candidate quantities is then
+ * accumulated in one sequential pass over the power outcomes of the hour.
+ *
+ * For an offer q, an actual output p and prices (mcp, pplus, pminus) the
+ * revenue is q * mcp + pplus * max(p - q, 0) + pminus * max(q - p, 0):
+ * surplus output is settled at pplus, shortfall at pminus, which is negative
+ * when the genco pays. With an imbalance price slope s both prices move
+ * against the genco as its own imbalance grows: surplus x is settled at
+ * pplus - s * x, shortfall x at pminus - s * x.
+ *
+ * @author Shashank Pande
+ */
+public class JointRevenueEvaluator
+{
+  private final PowerDistribution power;
+  private final double[] bids;
+  private final Random random;
+  private double imbalancePriceSlope = 0.0;
+
+  // price scenario chosen for each power outcome, reused across hours
+  private int[] pairing = new int[0];
+
+  /**
+   * @param power output distribution per lead hour
+   * @param bids candidate offer quantities in MW
+   * @param random source for sampled pairing, or null to pair by index
+   */
+  public JointRevenueEvaluator (PowerDistribution power, double[] bids,
+                                Random random)
+  {
+    this.power = power;
+    this.bids = bids;
+    this.random = random;
+  }
+
+  public double[] getBids ()
+  {
+    return bids;
+  }
+
+  /**
+   * Change in imbalance price, $/MWh per MW of own imbalance.
+   */
+  public void setImbalancePriceSlope (double slope)
+  {
+    this.imbalancePriceSlope = slope;
+  }
+
+  /**
+   * Expected revenue of each bid for the given hour index (lead hour - 1),
+   * written to revenue. Price scenario j is (mcp[j], pplus[j], pminus[j]),
+   * for j below priceCount, all equally likely. Beyond the hours of the
+   * power distribution only the market revenue is counted.
+   */
+  public void evaluate (int hour, double[] mcp, double[] pplus,
+                        double[] pminus, int priceCount, double[] revenue)
+  {
+    for (int k = 0; k < bids.length; k++) {
+      revenue[k] = 0.0;
+    }
+    if (hour < 0 || hour >= power.getHours()) {
+      double meanMcp = 0;
+      for (int j = 0; j < priceCount; j++) {
+        meanMcp += mcp[j];
+      }
+      meanMcp /= priceCount;
+      for (int k = 0; k < bids.length; k++) {
+        revenue[k] = bids[k] * meanMcp;
+      }
+      return;
+    }
+    final double[] values = power.getValues(hour);
+    final double[] probs = power.getProbabilities(hour);
+    final int n = values.length;
+    final double slope = imbalancePriceSlope;
+    fillPairing(n, priceCount);
+    for (int i = 0; i < n; i++) {
+      final double p = values[i];
+      final double prob = probs[i];
+      final int j = pairing[i];
+      final double c = mcp[j];
+      final double up = pplus[j];
+      final double down = pminus[j];
+      for (int k = 0; k < bids.length; k++) {
+        final double q = bids[k];
+        final double imbalance = p - q;
+        final double settlement = (imbalance > 0)
+            ? (up - slope * imbalance) * imbalance
+            : -(down + slope * imbalance) * imbalance;
+        revenue[k] += prob * (q * c + settlement);
+      }
+    }
+  }
+
+  /**
+   * Pairs the power outcomes of the given hour with price scenarios for
+   * revenueAt(). The pairing stays fixed until the next call, so that
+   * revenueAt() is a deterministic function of the quantity.
+   */
+  public void pairHour (int hour, int priceCount)
+  {
+    if (hour >= 0 && hour < power.getHours()) {
+      fillPairing(power.getValues(hour).length, priceCount);
+    }
+  }
+
+  /**
+   * Expected revenue of a single quantity q for the given hour index, with
+   * the pairing of the last pairHour() call.
+   */
+  public double revenueAt (int hour, double q, double[] mcp, double[] pplus,
+                           double[] pminus, int priceCount)
+  {
+    if (hour < 0 || hour >= power.getHours()) {
+      double meanMcp = 0;
+      for (int j = 0; j < priceCount; j++) {
+        meanMcp += mcp[j];
+      }
+      return q * meanMcp / priceCount;
+    }
+    final double[] values = power.getValues(hour);
+    final double[] probs = power.getProbabilities(hour);
+    final double slope = imbalancePriceSlope;
+    double result = 0;
+    for (int i = 0; i < values.length; i++) {
+      final int j = pairing[i];
+      final double imbalance = values[i] - q;
+      final double settlement = (imbalance > 0)
+          ? (pplus[j] - slope * imbalance) * imbalance
+          : -(pminus[j] + slope * imbalance) * imbalance;
+      result += probs[i] * (q * mcp[j] + settlement);
+    }
+    return result;
+  }
+
+  private void fillPairing (int n, int priceCount)
+  {
+    if (pairing.length < n) {
+      pairing = new int[n];
+    }
+    if (random == null) {
+      for (int i = 0; i < n; i++) {
+        pairing[i] = i % priceCount;
+      }
+    }
+    else {
+      for (int i = 0; i < n; i++) {
+        pairing[i] = random.nextInt(priceCount);
+      }
+    }
+  }
+
+} // class JointRevenueEvaluator
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+/**
+ * Finds the offer quantity that maximizes a revenue function over an
+ * interval, to within a quantity tolerance.
+ *
+ * @author Shashank Pande
+ */
+public interface OfferOptimizer
+{
+  /**
+   * Expected revenue of an offer quantity.
+   */
+  public interface RevenueFunction
+  {
+    public double revenue (double quantity);
+  }
+
+  /**
+   * Quantity in [lower, upper] with the highest revenue. Implementations
+   * other than a grid assume the revenue is unimodal on the interval.
+   */
+  public double maximize (RevenueFunction function, double lower,
+                          double upper, double tolerance);
+
+} // interface OfferOptimizer
@@ -0,0 +1,426 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import java.util.List;
+
+/**
+ * Distribution of wind farm power output for each lead hour, held as
+ * parallel arrays of output values (MW) and probabilities. This is what the
+ * offer calculator works on: it only needs the marginal distribution of each
+ * hour, so the distribution can come from a set of scenarios or from a
+ * convolution of independent farm outputs.
+ *
+ * @author Shashank Pande
+ */
+public class PowerDistribution
+{
+  private final double[][] values;
+  private final double[][] probabilities;
+  // prefix sums of probability and of probability * value, only for
+  // distributions created by sorted()
+  private double[][] cumulativeProbabilities = null;
+  private double[][] cumulativeExpectations = null;
+
+  PowerDistribution (double[][] values, double[][] probabilities)
+  {
+    this.values = values;
+    this.probabilities = probabilities;
+  }
+
+  /**
+   * Marginal distributions of the columns of a scenario matrix.
+   */
+  public static PowerDistribution fromMatrix (ScenarioMatrix matrix)
+  {
+    int hours = matrix.getHours();
+    int count = matrix.getScenarioCount();
+    double[] flat = matrix.getValues();
+    double[][] values = new double[hours][count];
+    double[][] probs = new double[hours][];
+    for (int s = 0; s < count; s++) {
+      int offset = s * hours;
+      for (int h = 0; h < hours; h++) {
+        values[h][s] = flat[offset + h];
+      }
+    }
+    for (int h = 0; h < hours; h++) {
+      // probabilities are the same in every column
+      probs[h] = matrix.getProbabilities();
+    }
+    return new PowerDistribution(values, probs);
+  }
+
+  /**
+   * Marginal distributions of the columns of a reduced precision matrix.
+   */
+  public static PowerDistribution fromCompact (CompactScenarioMatrix matrix)
+  {
+    int hours = matrix.getHours();
+    double[][] values = new double[hours][matrix.getScenarioCount()];
+    double[][] probs = new double[hours][];
+    for (int h = 0; h < hours; h++) {
+      matrix.getColumn(h, values[h]);
+      probs[h] = matrix.getProbabilities();
+    }
+    return new PowerDistribution(values, probs);
+  }
+
+  public int getHours ()
+  {
+    return values.length;
+  }
+
+  /**
+   * Number of outcomes for the given hour index (lead hour - 1).
+   */
+  public int size (int hour)
+  {
+    return values[hour].length;
+  }
+
+  double[] getValues (int hour)
+  {
+    return values[hour];
+  }
+
+  double[] getProbabilities (int hour)
+  {
+    return probabilities[hour];
+  }
+
+  public double getExpectedValue (int hour)
+  {
+    double[] v = values[hour];
+    double[] p = probabilities[hour];
+    double result = 0;
+    for (int i = 0; i < v.length; i++) {
+      result += v[i] * p[i];
+    }
+    return result;
+  }
+
+  /**
+   * True if the outcomes of each hour are in ascending order of value and
+   * the prefix sums are available.
+   */
+  public boolean isSorted ()
+  {
+    return cumulativeProbabilities != null;
+  }
+
+  /**
+   * Copy of this distribution with the outcomes of each hour sorted by
+   * value, along with the running sums of probability and of probability
+   * times value. Returns this distribution if it is already sorted.
+   */
+  public PowerDistribution sorted ()
+  {
+    if (isSorted()) {
+      return this;
+    }
+    int hours = getHours();
+    double[][] sortedValues = new double[hours][];
+    double[][] sortedProbs = new double[hours][];
+    double[][] cumProbs = new double[hours][];
+    double[][] cumExp = new double[hours][];
+    for (int h = 0; h < hours; h++) {
+      int n = values[h].length;
+      sortedValues[h] = values[h].clone();
+      sortedProbs[h] = probabilities[h].clone();
+      sortPairs(sortedValues[h], sortedProbs[h]);
+      cumProbs[h] = new double[n];
+      cumExp[h] = new double[n];
+      double cp = 0;
+      double ce = 0;
+      for (int i = 0; i < n; i++) {
+        cp += sortedProbs[h][i];
+        ce += sortedProbs[h][i] * sortedValues[h][i];
+        cumProbs[h][i] = cp;
+        cumExp[h][i] = ce;
+      }
+    }
+    PowerDistribution result = new PowerDistribution(sortedValues, sortedProbs);
+    result.cumulativeProbabilities = cumProbs;
+    result.cumulativeExpectations = cumExp;
+    return result;
+  }
+
+  /**
+   * Running sum of probabilities of a sorted distribution: entry i is the
+   * probability of an outcome at most getValues(hour)[i].
+   */
+  double[] getCumulativeProbabilities (int hour)
+  {
+    return cumulativeProbabilities[hour];
+  }
+
+  /**
+   * Smallest outcome of a sorted distribution whose cumulative probability
+   * is at least q.
+   */
+  public double getQuantile (int hour, double q)
+  {
+    double[] v = values[hour];
+    if (v.length == 0) {
+      return 0.0;
+    }
+    return v[Math.min(v.length - 1,
+                      lowerBound(cumulativeProbabilities[hour], q))];
+  }
+
+  /**
+   * Running sum of probability times value of a sorted distribution.
+   */
+  double[] getCumulativeExpectations (int hour)
+  {
+    return cumulativeExpectations[hour];
+  }
+
+  /**
+   * Mean shortfall max(q - value, 0) over the lowest outcomes of a sorted
+   * distribution that together hold probability tailMass. Multiplied by the
+   * shortfall price this is the conditional value at risk, at level
+   * 1 - tailMass, of the imbalance cost of an offer of q. Takes two binary
+   * searches over the prefix sums, whatever the number of outcomes.
+   */
+  public double getTailShortfall (int hour, double q, double tailMass)
+  {
+    double[] v = values[hour];
+    double[] cp = cumulativeProbabilities[hour];
+    double[] ce = cumulativeExpectations[hour];
+    int n = v.length;
+    if (n == 0) {
+      return 0.0;
+    }
+    if (tailMass <= 0.0) {
+      // limit of a vanishing tail: the worst outcome
+      return Math.max(0.0, q - v[0]);
+    }
+    // outcome t holds the tail boundary, outcomes below k fall short of q
+    int t = Math.min(n - 1, lowerBound(cp, tailMass));
+    int k = lowerBound(v, q);
+    double mass;
+    double expectation;
+    if (k <= t) {
+      mass = (k == 0) ? 0.0 : cp[k - 1];
+      expectation = (k == 0) ? 0.0 : ce[k - 1];
+    }
+    else {
+      double before = (t == 0) ? 0.0 : cp[t - 1];
+      double partial = Math.min(tailMass, cp[t]) - before;
+      mass = before + partial;
+      expectation = ((t == 0) ? 0.0 : ce[t - 1]) + partial * v[t];
+    }
+    return Math.max(0.0, q * mass - expectation) / tailMass;
+  }
+
+  // Index of the first entry of an ascending array that is at least key,
+  // or the array length if there is none
+  private static int lowerBound (double[] sorted, double key)
+  {
+    int lo = 0;
+    int hi = sorted.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (sorted[mid] < key) {
+        lo = mid + 1;
+      }
+      else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Distribution of the sum of this output and an independent one, for each
+   * hour both have. Both are first put on a grid of the given bin width
+   * (each outcome split between its two neighbouring grid points so that the
+   * mean is kept), then the grid masses are convolved. The result is sorted
+   * by value and only holds grid points with non-zero mass.
+   */
+  public PowerDistribution convolve (PowerDistribution other, double binWidth)
+  {
+    int hours = Math.min(getHours(), other.getHours());
+    double[][] resultValues = new double[hours][];
+    double[][] resultProbs = new double[hours][];
+    for (int h = 0; h < hours; h++) {
+      double[] a = discretize(values[h], probabilities[h], binWidth);
+      double[] b = discretize(other.values[h], other.probabilities[h],
+                              binWidth);
+      double[] c = new double[a.length + b.length - 1];
+      for (int i = 0; i < a.length; i++) {
+        double pa = a[i];
+        if (pa == 0.0) {
+          continue;
+        }
+        for (int j = 0; j < b.length; j++) {
+          c[i + j] += pa * b[j];
+        }
+      }
+      fromGrid(c, c.length, binWidth, resultValues, resultProbs, h);
+    }
+    return new PowerDistribution(resultValues, resultProbs);
+  }
+
+  /**
+   * Distribution of the sum of independent outputs, for each hour all of
+   * them have, as by repeated convolve() but on one bounded grid per hour.
+   * The grid step is binWidth, or coarser where that is needed to cover the
+   * largest possible sum with maxPoints points. Each part only spans its
+   * own share of that grid, so for F parts the work per hour is
+   * O((maxPoints + F)^2): it does not grow with the number of parts while F
+   * is small against maxPoints, where repeated convolve() at a fixed step
+   * grows with the square of the total capacity.
+   */
+  public static PowerDistribution convolveAll (List<PowerDistribution> parts,
+                                               double binWidth,
+                                               int maxPoints)
+  {
+    int hours = parts.isEmpty() ? 0 : Integer.MAX_VALUE;
+    for (PowerDistribution part : parts) {
+      hours = Math.min(hours, part.getHours());
+    }
+    double[][] resultValues = new double[hours][];
+    double[][] resultProbs = new double[hours][];
+    for (int h = 0; h < hours; h++) {
+      double width = binWidth;
+      if (maxPoints > 1) {
+        double total = 0.0;
+        for (PowerDistribution part : parts) {
+          double max = 0.0;
+          for (double v : part.values[h]) {
+            max = Math.max(max, v);
+          }
+          total += max;
+        }
+        width = Math.max(binWidth, total / (maxPoints - 1));
+      }
+      double[] sum = null;
+      int length = 0;
+      for (PowerDistribution part : parts) {
+        double[] b = discretize(part.values[h], part.probabilities[h], width);
+        int bLength = b.length;
+        while (bLength > 1 && b[bLength - 1] == 0.0) {
+          bLength--;
+        }
+        if (sum == null) {
+          sum = b;
+          length = bLength;
+          continue;
+        }
+        double[] c = new double[length + bLength - 1];
+        for (int i = 0; i < length; i++) {
+          double pa = sum[i];
+          if (pa == 0.0) {
+            continue;
+          }
+          for (int j = 0; j < bLength; j++) {
+            c[i + j] += pa * b[j];
+          }
+        }
+        sum = c;
+        length = c.length;
+      }
+      fromGrid(sum, length, width, resultValues, resultProbs, h);
+    }
+    return new PowerDistribution(resultValues, resultProbs);
+  }
+
+  // Sets hour h of values and probs to the grid points of non-zero mass
+  private static void fromGrid (double[] grid, int length, double binWidth,
+                                double[][] values, double[][] probs, int h)
+  {
+    int nonZero = 0;
+    for (int k = 0; k < length; k++) {
+      if (grid[k] > 0.0) {
+        nonZero++;
+      }
+    }
+    values[h] = new double[nonZero];
+    probs[h] = new double[nonZero];
+    int n = 0;
+    for (int k = 0; k < length; k++) {
+      if (grid[k] > 0.0) {
+        values[h][n] = k * binWidth;
+        probs[h][n] = grid[k];
+        n++;
+      }
+    }
+  }
+
+  // In-place heapsort of values, applying the same moves to probs
+  private static void sortPairs (double[] vals, double[] probs)
+  {
+    int n = vals.length;
+    for (int i = n / 2 - 1; i >= 0; i--) {
+      siftDown(vals, probs, i, n);
+    }
+    for (int end = n - 1; end > 0; end--) {
+      swap(vals, probs, 0, end);
+      siftDown(vals, probs, 0, end);
+    }
+  }
+
+  private static void siftDown (double[] vals, double[] probs, int root,
+                                int end)
+  {
+    while (2 * root + 1 < end) {
+      int child = 2 * root + 1;
+      if (child + 1 < end && vals[child + 1] > vals[child]) {
+        child++;
+      }
+      if (vals[root] >= vals[child]) {
+        return;
+      }
+      swap(vals, probs, root, child);
+      root = child;
+    }
+  }
+
+  private static void swap (double[] vals, double[] probs, int i, int j)
+  {
+    double v = vals[i];
+    vals[i] = vals[j];
+    vals[j] = v;
+    double p = probs[i];
+    probs[i] = probs[j];
+    probs[j] = p;
+  }
+
+  // Spreads the outcomes over grid points 0, w, 2w, ... by linear
+  // interpolation. Negative values go to the first grid point.
+  private static double[] discretize (double[] vals, double[] probs,
+                                      double binWidth)
+  {
+    double max = 0;
+    for (int i = 0; i < vals.length; i++) {
+      max = Math.max(max, vals[i]);
+    }
+    double[] grid = new double[(int) Math.ceil(max / binWidth) + 2];
+    for (int i = 0; i < vals.length; i++) {
+      double x = Math.max(0.0, vals[i]) / binWidth;
+      int lo = (int) Math.floor(x);
+      double frac = x - lo;
+      grid[lo] += probs[i] * (1.0 - frac);
+      grid[lo + 1] += probs[i] * frac;
+    }
+    return grid;
+  }
+
+} // class PowerDistribution
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+/**
+ * Running statistics of observed prices, kept separately for each hour of
+ * day and each price series (clearing, regulation up, regulation down).
+ *
+ * For every hour and series it keeps the last window observations in a ring
+ * buffer, an exponentially weighted mean and variance, and a histogram over
+ * a fixed price range from which quantiles are read. All storage is
+ * allocated up front; recording an observation is constant time and
+ * allocates nothing. Histograms of two instances with the same layout can
+ * be merged, for instance to pool the statistics of several gencos.
+ *
+ * @author Shashank Pande
+ */
+public class PriceStatistics
+{
+  public static final int CLEARING = 0;
+  public static final int REG_UP = 1;
+  public static final int REG_DOWN = 2;
+
+  private static final int SERIES = 3;
+  private static final int HOURS = 24;
+
+  private final int window;
+  private final double alpha;
+  private final double minPrice;
+  private final double binWidth;
+  private final int bins;
+
+  // all arrays are indexed by cell = series * HOURS + hour first
+  private final double[] ring;
+  private final int[] ringNext;
+  private final long[] count;
+  private final double[] ewmaMean;
+  private final double[] ewmaVariance;
+  private final long[] histogram;
+  private final long[] histogramCount;
+
+  /**
+   * @param window number of recent observations kept per hour and series
+   * @param alpha weight of a new observation in the moving averages
+   * @param minPrice lower end of the histogram range
+   * @param maxPrice upper end of the histogram range; prices outside the
+   *          range are counted in the first or last bin
+   * @param bins number of histogram bins
+   */
+  public PriceStatistics (int window, double alpha, double minPrice,
+                          double maxPrice, int bins)
+  {
+    this.window = window;
+    this.alpha = alpha;
+    this.minPrice = minPrice;
+    this.binWidth = (maxPrice - minPrice) / bins;
+    this.bins = bins;
+    int cells = SERIES * HOURS;
+    ring = new double[cells * window];
+    ringNext = new int[cells];
+    count = new long[cells];
+    ewmaMean = new double[cells];
+    ewmaVariance = new double[cells];
+    histogram = new long[cells * bins];
+    histogramCount = new long[cells];
+  }
+
+  /**
+   * Records an observed price for the given hour of day and series.
+   */
+  public void record (int hour, int series, double price)
+  {
+    int cell = series * HOURS + hour;
+    ring[cell * window + ringNext[cell]] = price;
+    ringNext[cell] = (ringNext[cell] + 1) % window;
+    if (count[cell] == 0) {
+      ewmaMean[cell] = price;
+      ewmaVariance[cell] = 0.0;
+    }
+    else {
+      double delta = price - ewmaMean[cell];
+      ewmaMean[cell] += alpha * delta;
+      ewmaVariance[cell] =
+        (1.0 - alpha) * (ewmaVariance[cell] + alpha * delta * delta);
+    }
+    count[cell]++;
+    histogram[cell * bins + bin(price)]++;
+    histogramCount[cell]++;
+  }
+
+  /**
+   * Number of prices recorded for the given hour and series.
+   */
+  public long getCount (int hour, int series)
+  {
+    return count[series * HOURS + hour];
+  }
+
+  /**
+   * Number of recent prices available from getRecent().
+   */
+  public int getRecentCount (int hour, int series)
+  {
+    return (int) Math.min(window, count[series * HOURS + hour]);
+  }
+
+  /**
+   * A recent price; age 0 is the latest.
+   */
+  public double getRecent (int hour, int series, int age)
+  {
+    int cell = series * HOURS + hour;
+    int index = (ringNext[cell] - 1 - age + 2 * window) % window;
+    return ring[cell * window + index];
+  }
+
+  /**
+   * Exponentially weighted mean price.
+   */
+  public double getMean (int hour, int series)
+  {
+    return ewmaMean[series * HOURS + hour];
+  }
+
+  /**
+   * Exponentially weighted price variance.
+   */
+  public double getVariance (int hour, int series)
+  {
+    return ewmaVariance[series * HOURS + hour];
+  }
+
+  /**
+   * Price quantile q in [0, 1] over all recorded and merged prices,
+   * interpolated within the histogram bin. NaN if there are none.
+   */
+  public double getQuantile (int hour, int series, double q)
+  {
+    int cell = series * HOURS + hour;
+    long total = histogramCount[cell];
+    if (total == 0) {
+      return Double.NaN;
+    }
+    double target = q * total;
+    long cumulative = 0;
+    int offset = cell * bins;
+    for (int b = 0; b < bins; b++) {
+      long inBin = histogram[offset + b];
+      if (inBin > 0 && cumulative + inBin >= target) {
+        double frac = (target - cumulative) / inBin;
+        return minPrice + (b + frac) * binWidth;
+      }
+      cumulative += inBin;
+    }
+    return minPrice + bins * binWidth;
+  }
+
+  /**
+   * Adds the histograms of another instance into this one. The ring
+   * buffers, moving averages and observation counts are left as they are.
+   */
+  public void merge (PriceStatistics other)
+  {
+    if (other.bins != bins || other.minPrice != minPrice
+        || other.binWidth != binWidth) {
+      throw new IllegalArgumentException("price histograms differ in layout");
+    }
+    for (int i = 0; i < histogram.length; i++) {
+      histogram[i] += other.histogram[i];
+    }
+    for (int i = 0; i < histogramCount.length; i++) {
+      histogramCount[i] += other.histogramCount[i];
+    }
+  }
+
+  private int bin (double price)
+  {
+    int b = (int) Math.floor((price - minPrice) / binWidth);
+    if (b < 0) {
+      return 0;
+    }
+    if (b >= bins) {
+      return bins - 1;
+    }
+    return b;
+  }
+
+} // class PriceStatistics
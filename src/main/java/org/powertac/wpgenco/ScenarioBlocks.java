@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs a computation over the rows of a scenario matrix in blocks, on a
+ * pool of daemon threads shared by all gencos. A block holds whole rows and
+ * about BLOCK_CELLS cells, so that the part of each matrix it touches stays
+ * in cache. The calling thread works on the last block itself and then
+ * waits for the others.
+ *
+ * Blocks write disjoint rows, so as long as the computation of a row only
+ * depends on that row the result is the same as that of one sequential
+ * pass, whatever the number of threads.
+ *
+ * @author Shashank Pande
+ */
+public class ScenarioBlocks
+{
+  /**
+   * Computation over the rows from (inclusive) to to (exclusive).
+   */
+  public interface RowTask
+  {
+    void run (int from, int to);
+  }
+
+  // 64 KB of doubles per matrix and block
+  static final int BLOCK_CELLS = 8192;
+
+  private static ExecutorService pool = null;
+
+  private ScenarioBlocks ()
+  {
+  }
+
+  /**
+   * Runs task over rows 0 to rows - 1 of a matrix with the given number of
+   * columns, split into blocks, and returns when all blocks are done.
+   */
+  public static void run (int rows, int columns, final RowTask task)
+  {
+    int rowsPerBlock = Math.max(1, BLOCK_CELLS / Math.max(1, columns));
+    if (rows <= rowsPerBlock) {
+      task.run(0, rows);
+      return;
+    }
+    ExecutorService executor = getPool();
+    List<Future<?>> pending = new ArrayList<Future<?>>();
+    int last = ((rows - 1) / rowsPerBlock) * rowsPerBlock;
+    for (int from = 0; from < last; from += rowsPerBlock) {
+      final int start = from;
+      final int end = from + rowsPerBlock;
+      pending.add(executor.submit(new Runnable() {
+        @Override
+        public void run ()
+        {
+          task.run(start, end);
+        }
+      }));
+    }
+    task.run(last, rows);
+    try {
+      for (Future<?> block : pending) {
+        block.get();
+      }
+    }
+    catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted in scenario block", ie);
+    }
+    catch (ExecutionException ee) {
+      throw new IllegalStateException("scenario block failed", ee.getCause());
+    }
+  }
+
+  private static synchronized ExecutorService getPool ()
+  {
+    if (pool == null) {
+      pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                                          new ThreadFactory() {
+        private int count = 0;
+
+        @Override
+        public synchronized Thread newThread (Runnable runnable)
+        {
+          Thread thread = new Thread(runnable, "scenario-block-" + count++);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return pool;
+  }
+
+} // class ScenarioBlocks
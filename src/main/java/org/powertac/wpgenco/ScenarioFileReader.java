@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads an error scenario file straight into a ScenarioMatrix with a
+ * streaming (StAX) parser, in one pass and without creating Scenario
+ * objects. The file is
+ *
+ * <pre>
+ * &lt;Scenarios&gt;
+ *   &lt;Scenario id="1" probability="0.001"&gt;
+ *     &lt;Value hour="1" error="-1.13"/&gt;
+ *     ...
+ * </pre>
+ *
+ * where the name of the outer element does not matter. Every scenario must
+ * have one value for each lead hour from 1 to the last hour of the first
+ * scenario, and scenario ids must be unique; rows end up in id order, as
+ * with WindForecastErrorScenarios. Apart from the matrix being built, the
+ * memory used does not depend on the size of the file. A malformed element
+ * stops the read with an IOException that gives its line number.
+ *
+ * @author Shashank Pande
+ */
+public class ScenarioFileReader
+{
+  private static final String SCENARIO = "Scenario";
+  private static final String VALUE = "Value";
+
+  // rows allocated before the first resize
+  private static final int INITIAL_ROWS = 1024;
+
+  private final XMLStreamReader reader;
+  private final String source;
+
+  private int hours = 0;
+  private int rows = 0;
+  private double[] values = new double[0];
+  private double[] probabilities = new double[INITIAL_ROWS];
+  private int[] ids = new int[INITIAL_ROWS];
+
+  // the scenario being read
+  private double[] row = new double[0];
+  private boolean[] seen = new boolean[0];
+  private int rowHours = 0;
+
+  private ScenarioFileReader (XMLStreamReader reader, String source)
+  {
+    this.reader = reader;
+    this.source = source;
+  }
+
+  /**
+   * Reads the scenario file with the given name.
+   */
+  public static ScenarioMatrix read (String fileName) throws IOException
+  {
+    InputStream input = new FileInputStream(fileName);
+    try {
+      return read(input, fileName);
+    }
+    finally {
+      input.close();
+    }
+  }
+
+  /**
+   * Reads scenarios from a stream; source names it in error messages.
+   */
+  public static ScenarioMatrix read (InputStream input, String source)
+    throws IOException
+  {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+                        Boolean.FALSE);
+    XMLStreamReader reader = null;
+    try {
+      reader = factory.createXMLStreamReader(input);
+      return new ScenarioFileReader(reader, source).readAll();
+    }
+    catch (XMLStreamException xse) {
+      int line = (xse.getLocation() == null)
+          ? -1 : xse.getLocation().getLineNumber();
+      throw new IOException(source + ":" + line + ": " + xse.getMessage(),
+                            xse);
+    }
+    finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        }
+        catch (XMLStreamException xse) {
+          // the stream is closed by the caller
+        }
+      }
+    }
+  }
+
+  private ScenarioMatrix readAll () throws XMLStreamException, IOException
+  {
+    boolean inScenario = false;
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        String name = reader.getLocalName();
+        if (SCENARIO.equals(name)) {
+          if (inScenario) {
+            throw problem("Scenario inside Scenario");
+          }
+          startScenario();
+          inScenario = true;
+        }
+        else if (VALUE.equals(name)) {
+          if (!inScenario) {
+            throw problem("Value outside Scenario");
+          }
+          readValue();
+        }
+      }
+      else if (event == XMLStreamConstants.END_ELEMENT
+               && SCENARIO.equals(reader.getLocalName())) {
+        endScenario();
+        inScenario = false;
+      }
+    }
+    if (rows == 0) {
+      throw new IOException(source + ": no scenarios");
+    }
+    return toMatrix();
+  }
+
+  private void startScenario () throws IOException
+  {
+    if (rows == ids.length) {
+      ids = Arrays.copyOf(ids, 2 * rows);
+      probabilities = Arrays.copyOf(probabilities, 2 * rows);
+    }
+    ids[rows] = intAttribute("id");
+    probabilities[rows] = doubleAttribute("probability");
+    if (probabilities[rows] < 0.0 || Double.isNaN(probabilities[rows])) {
+      throw problem("bad probability " + probabilities[rows]);
+    }
+    Arrays.fill(seen, false);
+    rowHours = 0;
+  }
+
+  private void readValue () throws IOException
+  {
+    int hour = intAttribute("hour");
+    double error = doubleAttribute("error");
+    if (hour < 1 || (hours > 0 && hour > hours)) {
+      throw problem("lead hour " + hour + " out of range");
+    }
+    if (hour > row.length) {
+      // only while the first scenario sets the number of hours
+      int size = Math.max(hour, 2 * row.length);
+      row = Arrays.copyOf(row, size);
+      seen = Arrays.copyOf(seen, size);
+    }
+    if (seen[hour - 1]) {
+      throw problem("second value for lead hour " + hour);
+    }
+    seen[hour - 1] = true;
+    row[hour - 1] = error;
+    rowHours = Math.max(rowHours, hour);
+  }
+
+  private void endScenario () throws IOException
+  {
+    if (hours == 0) {
+      hours = rowHours;
+      if (hours == 0) {
+        throw problem("scenario " + ids[rows] + " has no values");
+      }
+      values = new double[probabilities.length * hours];
+    }
+    for (int h = 0; h < hours; h++) {
+      if (!seen[h]) {
+        throw problem("scenario " + ids[rows] + " has no value for lead hour "
+                      + (h + 1));
+      }
+    }
+    if (values.length < (rows + 1) * hours) {
+      values = Arrays.copyOf(values, Math.max(rows + 1, 2 * rows) * hours);
+    }
+    System.arraycopy(row, 0, values, rows * hours, hours);
+    rows++;
+  }
+
+  // Matrix of the rows read, in id order
+  private ScenarioMatrix toMatrix () throws IOException
+  {
+    Integer[] order = new Integer[rows];
+    boolean sorted = true;
+    for (int s = 0; s < rows; s++) {
+      order[s] = s;
+      if (s > 0 && ids[s] <= ids[s - 1]) {
+        sorted = false;
+      }
+    }
+    if (!sorted) {
+      Arrays.sort(order, new Comparator<Integer>() {
+        @Override
+        public int compare (Integer a, Integer b)
+        {
+          return (ids[a] < ids[b]) ? -1 : ((ids[a] == ids[b]) ? 0 : 1);
+        }
+      });
+    }
+    ScenarioMatrix result = new ScenarioMatrix(rows, hours);
+    double[] target = result.getValues();
+    for (int s = 0; s < rows; s++) {
+      int from = order[s];
+      if (s > 0 && ids[from] == ids[order[s - 1]]) {
+        throw new IOException(source + ": scenario id " + ids[from]
+                              + " appears twice");
+      }
+      result.setProbability(s, probabilities[from]);
+      System.arraycopy(values, from * hours, target, s * hours, hours);
+    }
+    return result;
+  }
+
+  private int intAttribute (String name) throws IOException
+  {
+    String text = attribute(name);
+    try {
+      return Integer.parseInt(text.trim());
+    }
+    catch (NumberFormatException nfe) {
+      throw problem("bad " + name + " \"" + text + "\"");
+    }
+  }
+
+  private double doubleAttribute (String name) throws IOException
+  {
+    String text = attribute(name);
+    try {
+      return Double.parseDouble(text.trim());
+    }
+    catch (NumberFormatException nfe) {
+      throw problem("bad " + name + " \"" + text + "\"");
+    }
+  }
+
+  private String attribute (String name) throws IOException
+  {
+    String text = reader.getAttributeValue(null, name);
+    if (text == null) {
+      throw problem(reader.getLocalName() + " without " + name);
+    }
+    return text;
+  }
+
+  private IOException problem (String message)
+  {
+    return new IOException(source + ":" + reader.getLocation().getLineNumber()
+                           + ": " + message);
+  }
+
+} // class ScenarioFileReader
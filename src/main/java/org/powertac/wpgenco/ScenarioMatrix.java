@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.powertac.wpgenco.Scenario.ScenarioValue;
+
+/**
+ * Flat store for a set of scenarios: one row per scenario, one column per
+ * lead hour, kept in a single row-major array along with the scenario
+ * probabilities. The scenario loops work on this instead of on Scenario
+ * objects, which box every value.
+ *
+ * @author Shashank Pande
+ */
+public class ScenarioMatrix
+{
+  private final int scenarioCount;
+  private final int hours;
+  private final double[] probabilities;
+  private final double[] values;
+
+  public ScenarioMatrix (int scenarioCount, int hours)
+  {
+    this.scenarioCount = scenarioCount;
+    this.hours = hours;
+    this.probabilities = new double[scenarioCount];
+    this.values = new double[scenarioCount * hours];
+  }
+
+  /**
+   * Copies a collection of scenarios into a new matrix. Rows follow the
+   * iteration order of the collection; a value for lead hour h goes into
+   * column h - 1.
+   */
+  public static ScenarioMatrix fromScenarios (Collection<Scenario> scenarios)
+  {
+    int hrs = 0;
+    for (Scenario scenario : scenarios) {
+      for (ScenarioValue sv : scenario.getValues()) {
+        hrs = Math.max(hrs, sv.getHour());
+      }
+    }
+    ScenarioMatrix result = new ScenarioMatrix(scenarios.size(), hrs);
+    int row = 0;
+    for (Scenario scenario : scenarios) {
+      result.probabilities[row] = scenario.getProbability();
+      for (ScenarioValue sv : scenario.getValues()) {
+        result.values[row * hrs + sv.getHour() - 1] = sv.getValue();
+      }
+      row++;
+    }
+    return result;
+  }
+
+  public int getScenarioCount ()
+  {
+    return scenarioCount;
+  }
+
+  public int getHours ()
+  {
+    return hours;
+  }
+
+  public double getProbability (int scenario)
+  {
+    return probabilities[scenario];
+  }
+
+  public void setProbability (int scenario, double probability)
+  {
+    probabilities[scenario] = probability;
+  }
+
+  /**
+   * Value of a scenario for the given column, that is lead hour - 1.
+   */
+  public double getValue (int scenario, int hour)
+  {
+    return values[scenario * hours + hour];
+  }
+
+  public void setValue (int scenario, int hour, double value)
+  {
+    values[scenario * hours + hour] = value;
+  }
+
+  /**
+   * Backing array of probabilities, for the scenario loops.
+   */
+  double[] getProbabilities ()
+  {
+    return probabilities;
+  }
+
+  /**
+   * Backing row-major value array, for the scenario loops. Scenario s,
+   * column h is at index s * getHours() + h.
+   */
+  double[] getValues ()
+  {
+    return values;
+  }
+
+  /**
+   * True if the other matrix has the same number of rows and columns.
+   */
+  public boolean hasSameShape (ScenarioMatrix other)
+  {
+    return (scenarioCount == other.scenarioCount) && (hours == other.hours);
+  }
+
+  /**
+   * Adds the other matrix row by row into this one. Both must come from the
+   * same scenario draw, so that row s means the same error scenario in both;
+   * probabilities are left as they are.
+   */
+  public void add (ScenarioMatrix other)
+  {
+    if (!hasSameShape(other)) {
+      throw new IllegalArgumentException("scenario matrices differ in shape");
+    }
+    for (int i = 0; i < values.length; i++) {
+      values[i] += other.values[i];
+    }
+  }
+
+  /**
+   * Creates Scenario objects for the rows of this matrix, numbered from 1.
+   */
+  public List<Scenario> toScenarios ()
+  {
+    List<Scenario> result = new ArrayList<Scenario>(scenarioCount);
+    for (int s = 0; s < scenarioCount; s++) {
+      Scenario scenario = new Scenario(s + 1, probabilities[s]);
+      for (int h = 0; h < hours; h++) {
+        scenario.addValue(new ScenarioValue(h + 1, values[s * hours + h]));
+      }
+      scenario.createValueList();
+      result.add(scenario);
+    }
+    return result;
+  }
+
+  /**
+   * Copies the content of this matrix.
+   */
+  public ScenarioMatrix copy ()
+  {
+    ScenarioMatrix result = new ScenarioMatrix(scenarioCount, hours);
+    System.arraycopy(probabilities, 0, result.probabilities, 0, scenarioCount);
+    System.arraycopy(values, 0, result.values, 0, values.length);
+    return result;
+  }
+
+} // class ScenarioMatrix
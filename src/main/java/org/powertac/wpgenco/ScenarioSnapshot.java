@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Power output scenarios of one calculation, published by ForecastScenarios
+ * for readers on other threads. A snapshot is not changed while anyone
+ * holds it: readers get one from ForecastScenarios.acquireSnapshot() and
+ * hand it back with release(), without locking.
+ *
+ * Each snapshot counts its holders, the publisher being one of them while
+ * the snapshot is current. When the count drops to zero the snapshot goes
+ * back to the pool of its ForecastScenarios and its buffer is refilled by a
+ * later calculation; a snapshot must not be used after release().
+ *
+ * The values are held at the storage precision of the ForecastScenarios
+ * and copied without decoding, so a snapshot costs no more than the power
+ * scenarios it holds.
+ *
+ * @author Shashank Pande
+ */
+public final class ScenarioSnapshot
+{
+  private final CompactScenarioMatrix matrix;
+  private final Queue<ScenarioSnapshot> pool;
+  private final AtomicInteger holders = new AtomicInteger(0);
+  private long sequence = 0;
+
+  ScenarioSnapshot (CompactScenarioMatrix matrix,
+                    Queue<ScenarioSnapshot> pool)
+  {
+    this.matrix = matrix;
+    this.pool = pool;
+  }
+
+  /**
+   * Number of the calculation this snapshot holds, counting from 1.
+   */
+  public long getSequence ()
+  {
+    return sequence;
+  }
+
+  public int getScenarioCount ()
+  {
+    return matrix.getScenarioCount();
+  }
+
+  public int getHours ()
+  {
+    return matrix.getHours();
+  }
+
+  public String getPrecision ()
+  {
+    return matrix.getPrecision();
+  }
+
+  public double getProbability (int scenario)
+  {
+    return matrix.getProbability(scenario);
+  }
+
+  /**
+   * Power output in MW of the given scenario and hour index.
+   */
+  public double getValue (int scenario, int hour)
+  {
+    return matrix.getValue(scenario, hour);
+  }
+
+  /**
+   * Copy of the power output scenarios as a double matrix.
+   */
+  public ScenarioMatrix copyMatrix ()
+  {
+    ScenarioMatrix result =
+      new ScenarioMatrix(matrix.getScenarioCount(), matrix.getHours());
+    matrix.decodeInto(result);
+    return result;
+  }
+
+  /**
+   * Scenario objects for the rows, numbered from 1.
+   */
+  public List<Scenario> toScenarios ()
+  {
+    return copyMatrix().toScenarios();
+  }
+
+  /**
+   * Hands the snapshot back. Each acquireSnapshot() must be matched by one
+   * call.
+   */
+  public void release ()
+  {
+    if (holders.decrementAndGet() == 0) {
+      pool.offer(this);
+    }
+  }
+
+  // Adds a holder unless the snapshot has already been retired
+  boolean tryRetain ()
+  {
+    while (true) {
+      int count = holders.get();
+      if (count == 0) {
+        return false;
+      }
+      if (holders.compareAndSet(count, count + 1)) {
+        return true;
+      }
+    }
+  }
+
+  long getStorageBytes ()
+  {
+    return matrix.getStorageBytes();
+  }
+
+  // Fills a retired or new snapshot for publication, the publisher being
+  // its only holder
+  void fill (ScenarioMatrix source, long sequence)
+  {
+    matrix.copyFrom(source);
+    this.sequence = sequence;
+    holders.set(1);
+  }
+
+  // As above from reduced precision storage, without decoding
+  void fill (CompactScenarioMatrix source, long sequence)
+  {
+    matrix.copyFrom(source);
+    this.sequence = sequence;
+    holders.set(1);
+  }
+
+} // class ScenarioSnapshot
@@ -17,7 +17,11 @@
 package org.powertac.wpgenco;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PreDestroy;
 
 import org.apache.log4j.Logger;
 import org.joda.time.Instant;
@@ -30,7 +34,7 @@ import org.powertac.common.interfaces.InitializationService;
 import org.powertac.common.interfaces.ServerConfiguration;
 import org.powertac.common.interfaces.TimeslotPhaseProcessor;
 import org.powertac.common.repo.BrokerRepo;
-//import org.powertac.common.repo.RandomSeedRepo;
+import org.powertac.common.repo.RandomSeedRepo;
 import org.powertac.common.repo.TimeslotRepo;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -63,11 +67,14 @@ public class SimpleGencoService extends TimeslotPhaseProcessor
   @Autowired
   private BrokerProxy brokerProxyService;
 
-  // @Autowired
-  // private RandomSeedRepo randomSeedRepo;
+  @Autowired
+  private RandomSeedRepo randomSeedRepo;
 
   private List<WindfarmGenco> windfarmGencos;
 
+  // error scenarios shared by the gencos, possibly reloaded during the game
+  private ErrorScenarioLibrary scenarioLibrary = null;
+
   /**
    * Default constructor
    */
@@ -84,25 +91,93 @@ public class SimpleGencoService extends TimeslotPhaseProcessor
 
   /**
    * Creates the windfarmGencos and the buyer using the server configuration
-   * service.
+   * service. Farms that name a portfolio are handed to that portfolio and do
+   * not trade on their own.
    */
   @Override
   public String
     initialize (Competition competition, List<String> completedInits)
   {
     super.init();
+    // the last game, if any, has ended
+    endGame();
     // create the genco list
     windfarmGencos = new ArrayList<WindfarmGenco>();
+    scenarioLibrary =
+      new ErrorScenarioLibrary(WindForecastErrorScenarios.getErrorScenarioDataFile());
+    serverConfig.configureMe(scenarioLibrary);
+    configureDefaultCurve(serverConfig);
+    Map<String, WindTurbine> turbines = new HashMap<String, WindTurbine>();
+    for (Object turbineObj: serverConfig.configureInstances(WindTurbine.class)) {
+      WindTurbine turbine = (WindTurbine) turbineObj;
+      turbines.put(turbine.getName(), turbine);
+    }
+    Map<String, WindfarmPortfolio> portfolios =
+      new HashMap<String, WindfarmPortfolio>();
+    for (Object portfolioObj: serverConfig.configureInstances(WindfarmPortfolio.class)) {
+      WindfarmPortfolio portfolio = (WindfarmPortfolio) portfolioObj;
+      portfolios.put(portfolio.getUsername(), portfolio);
+    }
     for (Object gencoObj: serverConfig.configureInstances(WindfarmGenco.class)) {
       WindfarmGenco windfarmGenco = (WindfarmGenco) gencoObj;
+      windfarmGenco.configureFleet(turbines);
+      windfarmGenco.setScenarioLibrary(scenarioLibrary);
+      windfarmGenco.init(brokerProxyService, randomSeedRepo);
+      String portfolioName = windfarmGenco.getPortfolio();
+      if (portfolioName != null && portfolioName.length() > 0) {
+        WindfarmPortfolio portfolio = portfolios.get(portfolioName);
+        if (portfolio != null) {
+          portfolio.addFarm(windfarmGenco);
+          continue;
+        }
+        log.error("farm " + windfarmGenco.getUsername()
+                  + " names unknown portfolio " + portfolioName);
+      }
       brokerRepo.add(windfarmGenco);
-      windfarmGenco.init(brokerProxyService);
       windfarmGencos.add(windfarmGenco);
     }
+    for (WindfarmPortfolio portfolio: portfolios.values()) {
+      brokerRepo.add(portfolio);
+      portfolio.setScenarioLibrary(scenarioLibrary);
+      portfolio.init(brokerProxyService, randomSeedRepo);
+      windfarmGencos.add(portfolio);
+    }
+    scenarioLibrary.startWatching();
 
     return "WindfarmGenco";
   }
 
+  /**
+   * Stops watching the error scenarios and closes the journals of the
+   * gencos of the last game. Called when the next game is initialized and
+   * when the server shuts down.
+   */
+  @PreDestroy
+  public void endGame ()
+  {
+    if (scenarioLibrary != null) {
+      scenarioLibrary.stopWatching();
+    }
+    if (windfarmGencos != null) {
+      for (WindfarmGenco windfarmGenco: windfarmGencos) {
+        windfarmGenco.closeJournal();
+      }
+    }
+  }
+
+  /**
+   * Configures the default turbine efficiency curve and registers it for
+   * the turbines without a curve of their own. Must run before any genco is
+   * initialized.
+   */
+  static void configureDefaultCurve (ServerConfiguration serverConfig)
+  {
+    WindTurbineEfficiencyCurve curve = new WindTurbineEfficiencyCurve();
+    serverConfig.configureMe(curve);
+    curve.initialize();
+    TurbineModelRegistry.setDefaultEfficiencyCurve(curve);
+  }
+
   /**
    * Simply receives and stores the list of genco and buyer instances generated
    * by the initialization service.
@@ -114,7 +189,9 @@ public class SimpleGencoService extends TimeslotPhaseProcessor
 
   /**
    * Called once/timeslot, simply calls updateModel() and generateOrders() on
-   * each of the windfarmGencos.
+   * each of the windfarmGencos. Error scenarios reloaded since the last
+   * timeslot are swapped in first, so that all gencos use the same ones
+   * throughout the timeslot.
    */
   @Override
   public void activate (Instant now, int phase)
@@ -122,6 +199,9 @@ public class SimpleGencoService extends TimeslotPhaseProcessor
     log.info("Activate");
     List<Timeslot> openSlots = timeslotRepo.enabledTimeslots();
     Instant when = timeService.getCurrentTime();
+    if (scenarioLibrary != null) {
+      scenarioLibrary.swapPending();
+    }
     for (WindfarmGenco windfarmGenco: windfarmGencos) {
       windfarmGenco.updateModel(when);
       windfarmGenco.generateOrders(when, openSlots);
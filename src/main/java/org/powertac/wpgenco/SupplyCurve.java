@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+/**
+ * Offer curve for one timeslot: at each price level, in ascending order,
+ * the total quantity the genco wants to have sold if the market clears at
+ * that price. Quantities never decrease with price.
+ *
+ * @author Shashank Pande
+ */
+public class SupplyCurve
+{
+  private final double[] prices;
+  private final double[] quantities;
+
+  public SupplyCurve (double[] prices, double[] quantities)
+  {
+    this.prices = prices;
+    this.quantities = quantities;
+  }
+
+  public int getSegmentCount ()
+  {
+    return prices.length;
+  }
+
+  /**
+   * Price level of the given segment.
+   */
+  public double getPrice (int segment)
+  {
+    return prices[segment];
+  }
+
+  /**
+   * Total quantity wanted at the price level of the given segment.
+   */
+  public double getQuantity (int segment)
+  {
+    return quantities[segment];
+  }
+
+} // class SupplyCurve
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import java.util.Random;
+
+/**
+ * Generates equally likely wind speed forecast error scenarios, for testing
+ * at scenario counts and horizons no data file provides.
+ *
+ * The error of lead hour h is sigma_h * z_h, where the standard deviation
+ * sigma_h = sigma + sigmaGrowth * (h - 1) grows with lead time and z is a
+ * unit-variance AR(1) process over the lead hours,
+ * z_1 = eps_1, z_h = phi * z_(h-1) + sqrt(1 - phi^2) * eps_h, with
+ * standard normal eps. So every lead hour has the given spread and
+ * consecutive lead hours are correlated with coefficient phi.
+ *
+ * Each row is drawn from its own stream, seeded from the seed and the row
+ * number, so the rows can be generated in parallel on the ScenarioBlocks
+ * pool and the matrix depends only on the parameters.
+ *
+ * Wherever error scenarios are read from a file, a name of the form
+ * synthetic:scenarios=10000;hours=48;sigma=1.0;sigmaGrowth=0.03;phi=0.8;seed=1
+ * generates them instead; parameters left out take the defaults of
+ * fromSpec(). The separator is ; so that the name survives list-valued
+ * configuration.
+ *
+ * @author Shashank Pande
+ */
+public class SyntheticErrorScenarios
+{
+  public static final String PREFIX = "synthetic:";
+
+  // spreads the row seeds over the seed space
+  private static final long ROW_SEED_STRIDE = 0x9E3779B97F4A7C15L;
+
+  private final double sigma;
+  private final double sigmaGrowth;
+  private final double phi;
+  private final long seed;
+
+  public SyntheticErrorScenarios (double sigma, double sigmaGrowth,
+                                  double phi, long seed)
+  {
+    if (phi <= -1.0 || phi >= 1.0) {
+      throw new IllegalArgumentException("phi " + phi + " not in (-1, 1)");
+    }
+    this.sigma = sigma;
+    this.sigmaGrowth = sigmaGrowth;
+    this.phi = phi;
+    this.seed = seed;
+  }
+
+  /**
+   * True if name describes synthetic scenarios rather than a file.
+   */
+  public static boolean isSpec (String name)
+  {
+    return name != null && name.startsWith(PREFIX);
+  }
+
+  /**
+   * Scenarios described by a synthetic:... name; the defaults are 1000
+   * scenarios of 24 hours, sigma 1.0 m/s growing by 0.03 m/s per lead hour,
+   * phi 0.8 and seed 1.
+   */
+  public static ScenarioMatrix fromSpec (String spec)
+  {
+    int scenarios = 1000;
+    int hours = 24;
+    double sigma = 1.0;
+    double sigmaGrowth = 0.03;
+    double phi = 0.8;
+    long seed = 1;
+    String body = spec.substring(PREFIX.length()).trim();
+    if (body.length() > 0) {
+      for (String item : body.split(";")) {
+        String[] pair = item.split("=");
+        if (pair.length != 2) {
+          throw new IllegalArgumentException("bad item " + item + " in "
+                                             + spec);
+        }
+        String key = pair[0].trim();
+        String value = pair[1].trim();
+        try {
+          if ("scenarios".equals(key)) {
+            scenarios = Integer.parseInt(value);
+          }
+          else if ("hours".equals(key)) {
+            hours = Integer.parseInt(value);
+          }
+          else if ("sigma".equals(key)) {
+            sigma = Double.parseDouble(value);
+          }
+          else if ("sigmaGrowth".equals(key)) {
+            sigmaGrowth = Double.parseDouble(value);
+          }
+          else if ("phi".equals(key)) {
+            phi = Double.parseDouble(value);
+          }
+          else if ("seed".equals(key)) {
+            seed = Long.parseLong(value);
+          }
+          else {
+            throw new IllegalArgumentException("unknown parameter " + key
+                                               + " in " + spec);
+          }
+        }
+        catch (NumberFormatException nfe) {
+          throw new IllegalArgumentException("bad " + key + " in " + spec);
+        }
+      }
+    }
+    return new SyntheticErrorScenarios(sigma, sigmaGrowth, phi, seed)
+        .generate(scenarios, hours);
+  }
+
+  /**
+   * Generates the given number of equally likely scenarios over lead hours
+   * 1 to hours.
+   */
+  public ScenarioMatrix generate (int scenarios, final int hours)
+  {
+    final ScenarioMatrix result = new ScenarioMatrix(scenarios, hours);
+    final double[] values = result.getValues();
+    final double[] spread = new double[hours];
+    for (int h = 0; h < hours; h++) {
+      spread[h] = sigma + sigmaGrowth * h;
+    }
+    final double innovation = Math.sqrt(1.0 - phi * phi);
+    double probability = 1.0 / scenarios;
+    for (int s = 0; s < scenarios; s++) {
+      result.setProbability(s, probability);
+    }
+    ScenarioBlocks.run(scenarios, hours, new ScenarioBlocks.RowTask() {
+      @Override
+      public void run (int from, int to)
+      {
+        for (int s = from; s < to; s++) {
+          Random random = new Random(seed + (s + 1) * ROW_SEED_STRIDE);
+          int offset = s * hours;
+          double z = random.nextGaussian();
+          values[offset] = spread[0] * z;
+          for (int h = 1; h < hours; h++) {
+            z = phi * z + innovation * random.nextGaussian();
+            values[offset + h] = spread[h] * z;
+          }
+        }
+      }
+    });
+    return result;
+  }
+
+} // class SyntheticErrorScenarios
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shared store of parsed efficiency curves and compiled farm power curves,
+ * keyed by the configuration they were built from. Both are immutable once
+ * built, so every turbine and genco with the same configuration uses the
+ * same instance, and the configuration strings are parsed only once per
+ * server.
+ *
+ * @author Shashank Pande
+ */
+public class TurbineModelRegistry
+{
+  private static final String DEFAULT_CURVE = "default";
+
+  private static final ConcurrentMap<String, WindTurbineEfficiencyCurve> curves =
+    new ConcurrentHashMap<String, WindTurbineEfficiencyCurve>();
+  private static final ConcurrentMap<String, FarmPowerCurve> farmCurves =
+    new ConcurrentHashMap<String, FarmPowerCurve>();
+
+  private TurbineModelRegistry ()
+  {
+  }
+
+  /**
+   * Makes curve the default efficiency curve, used by turbines without a
+   * curve of their own. The genco service sets it from the server
+   * configuration before any genco is initialized. Compiled farm curves
+   * are dropped, as they may use the previous default.
+   */
+  public static void setDefaultEfficiencyCurve (WindTurbineEfficiencyCurve curve)
+  {
+    curves.put(DEFAULT_CURVE, curve);
+    farmCurves.clear();
+  }
+
+  /**
+   * The efficiency curve for the given band, slope and intercept lists.
+   * Null lists select the default curve, which must have been set with
+   * setDefaultEfficiencyCurve().
+   */
+  public static WindTurbineEfficiencyCurve getEfficiencyCurve (List<String> windSpeedbands,
+                                                               List<String> slope,
+                                                               List<String> yIntercept)
+  {
+    String key = curveKey(windSpeedbands, slope, yIntercept);
+    WindTurbineEfficiencyCurve curve = curves.get(key);
+    if (curve == null) {
+      if (windSpeedbands == null) {
+        throw new IllegalStateException("no default efficiency curve configured");
+      }
+      curve = new WindTurbineEfficiencyCurve(windSpeedbands, slope, yIntercept);
+      WindTurbineEfficiencyCurve existing = curves.putIfAbsent(key, curve);
+      if (existing != null) {
+        curve = existing;
+      }
+    }
+    return curve;
+  }
+
+  /**
+   * The compiled power curve of a farm made of counts[i] turbines of model
+   * turbines.get(i).
+   */
+  public static FarmPowerCurve getFarmPowerCurve (List<WindTurbine> turbines,
+                                                  List<Integer> counts)
+  {
+    StringBuilder key = new StringBuilder();
+    for (int i = 0; i < turbines.size(); i++) {
+      key.append(counts.get(i)).append('x')
+         .append(turbines.get(i).getModelKey()).append(';');
+    }
+    FarmPowerCurve curve = farmCurves.get(key.toString());
+    if (curve == null) {
+      curve = FarmPowerCurve.compile(turbines, counts);
+      FarmPowerCurve existing = farmCurves.putIfAbsent(key.toString(), curve);
+      if (existing != null) {
+        curve = existing;
+      }
+    }
+    return curve;
+  }
+
+  /**
+   * Registry key for an efficiency curve configuration.
+   */
+  static String curveKey (List<String> windSpeedbands, List<String> slope,
+                          List<String> yIntercept)
+  {
+    if (windSpeedbands == null) {
+      return DEFAULT_CURVE;
+    }
+    return windSpeedbands + "|" + slope + "|" + yIntercept;
+  }
+
+  /**
+   * Drops all registered models; for tests.
+   */
+  static void clear ()
+  {
+    curves.clear();
+    farmCurves.clear();
+  }
+
+} // class TurbineModelRegistry
@@ -44,6 +44,10 @@ import org.powertac.common.Timeslot;
  * is paying the price for imbalance, and the positive sign means
  * that the balance responsible player is getting paid.
  *
+ * The genco's own imbalance can move these prices against it: with an
+ * imbalance price slope s, an imbalance of x MW is settled at a price
+ * s * x lower (surplus) or more negative (shortfall).
+ *
  */
 public class WindFarmGencoPriceModel {
   
@@ -53,8 +57,20 @@ public class WindFarmGencoPriceModel {
   public static final double GREATER_THAN_ZERO_MULTIPLIER = 2.0;
   public static final double LESS_THAN_ZERO_MULTIPLIER = 0.5;
   public static final double ZERO_TOLERANCE = 0.001;
+
+  // price history kept per hour of day: 30 days of recent prices,
+  // moving averages over roughly 10 days, histograms in $1 bins
+  private static final int HISTORY_WINDOW = 30;
+  private static final double HISTORY_WEIGHT = 0.1;
+  private static final double HISTOGRAM_MIN_PRICE = 0.0;
+  private static final double HISTOGRAM_MAX_PRICE = 250.0;
+  private static final int HISTOGRAM_BINS = 250;
   
   private Map<Integer, ImbalancePrice> mapHourToImbPrice;
+  private double imbalancePriceSlope = 0.0;
+  private final PriceStatistics statistics =
+    new PriceStatistics(HISTORY_WINDOW, HISTORY_WEIGHT, HISTOGRAM_MIN_PRICE,
+                        HISTOGRAM_MAX_PRICE, HISTOGRAM_BINS);
   
   public static class ImbalancePrice {
         
@@ -125,14 +141,20 @@ public class WindFarmGencoPriceModel {
   } //class ImbalancePrice
   
   public WindFarmGencoPriceModel() {
-    Random randomGen = new Random();
+    this(new Random());
+  }
+
+  /**
+   * Price model whose initial prices are drawn from the given source.
+   */
+  public WindFarmGencoPriceModel(Random randomGen) {
     //TODO: make this configurable
     double csp0max = 50.0; 
     double csp0min = 10.0;
     mapHourToImbPrice = new HashMap<Integer, ImbalancePrice>();
     //Initially randomly generate imbalance prices
     for (int i = 0; i < 24; i++) {
-      double csp = Math.random() * (csp0max - csp0min) + csp0min;
+      double csp = randomGen.nextDouble() * (csp0max - csp0min) + csp0min;
       double cdn = csp;
       double cup = csp;
       short regStat = (short) (randomGen.nextInt(3) - 1); // -1, 0, or 1
@@ -165,26 +187,85 @@ public class WindFarmGencoPriceModel {
     ImbalancePrice imbP = this.mapHourToImbPrice.get(hour);
     if (imbP != null) {
       imbP.setPrices(clearingPrice, cup, cdn, regStat);
-    }  
+    }
+    statistics.record(hour, PriceStatistics.CLEARING, clearingPrice);
+    statistics.record(hour, PriceStatistics.REG_UP, cup);
+    statistics.record(hour, PriceStatistics.REG_DOWN, cdn);
   } //updatePrices
+
+  /**
+   * Change in imbalance price, $/MWh per MW of the genco's own imbalance;
+   * 0 if imbalance prices do not depend on the genco's volume.
+   */
+  public double getImbalancePriceSlope ()
+  {
+    return imbalancePriceSlope;
+  }
+
+  public void setImbalancePriceSlope (double slope)
+  {
+    this.imbalancePriceSlope = slope;
+  }
+
+  /**
+   * Price history, per hour of day, of the prices passed to updatePrices().
+   */
+  public PriceStatistics getStatistics ()
+  {
+    return statistics;
+  }
+
+  /**
+   * Quantile q of the clearing prices seen in the hour of day of the given
+   * timeslot, or NaN if none have been seen.
+   */
+  public double getClearingPriceQuantile (Timeslot timeSlot, double q)
+  {
+    int hourOfDay = timeSlot.getStartInstant().toDateTime().getHourOfDay();
+    return statistics.getQuantile(hourOfDay, PriceStatistics.CLEARING, q);
+  }
   
-  boolean getPrices(Timeslot timeSlot, Double mcp, Double pimbPrice, Double nimbPrice) {
-    
-    //get hour of day
+  /**
+   * Maximum number of price scenarios returned by getPriceScenarios().
+   */
+  public int getMaxPriceScenarios ()
+  {
+    return HISTORY_WINDOW;
+  }
+
+  /**
+   * Fills in equally likely price scenarios for the given timeslot: the
+   * clearing price, the price paid for surplus output and the price for a
+   * shortfall (negative when the genco pays), for each of the recent prices
+   * seen in the timeslot's hour of day. With no history the current
+   * imbalance prices of that hour are the only scenario.
+   * The arrays must hold getMaxPriceScenarios() entries.
+   *
+   * @return number of scenarios filled in
+   */
+  int getPriceScenarios (Timeslot timeSlot, double[] mcp, double[] pimbPrice,
+                         double[] nimbPrice)
+  {
     int hourOfDay = timeSlot.getStartInstant().toDateTime().getHourOfDay();
-    
-    if (!this.mapHourToImbPrice.containsKey(hourOfDay)) {
-      return false;
+    int count = statistics.getRecentCount(hourOfDay, PriceStatistics.CLEARING);
+    if (count == 0) {
+      ImbalancePrice imbPrice = this.mapHourToImbPrice.get(hourOfDay);
+      mcp[0] = imbPrice.getClearingPrice();
+      pimbPrice[0] = imbPrice.getImbalancePrice(100.0);
+      nimbPrice[0] = imbPrice.getImbalancePrice(-100.0);
+      return 1;
     }
-    
-    ImbalancePrice imbPrice = this.mapHourToImbPrice.get(hourOfDay);
-    
-    mcp = imbPrice.getClearingPrice();
-    pimbPrice = imbPrice.getImbalancePrice(100.0);
-    nimbPrice = imbPrice.getImbalancePrice(-100.0);
-    
-    return true;
-    
+    for (int age = 0; age < count; age++) {
+      // updatePrices() records all three series together, so the same age
+      // belongs to the same observation; up and down regulation prices
+      // equal the clearing price when no regulation was employed
+      mcp[age] = statistics.getRecent(hourOfDay, PriceStatistics.CLEARING, age);
+      pimbPrice[age] =
+        statistics.getRecent(hourOfDay, PriceStatistics.REG_DOWN, age);
+      nimbPrice[age] =
+        -statistics.getRecent(hourOfDay, PriceStatistics.REG_UP, age);
+    }
+    return count;
   }
   
 } //class WindFarmGencoPriceModel
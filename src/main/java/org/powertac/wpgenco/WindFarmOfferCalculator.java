@@ -16,13 +16,12 @@
 package org.powertac.wpgenco;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import org.apache.log4j.Logger;
+import java.util.Random;
+
+import org.joda.time.DateTimeConstants;
 import org.powertac.common.Timeslot;
-import org.powertac.common.repo.TimeslotRepo;
-import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * This class provides functionality to determine optimal offers from the wind
@@ -34,110 +33,402 @@ import org.springframework.beans.factory.annotation.Autowired;
  */
 public class WindFarmOfferCalculator
 {
-  private static Logger log = Logger.getLogger(WindFarmOfferCalculator.class);
   private static double stepSize = 0.1; // must be > 0 and less than 0.5
 
-  @Autowired
-  TimeslotRepo timeslotRepo;
-
-  private Map<Timeslot, Integer> mapTimeslotToLeadHour =
-    new HashMap<Timeslot, Integer>();
-
   private double maxCapacity = 0; // maximum capacity of windfarm
-  private List<Scenario> windfarmOutputScenarios = null;
+  private PowerDistribution windfarmOutput = null;
   private WindFarmGencoPriceModel wfGencoPriceModel = null;
+  private Random pricePairing = null;
+  private double cvarLimit = -1.0; // negative for no limit
+  private double cvarAlpha = 0.95;
+  private double rampLimit = -1.0; // negative for no limit
+  private double dailyCap = -1.0; // negative for no limit
+  private OfferOptimizer offerOptimizer = null; // null for the bid grid
+  private double quantityTolerance = 0;
 
   /**
    * Constructor.
    */
-  public WindFarmOfferCalculator (double maxCap, List<Scenario> wpScenarios, WindFarmGencoPriceModel pm)
+  public WindFarmOfferCalculator (double maxCap, PowerDistribution wpDistribution, WindFarmGencoPriceModel pm)
   {
     this.maxCapacity = maxCap;
-    this.windfarmOutputScenarios = wpScenarios;
-    for (int i = 0; i < timeslotRepo.enabledTimeslots().size(); i++) {
-      Timeslot ts = timeslotRepo.enabledTimeslots().get(i);
-      mapTimeslotToLeadHour.put(ts, i + 1);
-    }
+    this.windfarmOutput = wpDistribution;
+    this.wfGencoPriceModel = pm;
+  }
+
+  /**
+   * Pairs power outcomes with randomly drawn price scenarios from the given
+   * source; by default they are paired by index.
+   */
+  public void setPricePairing (Random random)
+  {
+    this.pricePairing = random;
+  }
+
+  /**
+   * Limits the conditional value at risk of the imbalance cost of each
+   * offer: the mean shortfall cost over the worst 1 - alpha of the output
+   * outcomes must not exceed limit. A negative limit removes the constraint.
+   */
+  public void setRiskLimit (double limit, double alpha)
+  {
+    this.cvarLimit = limit;
+    this.cvarAlpha = alpha;
+  }
+
+  /**
+   * Couples the offers of the open timeslots: the committed quantities of
+   * consecutive slots may differ by at most rampLimit MW, and those of the
+   * slots of one day may sum to at most dailyCap MWh. Negative values
+   * remove the constraint.
+   */
+  public void setCouplingLimits (double rampLimit, double dailyCap)
+  {
+    this.rampLimit = rampLimit;
+    this.dailyCap = dailyCap;
   }
 
+  /**
+   * Searches the offer quantity of each slot with the given optimizer, to
+   * within tolerance MW, instead of evaluating the stepSize bid grid. A
+   * null optimizer restores the bid grid. Coupled slots are always solved
+   * on the bid grid.
+   */
+  public void setOfferOptimizer (OfferOptimizer optimizer, double tolerance)
+  {
+    this.offerOptimizer = optimizer;
+    this.quantityTolerance = tolerance;
+  }
 
+  /**
+   * Optimal offer capacity for each open timeslot. The open timeslots are
+   * taken to be in lead-hour order, the first one at lead hour 1.
+   */
   public List<Double> getOptimalOfferCapacities (List<Timeslot> openSlots)
   {
+    if (offerOptimizer != null && rampLimit < 0 && dailyCap < 0) {
+      return searchOfferCapacities(openSlots);
+    }
     List<Double> offerCaps = new ArrayList<Double>();
+    JointRevenueEvaluator evaluator =
+      new JointRevenueEvaluator(windfarmOutput, getBidGrid(), pricePairing);
+    evaluator.setImbalancePriceSlope(wfGencoPriceModel.getImbalancePriceSlope());
+    int maxPrices = wfGencoPriceModel.getMaxPriceScenarios();
+    double[] mcp = new double[maxPrices];
+    double[] pimbPrice = new double[maxPrices];
+    double[] nimbPrice = new double[maxPrices];
+    double[] revenue = new double[evaluator.getBids().length];
+    PowerDistribution sortedOutput =
+      (cvarLimit < 0) ? null : windfarmOutput.sorted();
+    JointOfferOptimizer optimizer =
+      new JointOfferOptimizer(evaluator.getBids());
+    optimizer.setRampLimit(rampLimit);
+    optimizer.setDailyCap(dailyCap);
+    double[][] slotRevenue = null;
+    if (optimizer.hasConstraints()) {
+      slotRevenue = new double[openSlots.size()][];
+    }
+
+    for (int i = 0; i < openSlots.size(); i++) {
+      int priceCount =
+        wfGencoPriceModel.getPriceScenarios(openSlots.get(i), mcp,
+                                            pimbPrice, nimbPrice);
+      evaluator.evaluate(i, mcp, pimbPrice, nimbPrice, priceCount, revenue);
+      int feasible = evaluator.getBids().length;
+      if (sortedOutput != null && i < sortedOutput.getHours()) {
+        feasible = countFeasibleBids(sortedOutput, i, evaluator.getBids(),
+                                     nimbPrice, priceCount);
+      }
+      if (slotRevenue != null) {
+        slotRevenue[i] = revenue.clone();
+        Arrays.fill(slotRevenue[i], feasible, revenue.length,
+                    Double.NEGATIVE_INFINITY);
+        continue;
+      }
+      offerCaps.add(determineOfferCapacity(evaluator.getBids(), revenue,
+                                           feasible));
+    }
 
-    for (Timeslot ts: openSlots) {
-      double oc = determineOfferCapacity(ts);
-      offerCaps.add(oc);
+    if (slotRevenue != null) {
+      long[] days = new long[openSlots.size()];
+      for (int i = 0; i < days.length; i++) {
+        days[i] = openSlots.get(i).getStartInstant().getMillis()
+                  / DateTimeConstants.MILLIS_PER_DAY;
+      }
+      for (double quantity : optimizer.optimize(slotRevenue, days)) {
+        offerCaps.add(quantity);
+      }
     }
 
     return offerCaps;
   }
 
-  /**
-   * Determines optimal capacity to submit ask offer
-   * 
-   * @param ts
-   *          timeslot for which the calculation is done.
-   * @return optimal capacity
-   */
-  private double determineOfferCapacity (Timeslot ts)
+  // Offer capacities found by offerOptimizer on [0, maxCapacity], or on
+  // [0, largest quantity within the CVaR limit]
+  private List<Double> searchOfferCapacities (List<Timeslot> openSlots)
   {
+    List<Double> offerCaps = new ArrayList<Double>();
+    final JointRevenueEvaluator evaluator =
+      new JointRevenueEvaluator(windfarmOutput, new double[0], pricePairing);
+    evaluator.setImbalancePriceSlope(wfGencoPriceModel.getImbalancePriceSlope());
+    int maxPrices = wfGencoPriceModel.getMaxPriceScenarios();
+    final double[] mcp = new double[maxPrices];
+    final double[] pimbPrice = new double[maxPrices];
+    final double[] nimbPrice = new double[maxPrices];
+    PowerDistribution sortedOutput =
+      (cvarLimit < 0) ? null : windfarmOutput.sorted();
+
+    for (int i = 0; i < openSlots.size(); i++) {
+      final int hour = i;
+      final int priceCount =
+        wfGencoPriceModel.getPriceScenarios(openSlots.get(i), mcp,
+                                            pimbPrice, nimbPrice);
+      evaluator.pairHour(hour, priceCount);
+      OfferOptimizer.RevenueFunction revenue =
+        new OfferOptimizer.RevenueFunction() {
+          @Override
+          public double revenue (double quantity)
+          {
+            return evaluator.revenueAt(hour, quantity, mcp, pimbPrice,
+                                       nimbPrice, priceCount);
+          }
+        };
+      double upper = maxCapacity;
+      if (sortedOutput != null && i < sortedOutput.getHours()) {
+        upper = getRiskLimitedQuantity(sortedOutput, i, nimbPrice, priceCount,
+                                       quantityTolerance);
+      }
+      double offerCap =
+        offerOptimizer.maximize(revenue, 0, upper, quantityTolerance);
+      offerCaps.add((revenue.revenue(offerCap) > 0) ? offerCap : 0.0);
+    }
+    return offerCaps;
+  }
+
+  // Largest quantity whose imbalance cost CVaR is within cvarLimit, to
+  // within tolerance, by bisection on the non-decreasing CVaR
+  private double getRiskLimitedQuantity (PowerDistribution sortedOutput,
+                                         int hour, double[] nimbPrice,
+                                         int priceCount, double tolerance)
+  {
+    double shortfallPrice = getMeanShortfallPrice(nimbPrice, priceCount);
+    double tailMass = 1.0 - cvarAlpha;
+    if (shortfallPrice <= 0
+        || shortfallPrice * sortedOutput.getTailShortfall(hour, maxCapacity,
+                                                           tailMass) <= cvarLimit) {
+      return maxCapacity;
+    }
+    double lo = 0;
+    double hi = maxCapacity;
+    while (hi - lo > tolerance) {
+      double mid = 0.5 * (lo + hi);
+      if (shortfallPrice * sortedOutput.getTailShortfall(hour, mid, tailMass)
+          <= cvarLimit) {
+        lo = mid;
+      }
+      else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
 
-    Double cmcp = (double) 0; // market clearing price
-    Double pimbPrice = (double) 0; // positive imbalance price
-    Double nimbPrice = (double) 0; // negative imbalance price
+  private double getMeanShortfallPrice (double[] nimbPrice, int priceCount)
+  {
+    double result = 0;
+    for (int j = 0; j < priceCount; j++) {
+      result -= nimbPrice[j] / priceCount;
+    }
+    return result;
+  }
 
-    // get the prices
-    boolean pricesAvailable = this.wfGencoPriceModel.getPrices(ts,cmcp, pimbPrice, nimbPrice);
+  /**
+   * Supply curve for each open timeslot, with up to the given number of
+   * price levels: askPrice and quantiles of the clearing prices seen in the
+   * timeslot's hour of day.
+   *
+   * The imbalance prices are held at the mean of the price scenarios. For
+   * a clearing price c the expected revenue is then maximized where the
+   * output distribution F satisfies F(q) = (c - pplus) / (-pplus - pminus),
+   * a ratio that rises with c. With the price levels in ascending order,
+   * all of the quantities come from one walk up the sorted distribution.
+   *
+   * The quantities are capped so that the limits hold whatever price
+   * clears: with a CVaR limit at the largest quantity within it, and with
+   * coupling limits at the quantity of getOptimalOfferCapacities(). The
+   * daily cap then holds for any clearing; the ramp limit only between
+   * slots that clear at the same level. The imbalance price slope and the
+   * offer optimizer are not used.
+   */
+  public List<SupplyCurve> getSupplyCurves (List<Timeslot> openSlots,
+                                            double askPrice, int segments)
+  {
+    List<SupplyCurve> curves = new ArrayList<SupplyCurve>();
+    PowerDistribution sortedOutput = windfarmOutput.sorted();
+    List<Double> coupledCaps = null;
+    if (rampLimit >= 0 || dailyCap >= 0) {
+      coupledCaps = getOptimalOfferCapacities(openSlots);
+    }
+    double riskTolerance =
+      (quantityTolerance > 0) ? quantityTolerance : maxCapacity * stepSize;
+    int maxPrices = wfGencoPriceModel.getMaxPriceScenarios();
+    double[] mcp = new double[maxPrices];
+    double[] pimbPrice = new double[maxPrices];
+    double[] nimbPrice = new double[maxPrices];
 
-    // at this point we know we have the prices
-    double revenue = 0; // we need to maximize this
-    double offerCap = 0;
-    double capIncrement = maxCapacity * stepSize;
-    if (pricesAvailable) {
-      for (double currCap = 0; currCap <= maxCapacity; currCap +=
-              capIncrement) {
-        double currRev = getRevenue(currCap, cmcp, pimbPrice, nimbPrice, ts);
-        if (currRev > revenue) {
-          revenue = currRev;
-          offerCap = currCap;
+    for (int i = 0; i < openSlots.size(); i++) {
+      Timeslot ts = openSlots.get(i);
+      int priceCount =
+        wfGencoPriceModel.getPriceScenarios(ts, mcp, pimbPrice, nimbPrice);
+      double pplus = 0;
+      double pminus = 0;
+      for (int j = 0; j < priceCount; j++) {
+        pplus += pimbPrice[j] / priceCount;
+        pminus += nimbPrice[j] / priceCount;
+      }
+      double[] levels = getPriceLevels(ts, askPrice, segments, mcp[0]);
+      double[] quantities = new double[levels.length];
+      double cap = maxCapacity;
+      if (coupledCaps != null) {
+        cap = coupledCaps.get(i);
+      }
+      else if (cvarLimit >= 0 && i < sortedOutput.getHours()) {
+        cap = getRiskLimitedQuantity(sortedOutput, i, nimbPrice, priceCount,
+                                     riskTolerance);
+      }
+      if (i >= sortedOutput.getHours()) {
+        // no output distribution, only the market revenue counts
+        Arrays.fill(quantities, cap);
+        curves.add(new SupplyCurve(levels, quantities));
+        continue;
+      }
+      double[] values = sortedOutput.getValues(i);
+      double[] cumProbs = sortedOutput.getCumulativeProbabilities(i);
+      double denominator = -(pplus + pminus);
+      int index = 0;
+      double previous = 0;
+      for (int l = 0; l < levels.length; l++) {
+        double c = levels[l];
+        double q;
+        if (denominator <= 0) {
+          // shortfall costs less than surplus earns: all or nothing
+          q = (c >= pplus) ? maxCapacity : 0;
+        }
+        else {
+          double ratio = (c - pplus) / denominator;
+          if (ratio <= 0) {
+            q = 0;
+          }
+          else if (ratio >= 1) {
+            q = maxCapacity;
+          }
+          else {
+            while (index < values.length - 1 && cumProbs[index] < ratio) {
+              index++;
+            }
+            q = values[index];
+          }
         }
+        q = Math.max(previous, Math.min(cap, Math.max(0, q)));
+        quantities[l] = q;
+        previous = q;
       }
-    } else {
-      log.error("market prices are not available for timslot: " + ts);
-      offerCap = Math.random() * maxCapacity;
+      curves.add(new SupplyCurve(levels, quantities));
     }
+    return curves;
+  }
 
-    return offerCap;
-  } // calcOfferCapacity()
+  // Ascending, distinct price levels: askPrice, then clearing price
+  // quantiles l / segments of the timeslot's hour of day, or the current
+  // clearing price if there is no history yet
+  private double[] getPriceLevels (Timeslot ts, double askPrice, int segments,
+                                   double currentPrice)
+  {
+    double[] candidates = new double[Math.max(2, segments)];
+    int n = 0;
+    candidates[n++] = askPrice;
+    for (int l = 1; l < segments; l++) {
+      double level =
+        wfGencoPriceModel.getClearingPriceQuantile(ts, (double) l / segments);
+      if (Double.isNaN(level)) {
+        candidates[n++] = currentPrice;
+        break;
+      }
+      candidates[n++] = level;
+    }
+    Arrays.sort(candidates, 0, n);
+    int distinct = 0;
+    for (int l = 0; l < n; l++) {
+      if (candidates[l] >= askPrice
+          && (distinct == 0 || candidates[l] > candidates[distinct - 1])) {
+        candidates[distinct++] = candidates[l];
+      }
+    }
+    return Arrays.copyOf(candidates, distinct);
+  }
 
-  private double getRevenue (double pbid, double mcp, double pimbPrice, double nimbPrice,
-                             Timeslot ts)
+  /**
+   * Candidate offer quantities: 0 to maxCapacity in steps of
+   * stepSize * maxCapacity.
+   */
+  private double[] getBidGrid ()
   {
-    double mcpRevenue = pbid * mcp;
-    // get imbalance revenue - positive revenue indicate profit, -ve revenue
-    // loss
-    int tiIndex = mapTimeslotToLeadHour.get(ts) - 1;
-    if ((tiIndex < 0) || (tiIndex > 23)) {
-      return mcpRevenue; // no data to calculate imbalance revenue
-    }
-    double imbalanceRevenue = 0;
-    double negativeImbalance = 0;
-    double positiveImbalance = 0;
-    for (Scenario powerScenario: windfarmOutputScenarios) {
-      double pi = powerScenario.getValueList().get(tiIndex).getValue(); //power for ith scenario
-      double prob = powerScenario.getProbability();
-      if (pi > pbid) { // negative imbalance
-        negativeImbalance += (pi - pbid) * prob;
-      }
-      else if (pbid > pi) { // positive imbalance
-        positiveImbalance += (pbid - pi) * prob;
-      }
-    }
-    imbalanceRevenue = (pimbPrice * positiveImbalance) + (-nimbPrice * negativeImbalance);
-    double totalRevenue = mcpRevenue + imbalanceRevenue;
-    return totalRevenue;
-  } // getRevenue()
+    double capIncrement = maxCapacity * stepSize;
+    int steps = (int) Math.floor(1.0 / stepSize + 1e-9);
+    double[] bids = new double[steps + 1];
+    for (int k = 0; k <= steps; k++) {
+      bids[k] = k * capIncrement;
+    }
+    return bids;
+  }
 
+  /**
+   * Number of leading bids whose imbalance cost CVaR is within cvarLimit.
+   * The shortfall price is the mean over the price scenarios; the CVaR
+   * grows with the bid, so the feasible bids are a prefix of the grid.
+   */
+  private int countFeasibleBids (PowerDistribution sortedOutput, int hour,
+                                 double[] bids, double[] nimbPrice,
+                                 int priceCount)
+  {
+    double shortfallPrice = getMeanShortfallPrice(nimbPrice, priceCount);
+    if (shortfallPrice <= 0) {
+      return bids.length;
+    }
+    double tailMass = 1.0 - cvarAlpha;
+    for (int k = 0; k < bids.length; k++) {
+      double cvar = shortfallPrice
+                    * sortedOutput.getTailShortfall(hour, bids[k], tailMass);
+      if (cvar > cvarLimit) {
+        return k;
+      }
+    }
+    return bids.length;
+  }
+
+  /**
+   * Determines optimal capacity to submit ask offer
+   * 
+   * @param bids
+   *          candidate capacities
+   * @param revenue
+   *          expected revenue of each candidate
+   * @param feasible
+   *          number of leading candidates that may be chosen
+   * @return optimal capacity, 0 if no candidate has positive revenue
+   */
+  private double determineOfferCapacity (double[] bids, double[] revenue,
+                                         int feasible)
+  {
+    double bestRevenue = 0; // we need to maximize this
+    double offerCap = 0;
+    for (int k = 0; k < feasible; k++) {
+      if (revenue[k] > bestRevenue) {
+        bestRevenue = revenue[k];
+        offerCap = bids[k];
+      }
+    }
+    return offerCap;
+  } // determineOfferCapacity()
 
 } // class WindFarmOfferCalculator
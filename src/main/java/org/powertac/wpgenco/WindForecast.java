@@ -34,7 +34,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 public class WindForecast
 {
   private static Logger log = Logger.getLogger(WindForecast.class);
-  private static final double defaultAirPressure = 1.225;
+  static final double defaultAirPressure = 1.225;
 
   @Autowired
   private WeatherForecastRepo weatherForecastRepo;
@@ -42,6 +42,8 @@ public class WindForecast
   private List<Double> windSpeeds = new ArrayList<Double>();
   private List<Double> airPressure = new ArrayList<Double>();
   private List<Double> temperature = new ArrayList<Double>();
+  // lead hours to fill, 0 for the hours of the forecast
+  private int horizon = 0;
 
   public WindForecast ()
   {
@@ -63,6 +65,39 @@ public class WindForecast
     return Collections.unmodifiableList(temperature);
   }
 
+  /**
+   * Fills the forecast out to the given number of lead hours. Weather
+   * forecasts only reach so far ahead; later hours hold the last predicted
+   * values, and the growing spread of the forecast errors beyond the error
+   * scenario file stands for the uncertainty of that guess.
+   */
+  public void setHorizon (int hours)
+  {
+    this.horizon = hours;
+    extendToHorizon();
+  }
+
+  public int getHorizon ()
+  {
+    return horizon;
+  }
+
+  /**
+   * Sets the forecast directly instead of from the weather forecast
+   * repository, e.g. when replaying recorded forecasts.
+   */
+  void setForecast (List<Double> windSpeeds, List<Double> airPressure,
+                    List<Double> temperature)
+  {
+    this.windSpeeds.clear();
+    this.windSpeeds.addAll(windSpeeds);
+    this.airPressure.clear();
+    this.airPressure.addAll(airPressure);
+    this.temperature.clear();
+    this.temperature.addAll(temperature);
+    extendToHorizon();
+  }
+
   public void refreshWeatherForecast ()
   {
     windSpeeds.clear();
@@ -82,6 +117,20 @@ public class WindForecast
       airPressure.add(defaultAirPressure);
       temperature.add(wp.getTemperature());
     } // for each prediction
+    extendToHorizon();
   } // refreshWeatherForecast()
 
+  // Repeats the last prediction up to the horizon
+  private void extendToHorizon ()
+  {
+    if (windSpeeds.isEmpty()) {
+      return;
+    }
+    while (windSpeeds.size() < horizon) {
+      windSpeeds.add(windSpeeds.get(windSpeeds.size() - 1));
+      airPressure.add(airPressure.get(airPressure.size() - 1));
+      temperature.add(temperature.get(temperature.size() - 1));
+    }
+  }
+
 } // class WindForecast
@@ -22,6 +22,8 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -52,6 +54,12 @@ public class WindForecastErrorScenarios
   @XStreamImplicit
   private SortedSet<Scenario> windSpeedForecastErrorScenarios =
     new TreeSet<Scenario>();
+  // flat copy of the scenarios and a sampler of their probabilities, built
+  // together on first use
+  private transient ScenarioMatrix errorMatrix = null;
+  private transient AliasSampler sampler = null;
+  // the error matrix over other numbers of lead hours, built on first use
+  private transient Map<Integer, ScenarioMatrix> horizons = null;
 
   protected WindForecastErrorScenarios ()
   {
@@ -73,10 +81,104 @@ public class WindForecastErrorScenarios
     return windSpeedForecastErrorScenarios.addAll(scenarioCollection);
   }
 
-  public Set<Scenario> getScenarios ()
+  /**
+   * Error scenarios read into a matrix, e.g. by ScenarioFileReader. The
+   * Scenario objects are only created if getScenarios() is called.
+   */
+  public static WindForecastErrorScenarios fromMatrix (ScenarioMatrix matrix)
   {
+    WindForecastErrorScenarios result = new WindForecastErrorScenarios();
+    result.errorMatrix = matrix;
+    result.sampler = new AliasSampler(matrix.getProbabilities());
+    return result;
+  }
+
+  public synchronized Set<Scenario> getScenarios ()
+  {
+    if (windSpeedForecastErrorScenarios.isEmpty() && errorMatrix != null) {
+      windSpeedForecastErrorScenarios.addAll(errorMatrix.toScenarios());
+    }
     return Collections.unmodifiableSortedSet(windSpeedForecastErrorScenarios);
   }
+
+  /**
+   * The error scenarios as a flat matrix, rows in scenario-number order.
+   * Scenarios added after the first call are not reflected.
+   */
+  public synchronized ScenarioMatrix getErrorMatrix ()
+  {
+    if (errorMatrix == null) {
+      errorMatrix = ScenarioMatrix.fromScenarios(windSpeedForecastErrorScenarios);
+      sampler = new AliasSampler(errorMatrix.getProbabilities());
+    }
+    return errorMatrix;
+  }
+
+  /**
+   * The error scenarios over lead hours 1 to hours, rows as in
+   * getErrorMatrix(), so getSampler() draws from it too. Lead hours the
+   * scenarios do not cover are extrapolated by extendHorizon(); a shorter
+   * horizon drops the later hours. Each horizon is built once.
+   */
+  public synchronized ScenarioMatrix getErrorMatrix (int hours)
+  {
+    ScenarioMatrix matrix = getErrorMatrix();
+    if (hours <= 0 || hours == matrix.getHours()) {
+      return matrix;
+    }
+    if (horizons == null) {
+      horizons = new HashMap<Integer, ScenarioMatrix>();
+    }
+    ScenarioMatrix result = horizons.get(hours);
+    if (result == null) {
+      if (hours > matrix.getHours()) {
+        log.info("extrapolating forecast errors from " + matrix.getHours()
+                 + " to " + hours + " lead hours");
+      }
+      result = extendHorizon(matrix, hours);
+      horizons.put(hours, result);
+    }
+    return result;
+  }
+
+  /**
+   * Error scenarios over lead hours 1 to hours. Beyond the last lead hour H
+   * of errors, each scenario keeps the error of hour H scaled by
+   * sqrt(h / H) at lead hour h, so the spread of the errors grows with the
+   * square root of the lead time, as for a random walk, and each scenario
+   * stays as persistent as it is at hour H.
+   */
+  static ScenarioMatrix extendHorizon (ScenarioMatrix errors, int hours)
+  {
+    int count = errors.getScenarioCount();
+    int known = errors.getHours();
+    ScenarioMatrix result = new ScenarioMatrix(count, hours);
+    double[] growth = new double[hours];
+    for (int h = known; h < hours; h++) {
+      growth[h] = Math.sqrt((h + 1.0) / known);
+    }
+    double[] source = errors.getValues();
+    double[] target = result.getValues();
+    int copied = Math.min(known, hours);
+    for (int s = 0; s < count; s++) {
+      result.setProbability(s, errors.getProbability(s));
+      System.arraycopy(source, s * known, target, s * hours, copied);
+      double last = source[s * known + known - 1];
+      for (int h = known; h < hours; h++) {
+        target[s * hours + h] = last * growth[h];
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Draws rows of getErrorMatrix() by their probabilities in constant time.
+   */
+  public synchronized AliasSampler getSampler ()
+  {
+    getErrorMatrix();
+    return sampler;
+  }
   
   private static XStream getConfiguredXStream() {
     XStream xstream = new XStream();
@@ -94,12 +196,48 @@ public class WindForecastErrorScenarios
     return xstream;
   }
   
+  /**
+   * The configured error scenario file.
+   */
+  public static String getErrorScenarioDataFile ()
+  {
+    return errorScenarioDataFile;
+  }
+
   public static WindForecastErrorScenarios getWindForecastErrorScenarios() {
+    return readScenarioFile(errorScenarioDataFile);
+  }
+
+  /**
+   * Reads error scenarios from the given file rather than the configured
+   * errorScenarioDataFile, with ScenarioFileReader. A name starting with
+   * synthetic: generates the scenarios with SyntheticErrorScenarios
+   * instead. Throws IllegalArgumentException if the file cannot be read or
+   * is malformed.
+   */
+  public static WindForecastErrorScenarios readScenarioFile(String fileName) {
+    if (SyntheticErrorScenarios.isSpec(fileName)) {
+      return fromMatrix(SyntheticErrorScenarios.fromSpec(fileName));
+    }
+    try {
+      return fromMatrix(ScenarioFileReader.read(fileName));
+    }
+    catch (IOException ioe) {
+      log.error("cannot read error scenarios: " + ioe.getMessage());
+      throw new IllegalArgumentException(ioe.getMessage(), ioe);
+    }
+  }
+
+  /**
+   * Reads error scenarios from the given file through XStream, creating
+   * the Scenario objects.
+   */
+  public static WindForecastErrorScenarios readScenarioObjects(String fileName) {
     FileInputStream inputStream = null;
     try {
-      inputStream = new FileInputStream(errorScenarioDataFile);
+      inputStream = new FileInputStream(fileName);
     } catch (FileNotFoundException ex) {
-      log.error(String.format("File not found %s", errorScenarioDataFile), ex);
+      log.error(String.format("File not found %s", fileName), ex);
     }
     XStream xstream = getConfiguredXStream(); 
     WindForecastErrorScenarios wferrorScenarios = 
@@ -20,6 +20,8 @@
  */
 package org.powertac.wpgenco;
 
+import java.util.List;
+
 //import org.apache.log4j.Logger;
 import org.powertac.common.IdGenerator;
 import org.powertac.common.config.ConfigurableInstance;
@@ -35,6 +37,8 @@ public class WindTurbine
   // id values are standardized
   @SuppressWarnings("unused")
   private long id = IdGenerator.createId();
+
+  private String name = null;
   
   private boolean inOperation = true;
   
@@ -59,9 +63,94 @@ public class WindTurbine
 
   @ConfigurableValue(valueType = "Double", description = "sweep area of turbine in m^2")
   private double sweepAreaOfTurbine = 2391.2; // m^2
+
+  /** Own efficiency curve of a turbine model; the shared curve if not set */
+  @ConfigurableValue(valueType = "List", description = "wind speed bands of this turbine's efficiency curve")
+  private List<String> efficiencyWindSpeedbands = null;
+  @ConfigurableValue(valueType = "List", description = "slopes of this turbine's efficiency curve")
+  private List<String> efficiencySlope = null;
+  @ConfigurableValue(valueType = "List", description = "y intercepts of this turbine's efficiency curve")
+  private List<String> efficiencyYIntercept = null;
   
   public WindTurbine() {
-    this.efficiencyCurve = new WindTurbineEfficiencyCurve();
+  }
+
+  /**
+   * Constructor for a named turbine model, as created by the configurator.
+   */
+  public WindTurbine (String name)
+  {
+    this.name = name;
+  }
+
+  /**
+   * Name of the turbine model, null for the default turbine.
+   */
+  public String getName ()
+  {
+    return name;
+  }
+
+  /**
+   * Efficiency curve of this turbine, shared with every other turbine that
+   * has the same curve configuration. It is looked up on first use, after
+   * the configured values have been set.
+   */
+  public WindTurbineEfficiencyCurve getEfficiencyCurve ()
+  {
+    if (efficiencyCurve == null) {
+      efficiencyCurve =
+        TurbineModelRegistry.getEfficiencyCurve(efficiencyWindSpeedbands,
+                                                efficiencySlope,
+                                                efficiencyYIntercept);
+    }
+    return efficiencyCurve;
+  }
+
+  /**
+   * Sets this turbine's own efficiency curve, in the format of the
+   * configured values, for turbines created outside the server.
+   */
+  void setEfficiencyCurve (List<String> windSpeedbands, List<String> slope,
+                           List<String> yIntercept)
+  {
+    this.efficiencyWindSpeedbands = windSpeedbands;
+    this.efficiencySlope = slope;
+    this.efficiencyYIntercept = yIntercept;
+    this.efficiencyCurve = null;
+  }
+
+  /**
+   * Key identifying the configuration of this turbine model: two turbines
+   * with the same key produce the same power curve.
+   */
+  public String getModelKey ()
+  {
+    return turbineCapacity + "," + cutInSpeed + "," + cutOutSpeed + ","
+           + maxPowerOutputspeed + "," + sweepAreaOfTurbine + ","
+           + TurbineModelRegistry.curveKey(efficiencyWindSpeedbands,
+                                           efficiencySlope,
+                                           efficiencyYIntercept);
+  }
+
+  public double getCutInSpeed ()
+  {
+    return cutInSpeed;
+  }
+
+  public double getCutOutSpeed ()
+  {
+    return cutOutSpeed;
+  }
+
+  public double getMaxPowerOutputSpeed ()
+  {
+    return maxPowerOutputspeed;
+  }
+
+  public double getSweepArea ()
+  {
+    return sweepAreaOfTurbine;
   }
   /**
    * Nominal or mean capacity of plant.
@@ -93,7 +182,7 @@ public class WindTurbine
     }
     else {
       double powerOutput = 0;
-      double efficiency = efficiencyCurve.getEfficiency(windSpeed);
+      double efficiency = getEfficiencyCurve().getEfficiency(windSpeed);
       powerOutput =
         0.5 * efficiency * sweepAreaOfTurbine * airDensity
                 * Math.pow(windSpeed, 3);
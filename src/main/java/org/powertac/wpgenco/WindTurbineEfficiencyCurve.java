@@ -15,7 +15,6 @@
  */
 package org.powertac.wpgenco;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import org.powertac.common.config.ConfigurableInstance;
@@ -35,28 +34,6 @@ import org.powertac.common.state.Domain;
 public class WindTurbineEfficiencyCurve
 {
 
-  private static class WindSpeedband
-  {
-    private double fromWindSpeed = 0;
-    private double toWindSpeed = 0;
-
-    public WindSpeedband (double fromSpeed, double toSpeed)
-    {
-      this.fromWindSpeed = fromSpeed;
-      this.toWindSpeed = toSpeed;
-    }
-
-    public boolean isWithinSpeedband (double windSpeed)
-    {
-      if ((windSpeed >= fromWindSpeed) && (windSpeed < toWindSpeed)) {
-        return true;
-      }
-      else {
-        return false;
-      }
-    }
-  } // static class WindSpeedband
-
   /** Configured values to be read as List of Strings */
   @ConfigurableValue(valueType = "List", description = "wind speed bands")
   private List<String> cfgWindSpeedbands = null;
@@ -65,35 +42,90 @@ public class WindTurbineEfficiencyCurve
   @ConfigurableValue(valueType = "List", description = "value of y intercept in a linear equation")
   private List<String> cfgYIntercept = null;
 
-  /** This map should be populated from configured values */
-  private List<WindSpeedband> windSpeedbands = new ArrayList<WindSpeedband>();
-  private List<Double> slope = new ArrayList<Double>();
-  private List<Double> yIntercept = new ArrayList<Double>();
+  /** Parsed curve, one entry per band; not changed after construction */
+  private double[] bandFrom = new double[0];
+  private double[] bandTo = new double[0];
+  private double[] slope = new double[0];
+  private double[] yIntercept = new double[0];
 
   /**
-   * Constructor
+   * Constructor for the default curve, whose lists are set by the server
+   * configuration; initialize() must be called once they are.
    */
   public WindTurbineEfficiencyCurve ()
   {
-    initialize();
   } // WindFarmEfficiencyCurve()
 
-  private void initialize ()
+  /**
+   * Constructor for a curve given by its own band, slope and intercept
+   * lists, in the same format as the configured values. Use
+   * TurbineModelRegistry.getEfficiencyCurve() to share parsed curves.
+   */
+  public WindTurbineEfficiencyCurve (List<String> windSpeedbands,
+                                     List<String> slope,
+                                     List<String> yIntercept)
   {
+    this.cfgWindSpeedbands = windSpeedbands;
+    this.cfgSlope = slope;
+    this.cfgYIntercept = yIntercept;
+    initialize();
+  }
 
-    // write code here to populate the mapWindSpeedToEfficiency
-    for (int i = 0; i < cfgWindSpeedbands.size(); i++) {
+  /**
+   * Parses the band, slope and intercept lists.
+   */
+  void initialize ()
+  {
+    if (cfgWindSpeedbands == null || cfgSlope == null || cfgYIntercept == null) {
+      throw new IllegalStateException("efficiency curve not configured");
+    }
+    int bands = cfgWindSpeedbands.size();
+    bandFrom = new double[bands];
+    bandTo = new double[bands];
+    slope = new double[bands];
+    yIntercept = new double[bands];
+    for (int i = 0; i < bands; i++) {
       String from_to = cfgWindSpeedbands.get(i);
       String[] fromtoarray = from_to.split("-");
-      WindSpeedband wspb =
-        new WindSpeedband(Double.valueOf(fromtoarray[0]),
-                          Double.valueOf(fromtoarray[1]));
-      this.windSpeedbands.add(wspb);
+      bandFrom[i] = Double.valueOf(fromtoarray[0].trim());
+      bandTo[i] = Double.valueOf(fromtoarray[1].trim());
+      slope[i] = Double.valueOf(cfgSlope.get(i).trim());
+      yIntercept[i] = Double.valueOf(cfgYIntercept.get(i).trim());
+    }
+  }
+
+  /**
+   * Number of wind speed bands in the curve
+   */
+  public int getBandCount ()
+  {
+    return bandFrom.length;
+  }
 
-      this.slope.add(Double.valueOf(cfgSlope.get(i)));
-      this.yIntercept.add(Double.valueOf(cfgYIntercept.get(i)));
+  /**
+   * Lower (inclusive) wind speed of the given band
+   */
+  public double getBandFromSpeed (int band)
+  {
+    return bandFrom[band];
+  }
 
-    }
+  /**
+   * Upper (exclusive) wind speed of the given band
+   */
+  public double getBandToSpeed (int band)
+  {
+    return bandTo[band];
+  }
+
+  public double getSlope (int band)
+  {
+    return slope[band];
+  }
+
+  public double getYIntercept (int band)
+  {
+    return yIntercept[band];
   }
 
   /**
@@ -105,21 +137,12 @@ public class WindTurbineEfficiencyCurve
    */
   public double getEfficiency (double windSpeed)
   {
-    int indexInList = -1;
-    for (int i = 0; i < windSpeedbands.size(); i++) {
-      if (windSpeedbands.get(i).isWithinSpeedband(windSpeed)) {
-        indexInList = i;
-        break;
+    for (int i = 0; i < bandFrom.length; i++) {
+      if ((windSpeed >= bandFrom[i]) && (windSpeed < bandTo[i])) {
+        return (slope[i] * windSpeed + yIntercept[i]);
       }
     }
-    if (indexInList > -1) {
-      double m = slope.get(indexInList);
-      double b = yIntercept.get(indexInList);
-      return (m * windSpeed + b);
-    }
-    else {
-      return 0;
-    }
+    return 0;
   } // get efficiency
 
 } // class WindFarmEfficiencyCurve
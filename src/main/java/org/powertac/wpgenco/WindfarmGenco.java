@@ -15,8 +15,12 @@
  */
 package org.powertac.wpgenco;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import org.apache.log4j.Logger;
 import org.joda.time.Instant;
 
@@ -28,6 +32,7 @@ import org.powertac.common.Timeslot;
 import org.powertac.common.config.ConfigurableInstance;
 import org.powertac.common.config.ConfigurableValue;
 import org.powertac.common.interfaces.BrokerProxy;
+import org.powertac.common.repo.RandomSeedRepo;
 import org.powertac.common.state.Domain;
 import org.powertac.common.state.StateChange;
 
@@ -44,7 +49,6 @@ public class WindfarmGenco extends Broker
   static private Logger log = Logger.getLogger(WindfarmGenco.class.getName());
 
   // id values are standardized
-  @SuppressWarnings("unused")
   private long id = IdGenerator.createId();
 
   private boolean inOperation = true;
@@ -58,6 +62,10 @@ public class WindfarmGenco extends Broker
 
   private WindForecast windForecast = null;
   private ForecastScenarios forecastScenarios = null;
+  // source of the error scenarios, and the ones forecastScenarios was
+  // built from
+  private ErrorScenarioLibrary scenarioLibrary = null;
+  private WindForecastErrorScenarios errorScenarios = null;
   private WindFarmGencoPriceModel imbalancePriceModel = null;
 
   // configured parameters
@@ -66,10 +74,92 @@ public class WindfarmGenco extends Broker
   @ConfigurableValue(valueType = "Integer", description = "Number of turbines in the wind farm")
   private int numberOfTurbines = 100;
 
+  @ConfigurableValue(valueType = "List", description = "Names of the turbine models in the wind farm, empty for numberOfTurbines default turbines")
+  private List<String> turbineModels = null;
+  @ConfigurableValue(valueType = "List", description = "Number of turbines of each of the turbineModels")
+  private List<String> turbineCounts = null;
+
+  @ConfigurableValue(valueType = "Double", description = "Probability that a turbine in service is in forced outage")
+  private double forcedOutageRate = 0.0;
+  @ConfigurableValue(valueType = "List", description = "Planned maintenance as count@start/end, start and end ISO-8601 instants")
+  private List<String> maintenanceSchedule = null;
+  @ConfigurableValue(valueType = "Double", description = "grid step in MW for folding turbine outages into the output distribution")
+  private double outageBinWidth = 0.5;
+
+  @ConfigurableValue(valueType = "Boolean", description = "pair power outcomes with randomly drawn price scenarios instead of by index")
+  private boolean samplePricePairs = true;
+
   @ConfigurableValue(valueType = "Double", description = "ask price for wind farm")
   private double askPrice = 1.0;
 
+  @ConfigurableValue(valueType = "Double", description = "Limit on the CVaR of the imbalance cost of an offer; negative for no limit")
+  private double cvarLimit = -1.0;
+  @ConfigurableValue(valueType = "Double", description = "Confidence level of the CVaR limit")
+  private double cvarAlpha = 0.95;
+
+  @ConfigurableValue(valueType = "Double", description = "Largest change in MW of the offered quantity between consecutive timeslots; negative for no limit")
+  private double rampLimit = -1.0;
+  @ConfigurableValue(valueType = "Double", description = "Largest total in MWh offered over the timeslots of one day; negative for no limit")
+  private double dailyDeliveryCap = -1.0;
+
+  @ConfigurableValue(valueType = "String", description = "Offer quantity search: grid, golden or brent")
+  private String offerOptimizer = "grid";
+  @ConfigurableValue(valueType = "Double", description = "Quantity tolerance in MW of the offer search; negative for a tenth of capacity")
+  private double quantityTolerance = -1.0;
+  @ConfigurableValue(valueType = "Double", description = "Change in imbalance price, $/MWh per MW of own imbalance")
+  private double imbalancePriceSlope = 0.0;
+
+  @ConfigurableValue(valueType = "Integer", description = "Number of price levels in the offer curve of a timeslot; 1 offers the optimal quantity at askPrice")
+  private int supplyCurveSegments = 1;
+
+  @ConfigurableValue(valueType = "String", description = "Storage of scenario matrices: double, float or fixed16")
+  private String scenarioPrecision = CompactScenarioMatrix.DOUBLE;
+
+  @ConfigurableValue(valueType = "Boolean", description = "Evaluate the power curve over all scenarios with the block (SIMD-friendly) kernel")
+  private boolean blockPowerKernel = false;
+
+  @ConfigurableValue(valueType = "Integer", description = "Scenario matrices of at least this many cells are computed in parallel blocks, 0 for never")
+  private int parallelScenarioThreshold = 0;
+
+  @ConfigurableValue(valueType = "Double", description = "Width in m/s of the forecast speed bins for forecast-conditioned errors; 0 or negative for unconditioned errors")
+  private double conditioningBinWidth = 0.0;
+
+  @ConfigurableValue(valueType = "Integer", description = "Lead hours of the forecast scenarios, e.g. 24, 48 or 168")
+  private int scenarioHours = 24;
+
+  @ConfigurableValue(valueType = "Integer", description = "Intervals per hour of the power output calculation, e.g. 4 for 15 minutes; 1 for hourly")
+  private int intervalsPerHour = 1;
+
+  @ConfigurableValue(valueType = "String", description = "Directory for a journal of the offers of each activation, empty for none")
+  private String journalDirectory = "";
+
+  @ConfigurableValue(valueType = "String", description = "Name of the portfolio that offers this farm's output, empty if the farm trades on its own")
+  private String portfolio = "";
+
   private WindTurbine windTurbine = null;
+  private FarmPowerCurve powerCurve = null;
+  private AvailabilityModel availability = null;
+  private int turbinesInService = 0;
+  private Random pricePairing = new Random();
+  private Random scenarioSampling = new Random();
+  private DecisionJournal journal = null;
+  // price scenarios of a slot, for the journal
+  private double[] journalMcp = null;
+  private double[] journalSurplus = null;
+  private double[] journalShortfall = null;
+
+  // open timeslots recorded per activation in the journal, or the lead
+  // hours of the scenarios if there are more
+  private static final int JOURNAL_SLOTS = 24;
+
+  // Market positions indexed by timeslot serial number, modulo the cache
+  // size. Filled in addMarketPosition(), so every position the Broker holds
+  // is also here; the MarketPosition references are shared with the Broker,
+  // so balance updates are seen without further bookkeeping.
+  private static final int POSITION_CACHE_SIZE = 64;
+  private final MarketPosition[] positionCache =
+    new MarketPosition[POSITION_CACHE_SIZE];
+  private final int[] positionCacheSerial = new int[POSITION_CACHE_SIZE];
 
   /**
    * Constructor to create instance of wind park genco (or windfarm genco)
@@ -87,16 +177,164 @@ public class WindfarmGenco extends Broker
   }
 
   /**
-   * Initialize the wind park genco
+   * Initialize the wind park genco, with its random streams taken from the
+   * seed repo so that a game can be replayed.
    * 
    * @param proxy
    * @param randomSeedRepo
    */
+  public void init (BrokerProxy proxy, RandomSeedRepo randomSeedRepo)
+  {
+    pricePairing =
+      randomSeedRepo.getRandomSeed(WindfarmGenco.class.getName(), id,
+                                   "pricePairing");
+    scenarioSampling =
+      randomSeedRepo.getRandomSeed(WindfarmGenco.class.getName(), id,
+                                   "scenarioSampling");
+    init(proxy);
+  }
+
+  /**
+   * Initialize the wind park genco
+   * 
+   * @param proxy
+   */
   public void init (BrokerProxy proxy)
   {
     log.info("init " + getUsername());
     this.brokerProxyService = proxy;
-    forecastScenarios = new ForecastScenarios(this);
+    initOutputModel();
+    imbalancePriceModel.setImbalancePriceSlope(imbalancePriceSlope);
+    if (supplyCurveSegments > 1) {
+      if (rampLimit >= 0) {
+        log.warn(getUsername() + ": with supply curves the ramp limit only"
+                 + " bounds slots that clear at the same price level");
+      }
+      if (!"grid".equals(offerOptimizer) || imbalancePriceSlope != 0.0) {
+        log.warn(getUsername() + ": supply curves use the mean imbalance"
+                 + " prices, offerOptimizer and imbalancePriceSlope are ignored");
+      }
+    }
+    if (journalDirectory != null && journalDirectory.length() > 0) {
+      File journalFile = new File(journalDirectory, getUsername() + ".journal");
+      try {
+        journal = new DecisionJournal(journalFile,
+                                      Math.max(JOURNAL_SLOTS, scenarioHours));
+        int maxPrices = imbalancePriceModel.getMaxPriceScenarios();
+        journalMcp = new double[maxPrices];
+        journalSurplus = new double[maxPrices];
+        journalShortfall = new double[maxPrices];
+      }
+      catch (IOException ioe) {
+        log.error("cannot open journal " + journalFile, ioe);
+      }
+    }
+  }
+
+  /**
+   * Sets up what the genco needs to compute its own output: the turbine
+   * fleet, unless configureFleet() was called, and the forecast scenarios.
+   */
+  void initOutputModel ()
+  {
+    if (powerCurve == null) {
+      configureFleet(null);
+    }
+    if (scenarioLibrary == null) {
+      scenarioLibrary =
+        new ErrorScenarioLibrary(WindForecastErrorScenarios.getErrorScenarioDataFile());
+    }
+    windForecast.setHorizon(scenarioHours);
+    createForecastScenarios();
+  }
+
+  /**
+   * Writes out and closes the journal, if any. Called when the game ends.
+   */
+  public void closeJournal ()
+  {
+    if (journal == null) {
+      return;
+    }
+    try {
+      journal.close();
+    }
+    catch (IOException ioe) {
+      log.error("cannot close journal of " + getUsername(), ioe);
+    }
+    journal = null;
+  }
+
+  /**
+   * Error scenarios to use instead of reading the configured file; must be
+   * set before init().
+   */
+  public void setScenarioLibrary (ErrorScenarioLibrary library)
+  {
+    this.scenarioLibrary = library;
+  }
+
+  // Builds the scenario calculation for the current scenarios of the
+  // library
+  private void createForecastScenarios ()
+  {
+    errorScenarios = scenarioLibrary.getScenarios(location, scenarioHours);
+    forecastScenarios = new ForecastScenarios(errorScenarios, this);
+    forecastScenarios.setStoragePrecision(scenarioPrecision);
+    forecastScenarios.setBlockKernel(blockPowerKernel);
+    forecastScenarios.setParallelThreshold(parallelScenarioThreshold);
+    if (conditioningBinWidth > 0.0) {
+      forecastScenarios.setConditioning(conditioningBinWidth);
+      log.info(getUsername() + ": forecast-conditioned offers, no power"
+               + " scenario snapshots are published");
+    }
+    forecastScenarios.setIntervalsPerHour(intervalsPerHour);
+    if (intervalsPerHour > 1 && forecastScenarios.getIntervalsPerHour() == 1) {
+      log.warn(getUsername() + ": sub-hourly resolution needs double precision scenarios");
+    }
+    if (!CompactScenarioMatrix.DOUBLE.equals(forecastScenarios.getStoragePrecision())) {
+      log.info(getUsername() + ": " + forecastScenarios.getStoragePrecision()
+               + " scenarios, " + forecastScenarios.getStorageBytes()
+               + " bytes besides the shared forecast errors");
+    }
+  }
+
+  /**
+   * Gets the power curve of the farm for the configured turbine models and
+   * counts, looking the models up by name. Farms with the same fleet share
+   * one compiled curve. Without configured models,
+   * or if a model is missing, the farm is numberOfTurbines default turbines.
+   */
+  public void configureFleet (Map<String, WindTurbine> turbines)
+  {
+    List<WindTurbine> fleet = new ArrayList<WindTurbine>();
+    List<Integer> counts = new ArrayList<Integer>();
+    if (turbineModels != null && turbines != null) {
+      for (int i = 0; i < turbineModels.size(); i++) {
+        WindTurbine model = turbines.get(turbineModels.get(i).trim());
+        if (model == null) {
+          log.error(getUsername() + ": unknown turbine model "
+                    + turbineModels.get(i));
+          fleet.clear();
+          break;
+        }
+        fleet.add(model);
+        counts.add(Integer.valueOf(turbineCounts.get(i).trim()));
+      }
+    }
+    if (fleet.isEmpty()) {
+      counts.clear();
+      fleet.add(this.windTurbine);
+      counts.add(this.numberOfTurbines);
+    }
+    powerCurve = TurbineModelRegistry.getFarmPowerCurve(fleet, counts);
+    int fleetSize = 0;
+    for (Integer count : counts) {
+      fleetSize += count;
+    }
+    availability =
+      new AvailabilityModel(fleetSize, forcedOutageRate, maintenanceSchedule);
+    turbinesInService = fleetSize;
   }
 
   /**
@@ -106,7 +344,11 @@ public class WindfarmGenco extends Broker
   public void updateModel (Instant currentTime)
   {
     log.info("Update " + getUsername());
-
+    turbinesInService = availability.getTurbinesInService(currentTime);
+    boolean operating = (turbinesInService > 0);
+    if (operating != inOperation) {
+      setInOperation(operating);
+    }
   }
 
   /**
@@ -119,11 +361,28 @@ public class WindfarmGenco extends Broker
 
 
   /**
-   * Current capacity, varies by a mean-reverting random walk.
+   * Current capacity: nominal capacity of the turbines that are not on
+   * planned maintenance. Forced outages are not known in advance and only
+   * enter the offer through the output distribution. 0 for a farm
+   * without turbines.
    */
   double getCurrentCapacity ()
   {
-    return this.windTurbine.getNominalCapacity() * this.numberOfTurbines;
+    if (availability.getTurbines() == 0) {
+      return 0.0;
+    }
+    return powerCurve.getCapacity() * turbinesInService
+           / availability.getTurbines();
+  }
+
+  AvailabilityModel getAvailabilityModel ()
+  {
+    return availability;
+  }
+
+  double getOutageBinWidth ()
+  {
+    return outageBinWidth;
   }
 
   /**
@@ -148,11 +407,55 @@ public class WindfarmGenco extends Broker
     return this.windForecast;
   }
 
+  /**
+   * Lead hours covered by the forecast, error and power scenarios.
+   */
+  public int getScenarioHours ()
+  {
+    return scenarioHours;
+  }
+
   public String getLocation ()
   {
     return location;
   }
 
+  /**
+   * Name of the WindfarmPortfolio that offers the output of this farm, or
+   * an empty string if the farm submits its own orders.
+   */
+  public String getPortfolio ()
+  {
+    return portfolio;
+  }
+
+  /**
+   * Fills rows with scenario numbers drawn by probability from the genco's
+   * own random stream, as rows of calcPowerOutputScenarios(): the output
+   * the farm produces, or paths for Monte Carlo studies.
+   */
+  public void sampleOutputScenarios (int[] rows)
+  {
+    forecastScenarios.getSampler().sample(scenarioSampling, rows, 0,
+                                          rows.length);
+  }
+
+  /**
+   * Compiled power curve of the farm's turbine fleet.
+   */
+  FarmPowerCurve getPowerCurve ()
+  {
+    return powerCurve;
+  }
+
+  /**
+   * Nominal capacity of everything this genco offers, in MW.
+   */
+  double getMaxCapacity ()
+  {
+    return powerCurve.getCapacity();
+  }
+
   /**
    * Generates Orders in the market to sell available capacity. No Orders are
    * submitted if the plant is not in operation.
@@ -170,14 +473,9 @@ public class WindfarmGenco extends Broker
     // this is done only once when forecastScenarios is instantiated
     // this happens in the init() function above.
 
-    // 2. get wind speed forecast
-    windForecast.refreshWeatherForecast();
-
-    // 3. generate wind speed scenarios (wind forecast + forecast error)
-    forecastScenarios.calcWindSpeedForecastScenarios();
-
-    // 4. generate power output scenarios
-    forecastScenarios.calcPowerOutputScenarios();
+    // 2. - 4. wind speed forecast, wind speed and power output scenarios
+    PowerDistribution powerDistribution =
+      calcPowerDistribution(openSlots.get(0).getStartInstant());
     
     // 5. update imbalance prices for last closed timeslot
     //TODO: get these prices from the powertac server
@@ -187,8 +485,16 @@ public class WindfarmGenco extends Broker
     this.imbalancePriceModel.updatePrices(prevTimeSlot, totalNetImabalance, marketClearingPrice);
     
 
+    int entry = beginJournal(now, openSlots, powerDistribution);
+    if (supplyCurveSegments > 1) {
+      generateSupplyCurveOrders(openSlots, powerDistribution, entry);
+      commitJournal(entry);
+      return;
+    }
+
     // 6. run optimization to determine bid quantity for all timeslots
-    List<Double> askQuantities = calcAskQuantities(openSlots);
+    List<Double> askQuantities =
+      calcAskQuantities(openSlots, powerDistribution);
 
     // 6. generate orders - assume that we have 24 timeslots open
     for (int i = 0; i < openSlots.size(); i++) {
@@ -196,44 +502,271 @@ public class WindfarmGenco extends Broker
       double askQuantity = askQuantities.get(i);
       Order offer = new Order(this, slot, -askQuantity, askPrice);
       brokerProxyService.routeMessage(offer);
+      journalOffer(entry, i, askQuantity, askPrice);
     }
+    commitJournal(entry);
 
   } // generateOrders()
 
-  private List<Double> calcAskQuantities (List<Timeslot> openSlots)
+  // Claims a journal record for this activation and fills in the inputs of
+  // each slot: forecast, output distribution and the mean of the price
+  // scenarios the offer calculator gets; -1 if there is no journal or the
+  // record is dropped
+  private int beginJournal (Instant now, List<Timeslot> openSlots,
+                            PowerDistribution wpDistribution)
   {
-    // instantiate a calculator
-    double maxCap = this.windTurbine.getNominalCapacity() * this.numberOfTurbines;
-    List<Scenario> wpScenarios =
-      forecastScenarios.getWindPowerOutputScenarios();
+    if (journal == null) {
+      return -1;
+    }
+    int entry = journal.begin(now.getMillis(),
+                              openSlots.get(0).getSerialNumber());
+    if (entry < 0) {
+      return entry;
+    }
+    List<Double> windSpeeds = windForecast.getWindSpeeds();
+    PowerDistribution sorted = wpDistribution.sorted();
+    for (int i = 0; i < openSlots.size(); i++) {
+      double speed = (i < windSpeeds.size()) ? windSpeeds.get(i) : Double.NaN;
+      double expected = (i < wpDistribution.getHours())
+          ? wpDistribution.getExpectedValue(i) : Double.NaN;
+      journal.set(entry, i, DecisionJournal.WIND_SPEED, speed);
+      journal.set(entry, i, DecisionJournal.EXPECTED_OUTPUT, expected);
+      journal.set(entry, i, DecisionJournal.CLEARED,
+                  -getClearedQuantity(openSlots.get(i)));
+      if (i < sorted.getHours()) {
+        journal.set(entry, i, DecisionJournal.OUTPUT_P10,
+                    sorted.getQuantile(i, 0.1));
+        journal.set(entry, i, DecisionJournal.OUTPUT_P50,
+                    sorted.getQuantile(i, 0.5));
+        journal.set(entry, i, DecisionJournal.OUTPUT_P90,
+                    sorted.getQuantile(i, 0.9));
+      }
+      int priceCount =
+        imbalancePriceModel.getPriceScenarios(openSlots.get(i), journalMcp,
+                                              journalSurplus,
+                                              journalShortfall);
+      double mcp = 0;
+      double surplus = 0;
+      double shortfall = 0;
+      for (int j = 0; j < priceCount; j++) {
+        mcp += journalMcp[j] / priceCount;
+        surplus += journalSurplus[j] / priceCount;
+        shortfall += journalShortfall[j] / priceCount;
+      }
+      journal.set(entry, i, DecisionJournal.CLEARING_PRICE, mcp);
+      journal.set(entry, i, DecisionJournal.SURPLUS_PRICE, surplus);
+      journal.set(entry, i, DecisionJournal.SHORTFALL_PRICE, shortfall);
+    }
+    return entry;
+  }
+
+  private void journalOffer (int entry, int slot, double quantity,
+                             double price)
+  {
+    if (entry >= 0) {
+      journal.set(entry, slot, DecisionJournal.OFFERED, quantity);
+      journal.set(entry, slot, DecisionJournal.PRICE, price);
+    }
+  }
+
+  private void commitJournal (int entry)
+  {
+    if (entry >= 0) {
+      journal.commit(entry);
+    }
+  }
+
+  /**
+   * Submits one Order per segment of the supply curve of each open slot.
+   * Each Order offers the increase in quantity over the previous price
+   * level; quantity already sold in the slot is taken off the lowest levels.
+   */
+  private void generateSupplyCurveOrders (List<Timeslot> openSlots,
+                                          PowerDistribution wpDistribution,
+                                          int journalEntry)
+  {
+    WindFarmOfferCalculator offerCalc = createOfferCalculator(wpDistribution);
+    List<SupplyCurve> curves =
+      offerCalc.getSupplyCurves(openSlots, askPrice, supplyCurveSegments);
+    for (int i = 0; i < openSlots.size(); i++) {
+      Timeslot slot = openSlots.get(i);
+      SupplyCurve curve = curves.get(i);
+      double cleared = getClearedQuantity(slot); //-ve for asks
+      double offered = 0;
+      double topPrice = Double.NaN;
+      for (int segment = 0; segment < curve.getSegmentCount(); segment++) {
+        double wanted = Math.max(0, curve.getQuantity(segment) + cleared);
+        double quantity = wanted - offered;
+        if (quantity > WindFarmGencoPriceModel.ZERO_TOLERANCE) {
+          Order offer =
+            new Order(this, slot, -quantity, curve.getPrice(segment));
+          brokerProxyService.routeMessage(offer);
+          offered = wanted;
+          topPrice = curve.getPrice(segment);
+        }
+      }
+      // the journal keeps the total offered and the highest price level
+      journalOffer(journalEntry, i, offered, topPrice);
+    }
+  }
+
+  /**
+   * Refreshes the wind forecast and computes the power output scenarios of
+   * this farm. The returned matrix is reused by the next call.
+   */
+  ScenarioMatrix calcPowerOutputScenarios ()
+  {
+    refreshScenarios();
+    return forecastScenarios.getPowerOutputMatrix();
+  }
+
+  /**
+   * Error scenarios the scenarios of this farm are computed from; farms with
+   * the same ones share the error draw row by row.
+   */
+  WindForecastErrorScenarios getErrorScenarios ()
+  {
+    return errorScenarios;
+  }
+
+  private void refreshScenarios ()
+  {
+    refreshForecast();
+
+    // 3. generate wind speed scenarios (wind forecast + forecast error)
+    forecastScenarios.calcWindSpeedForecastScenarios();
+
+    // 4. generate power output scenarios
+    forecastScenarios.calcPowerOutputScenarios();
+  }
+
+  private void refreshForecast ()
+  {
+    // 1. error scenarios, rebuilt if the library has swapped in new ones
+    if (scenarioLibrary.getScenarios(location, scenarioHours) != errorScenarios) {
+      log.info(getUsername() + " uses error scenarios version "
+               + scenarioLibrary.getVersion());
+      createForecastScenarios();
+    }
+
+    // 2. get wind speed forecast
+    windForecast.refreshWeatherForecast();
+  }
+
+  /**
+   * Distribution of the output offered by this genco for each lead hour,
+   * including turbine outages. Lead hour 1 starts at firstHour. With
+   * forecast conditioning only the errors possible at the forecast are
+   * evaluated, and the scenario matrices are not computed.
+   */
+  protected PowerDistribution calcPowerDistribution (Instant firstHour)
+  {
+    PowerDistribution allRunning;
+    if (conditioningBinWidth > 0.0) {
+      refreshForecast();
+      allRunning = forecastScenarios.calcConditionedDistribution();
+    }
+    else {
+      refreshScenarios();
+      allRunning = forecastScenarios.getPowerDistribution();
+    }
+    return availability.apply(allRunning, firstHour, outageBinWidth);
+  }
+
+  private WindFarmOfferCalculator createOfferCalculator (PowerDistribution wpDistribution)
+  {
+    double maxCap = getMaxCapacity();
     WindFarmOfferCalculator offerCalc =
-      new WindFarmOfferCalculator(maxCap, wpScenarios, this.imbalancePriceModel);
+      new WindFarmOfferCalculator(maxCap, wpDistribution, this.imbalancePriceModel);
+    if (samplePricePairs) {
+      offerCalc.setPricePairing(pricePairing);
+    }
+    offerCalc.setRiskLimit(cvarLimit, cvarAlpha);
+    offerCalc.setCouplingLimits(rampLimit, dailyDeliveryCap);
+    OfferOptimizer optimizer = createOfferOptimizer();
+    if (optimizer != null) {
+      double tolerance = quantityTolerance;
+      if (tolerance <= 0) {
+        tolerance = 0.1 * maxCap;
+      }
+      offerCalc.setOfferOptimizer(optimizer, tolerance);
+    }
+    return offerCalc;
+  }
+
+  // Optimizer for the offerOptimizer setting; null for the calculator's own
+  // bid grid, unless a finer grid tolerance is configured
+  private OfferOptimizer createOfferOptimizer ()
+  {
+    if ("golden".equals(offerOptimizer)) {
+      return new GoldenSectionOptimizer();
+    }
+    if ("brent".equals(offerOptimizer)) {
+      return new BrentOptimizer();
+    }
+    if (!"grid".equals(offerOptimizer)) {
+      log.error(getUsername() + ": unknown offerOptimizer " + offerOptimizer
+                + ", using grid");
+    }
+    if (quantityTolerance > 0) {
+      return new GridOfferOptimizer();
+    }
+    return null;
+  }
+
+  private List<Double> calcAskQuantities (List<Timeslot> openSlots,
+                                          PowerDistribution wpDistribution)
+  {
+    // instantiate a calculator
+    WindFarmOfferCalculator offerCalc = createOfferCalculator(wpDistribution);
     List<Double> optimalOffers = offerCalc.getOptimalOfferCapacities(openSlots);
     List<Double> askQuantities = new ArrayList<Double>();
     for (int i = 0; i < openSlots.size(); i++) 
     {
       Timeslot slot = openSlots.get(i);
       double desiredOffer = optimalOffers.get(i);
-      MarketPosition posn = findMarketPositionByTimeslot(slot);
-      double clearedCapacity =  0 ;
-      if (posn != null)
-      {
-        clearedCapacity = posn.getOverallBalance(); //-ve for asks
-      }
-      desiredOffer += clearedCapacity;
+      desiredOffer += getClearedQuantity(slot); //-ve for asks
       askQuantities.add(desiredOffer);
     }
     return askQuantities;
   }
 
+  /**
+   * Keeps the position cache in step with the Broker's own map.
+   */
+  @Override
+  public void addMarketPosition (MarketPosition posn, Timeslot slot)
+  {
+    super.addMarketPosition(posn, slot);
+    int index = slot.getSerialNumber() % POSITION_CACHE_SIZE;
+    positionCache[index] = posn;
+    positionCacheSerial[index] = slot.getSerialNumber();
+  }
+
+  /**
+   * Quantity already cleared in the given timeslot, negative for asks.
+   * This is a plain array read; an empty or stale cache entry means that
+   * no position has been recorded for the timeslot.
+   */
+  double getClearedQuantity (Timeslot slot)
+  {
+    int index = slot.getSerialNumber() % POSITION_CACHE_SIZE;
+    MarketPosition posn = positionCache[index];
+    if (posn == null || positionCacheSerial[index] != slot.getSerialNumber()) {
+      return 0.0;
+    }
+    return posn.getOverallBalance();
+  }
+
   @StateChange
-  private void setInOperation (boolean op)
+  void setInOperation (boolean op)
   {
     inOperation = op;
   }
 
   /**
-   * Estimate power output from given wind speed and air density
+   * Estimate power output of the farm from given wind speed and air density,
+   * using the compiled power curve of the whole turbine fleet
    * 
    * @param windSpeed
    *          wind speed in m/sec
@@ -243,8 +776,7 @@ public class WindfarmGenco extends Broker
    */
   public double getEstimatedPowerOutput (double windSpeed, double airDensity)
   {
-    return this.windTurbine.getEstimatedPowerOutput(windSpeed, airDensity) *
-            this.numberOfTurbines;
+    return powerCurve.getPowerOutput(windSpeed, airDensity);
   }
 
 
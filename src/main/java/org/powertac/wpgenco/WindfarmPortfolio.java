@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.joda.time.DateTimeConstants;
+import org.joda.time.Instant;
+import org.powertac.common.config.ConfigurableInstance;
+import org.powertac.common.config.ConfigurableValue;
+import org.powertac.common.state.Domain;
+
+/**
+ * A genco that offers the combined output of several wind farms. Each farm
+ * is configured as a WindfarmGenco naming this portfolio; it computes its own
+ * power output scenarios, but only the portfolio trades. The farm outputs
+ * are combined into one distribution per lead hour, and the offer is
+ * optimized once for the whole portfolio.
+ *
+ * The farms either share the forecast error draw (errorDependence "shared"),
+ * in which case row s of every farm's scenarios belongs to the same error
+ * scenario and the rows are summed, or their errors are independent
+ * ("independent"), in which case the farm distributions are convolved.
+ *
+ * The portfolio has no turbines of its own: it is in operation while any
+ * of its farms is, and its capacity is that of its farms.
+ *
+ * Each farm still computes its own scenarios, so that part of an activation
+ * is linear in the number of farms. Combining them is linear in the farms
+ * for row sums; the convolution is on one grid of at most gridPoints points
+ * per hour, so its cost is O((gridPoints + farms)^2) per hour and does not
+ * grow with the number of farms while they are few against gridPoints.
+ *
+ * @author Shashank Pande
+ */
+@Domain
+@ConfigurableInstance
+public class WindfarmPortfolio extends WindfarmGenco
+{
+  static private Logger log = Logger.getLogger(WindfarmPortfolio.class.getName());
+
+  public static final String SHARED_ERRORS = "shared";
+  public static final String INDEPENDENT_ERRORS = "independent";
+
+  @ConfigurableValue(valueType = "String", description = "shared or independent forecast errors across the farms")
+  private String errorDependence = SHARED_ERRORS;
+
+  @ConfigurableValue(valueType = "Double", description = "grid step in MW used to convolve independent farm outputs")
+  private double binWidth = 1.0;
+
+  @ConfigurableValue(valueType = "Integer", description = "largest number of grid points per hour for the convolution; the step is widened to fit")
+  private int gridPoints = 1024;
+
+  private final List<WindfarmGenco> farms = new ArrayList<WindfarmGenco>();
+
+  // sum of the farm scenarios, reused across activations
+  private ScenarioMatrix portfolioOutput = null;
+
+  public WindfarmPortfolio (String username)
+  {
+    super(username);
+  }
+
+  /**
+   * Adds a farm whose output is offered by this portfolio.
+   */
+  public void addFarm (WindfarmGenco farm)
+  {
+    log.info("portfolio " + getUsername() + " adds farm " + farm.getUsername());
+    farms.add(farm);
+  }
+
+  public List<WindfarmGenco> getFarms ()
+  {
+    return Collections.unmodifiableList(farms);
+  }
+
+  public String getErrorDependence ()
+  {
+    return errorDependence;
+  }
+
+  /**
+   * No own fleet or forecast scenarios; the farms set up theirs.
+   */
+  @Override
+  void initOutputModel ()
+  {
+  }
+
+  /**
+   * Updates each of the farms; the portfolio operates while any farm has
+   * turbines in service.
+   */
+  @Override
+  public void updateModel (Instant currentTime)
+  {
+    log.info("Update " + getUsername());
+    boolean operating = false;
+    for (WindfarmGenco farm : farms) {
+      farm.updateModel(currentTime);
+      operating |= farm.isInOperation();
+    }
+    if (operating != isInOperation()) {
+      setInOperation(operating);
+    }
+  }
+
+  /**
+   * Sum of the current capacities of the farms.
+   */
+  @Override
+  double getCurrentCapacity ()
+  {
+    double result = 0;
+    for (WindfarmGenco farm : farms) {
+      result += farm.getCurrentCapacity();
+    }
+    return result;
+  }
+
+  /**
+   * Closes the journals of the farms as well.
+   */
+  @Override
+  public void closeJournal ()
+  {
+    super.closeJournal();
+    for (WindfarmGenco farm : farms) {
+      farm.closeJournal();
+    }
+  }
+
+  /**
+   * Sum of the nominal capacities of the farms.
+   */
+  @Override
+  double getMaxCapacity ()
+  {
+    double result = 0;
+    for (WindfarmGenco farm : farms) {
+      result += farm.getMaxCapacity();
+    }
+    return result;
+  }
+
+  /**
+   * Combined output distribution of the farms.
+   */
+  @Override
+  protected PowerDistribution calcPowerDistribution (Instant firstHour)
+  {
+    if (farms.isEmpty()) {
+      log.warn("portfolio " + getUsername() + " has no farms");
+      return new PowerDistribution(new double[0][], new double[0][]);
+    }
+    if (INDEPENDENT_ERRORS.equals(errorDependence)) {
+      return convolveFarms(firstHour);
+    }
+    if (!SHARED_ERRORS.equals(errorDependence)) {
+      log.error("unknown errorDependence " + errorDependence
+                + ", using " + SHARED_ERRORS);
+    }
+    return sumFarms(firstHour);
+  }
+
+  // Row sums of the farm scenarios under a shared error draw. Falls back to
+  // convolution if the farms do not use the same error scenarios, since
+  // rows of different scenario sets do not belong together even if the
+  // matrices have the same shape.
+  // Outages are independent across farms but cannot be split out of a row
+  // sum, so they are applied to the sum as one pooled fleet, with the
+  // turbine-weighted mean forced outage rate.
+  private PowerDistribution sumFarms (Instant firstHour)
+  {
+    ScenarioMatrix first = farms.get(0).calcPowerOutputScenarios();
+    WindForecastErrorScenarios errors = farms.get(0).getErrorScenarios();
+    if (portfolioOutput == null || !portfolioOutput.hasSameShape(first)) {
+      portfolioOutput = first.copy();
+    }
+    else {
+      System.arraycopy(first.getValues(), 0, portfolioOutput.getValues(), 0,
+                       first.getValues().length);
+    }
+    for (int i = 1; i < farms.size(); i++) {
+      ScenarioMatrix farmOutput = farms.get(i).calcPowerOutputScenarios();
+      if (farms.get(i).getErrorScenarios() != errors
+          || !portfolioOutput.hasSameShape(farmOutput)) {
+        log.error("farm " + farms.get(i).getUsername()
+                  + " does not share the error scenarios, convolving instead");
+        return convolveFarms(firstHour);
+      }
+      portfolioOutput.add(farmOutput);
+    }
+    PowerDistribution allRunning = PowerDistribution.fromMatrix(portfolioOutput);
+    int[] inService = new int[allRunning.getHours()];
+    int turbines = 0;
+    double outages = 0;
+    for (WindfarmGenco farm : farms) {
+      AvailabilityModel farmAvailability = farm.getAvailabilityModel();
+      turbines += farmAvailability.getTurbines();
+      outages += farmAvailability.getTurbines()
+                 * farmAvailability.getForcedOutageRate();
+      for (int h = 0; h < inService.length; h++) {
+        inService[h] +=
+          farmAvailability.getTurbinesInService(firstHour.plus((long) h * DateTimeConstants.MILLIS_PER_HOUR));
+      }
+    }
+    double forcedOutageRate = (turbines == 0) ? 0.0 : outages / turbines;
+    return AvailabilityModel.apply(allRunning, turbines, inService,
+                                   forcedOutageRate, getOutageBinWidth());
+  }
+
+  // Convolution of the farm distributions, for independent errors, on one
+  // bounded grid; each farm's outages are applied before it is added in
+  private PowerDistribution convolveFarms (Instant firstHour)
+  {
+    List<PowerDistribution> parts = new ArrayList<PowerDistribution>();
+    for (WindfarmGenco farm : farms) {
+      parts.add(farm.calcPowerDistribution(firstHour));
+    }
+    return PowerDistribution.convolveAll(parts, binWidth, gridPoints);
+  }
+
+} // class WindfarmPortfolio
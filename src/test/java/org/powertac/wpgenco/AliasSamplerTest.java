@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for AliasSampler
+ * @author Shashank Pande
+ */
+public class AliasSamplerTest
+{
+  @Test
+  public void testFrequencies ()
+  {
+    double[] probabilities = {0.5, 0.0, 0.125, 0.25, 0.125};
+    AliasSampler sampler = new AliasSampler(probabilities);
+    assertEquals("five indexes", 5, sampler.size());
+    int draws = 200000;
+    int[] out = new int[draws];
+    sampler.sample(new Random(17), out, 0, draws);
+    int[] counts = new int[probabilities.length];
+    for (int index : out) {
+      counts[index]++;
+    }
+    assertEquals("zero probability never drawn", 0, counts[1]);
+    for (int i = 0; i < probabilities.length; i++) {
+      assertEquals("frequency of " + i, probabilities[i],
+                   (double) counts[i] / draws, 0.005);
+    }
+  }
+
+  @Test
+  public void testUnnormalized ()
+  {
+    AliasSampler sampler = new AliasSampler(new double[] {3.0, 1.0});
+    Random random = new Random(5);
+    int zeros = 0;
+    for (int i = 0; i < 100000; i++) {
+      if (sampler.sample(random) == 0) {
+        zeros++;
+      }
+    }
+    assertEquals("weights scaled to probabilities", 0.75, zeros / 100000.0,
+                 0.01);
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.TreeMap;
+
+import org.apache.commons.configuration.MapConfiguration;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Instant;
+import org.junit.Test;
+import org.powertac.common.config.Configurator;
+
+/**
+ * Tests for AvailabilityModel
+ * @author Shashank Pande
+ */
+public class AvailabilityModelTest
+{
+  private static Instant at (int day, int hour)
+  {
+    return new DateTime(2011, 1, day, hour, 0, 0, 0, DateTimeZone.UTC).toInstant();
+  }
+
+  @Test
+  public void testBinomial ()
+  {
+    int n = 30;
+    double p = 0.9;
+    double[] pmf = AvailabilityModel.binomial(n, p);
+    double sum = 0.0;
+    double mean = 0.0;
+    double variance = 0.0;
+    for (int k = 0; k <= n; k++) {
+      sum += pmf[k];
+      mean += k * pmf[k];
+    }
+    for (int k = 0; k <= n; k++) {
+      variance += (k - mean) * (k - mean) * pmf[k];
+    }
+    assertEquals("total", 1.0, sum, 1e-12);
+    assertEquals("mean", n * p, mean, 1e-6);
+    assertEquals("variance", n * p * (1 - p), variance, 1e-6);
+    // no underflow for a large farm
+    double[] large = AvailabilityModel.binomial(5000, 0.97);
+    sum = 0.0;
+    for (double term : large) {
+      sum += term;
+    }
+    assertEquals("large total", 1.0, sum, 1e-12);
+  }
+
+  @Test
+  public void testForcedOutageFolding ()
+  {
+    PowerDistribution allRunning =
+      new PowerDistribution(new double[][] { { 0.0, 20.0, 60.0 } },
+                            new double[][] { { 0.2, 0.5, 0.3 } });
+    int total = 40;
+    double rate = 0.05;
+    // 10 of 40 on maintenance
+    PowerDistribution result =
+      AvailabilityModel.apply(allRunning, total, new int[] { 30 }, rate, 0.5);
+    double running = 30.0 * (1.0 - rate) / total;
+    double expectedMean = allRunning.getExpectedValue(0) * running;
+    assertEquals("mean", expectedMean, result.getExpectedValue(0), 1e-9);
+    double sum = 0.0;
+    double secondMoment = 0.0;
+    for (int i = 0; i < result.size(0); i++) {
+      double v = result.getValues(0)[i];
+      double q = result.getProbabilities(0)[i];
+      assertEquals("on the grid", 0.0, v % 0.5, 1e-12);
+      assertTrue("at most the turbines in service", v <= 60.0 * 30 / total + 0.5);
+      sum += q;
+      secondMoment += v * v * q;
+    }
+    assertEquals("total probability", 1.0, sum, 1e-9);
+    // output v with k of n running is v * k / total; the grid adds at most
+    // a quarter of a bin squared to the variance
+    double n = 30.0;
+    double meanK = n * (1.0 - rate);
+    double varK = n * rate * (1.0 - rate);
+    double v2 = 0.5 * 400.0 + 0.3 * 3600.0;
+    double expectedSecond = v2 * (varK + meanK * meanK) / (total * total);
+    assertEquals("second moment", expectedSecond, secondMoment, 0.25 * 0.25);
+  }
+
+  @Test
+  public void testNoForcedOutages ()
+  {
+    PowerDistribution allRunning =
+      new PowerDistribution(new double[][] { { 10.0, 50.0 }, { 30.0 } },
+                            new double[][] { { 0.4, 0.6 }, { 1.0 } });
+    PowerDistribution result =
+      AvailabilityModel.apply(allRunning, 10, new int[] { 5, 0 }, 0.0, 0.5);
+    assertArrayEquals("scaled", new double[] { 5.0, 25.0 },
+                      result.getValues(0), 1e-12);
+    assertArrayEquals("probabilities kept", new double[] { 0.4, 0.6 },
+                      result.getProbabilities(0), 0.0);
+    assertArrayEquals("none in service", new double[] { 0.0 },
+                      result.getValues(1), 0.0);
+  }
+
+  @Test
+  public void testMaintenanceSchedule ()
+  {
+    AvailabilityModel model =
+      new AvailabilityModel(20, 0.0,
+                            Arrays.asList("5@2011-01-03T08:00Z/2011-01-03T16:00Z",
+                                          "3@2011-01-03T12:00Z/2011-01-04T00:00Z",
+                                          "bad entry",
+                                          "x@2011-01-03T08:00Z/2011-01-03T16:00Z",
+                                          "30@2011-01-05T00:00Z/2011-01-06T00:00Z"));
+    assertEquals("before", 20, model.getTurbinesInService(at(3, 7)));
+    assertEquals("start included", 15, model.getTurbinesInService(at(3, 8)));
+    assertEquals("overlap", 12, model.getTurbinesInService(at(3, 12)));
+    assertEquals("end excluded", 17, model.getTurbinesInService(at(3, 16)));
+    assertEquals("after", 20, model.getTurbinesInService(at(4, 0)));
+    assertEquals("not below 0", 0, model.getTurbinesInService(at(5, 6)));
+    // hour h of the distribution starts h hours after the first hour
+    PowerDistribution allRunning =
+      new PowerDistribution(new double[][] { { 40.0 }, { 40.0 }, { 40.0 } },
+                            new double[][] { { 1.0 }, { 1.0 }, { 1.0 } });
+    PowerDistribution result = model.apply(allRunning, at(3, 7), 0.5);
+    assertEquals("hour 0", 40.0, result.getValues(0)[0], 1e-12);
+    assertEquals("hour 1", 30.0, result.getValues(1)[0], 1e-12);
+    assertEquals("hour 2", 30.0, result.getValues(2)[0], 1e-12);
+  }
+
+  @Test
+  public void testNoTurbinesCapacity ()
+  {
+    TurbineModelRegistry.setDefaultEfficiencyCurve(
+        new WindTurbineEfficiencyCurve(Arrays.asList("4-9", "9-14"),
+                                       Arrays.asList("0.02", "-0.02"),
+                                       Arrays.asList("0.2", "0.38")));
+    WindfarmGenco genco = new WindfarmGenco("empty");
+    TreeMap<String, String> map = new TreeMap<String, String>();
+    map.put("wpgenco.windfarmGenco.numberOfTurbines", "0");
+    Configurator config = new Configurator();
+    config.setConfiguration(new MapConfiguration(map));
+    config.configureSingleton(genco);
+    genco.configureFleet(null);
+    assertEquals("no turbines", 0, genco.getAvailabilityModel().getTurbines());
+    assertEquals("capacity", 0.0, genco.getCurrentCapacity(), 0.0);
+    genco.updateModel(at(3, 0));
+    assertEquals("capacity after update", 0.0, genco.getCurrentCapacity(), 0.0);
+    assertFalse("not operating", genco.isInOperation());
+  }
+
+} // class AvailabilityModelTest
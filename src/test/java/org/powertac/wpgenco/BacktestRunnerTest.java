@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for BacktestRunner on synthetic days
+ * @author Shashank Pande
+ */
+public class BacktestRunnerTest
+{
+  private static final int HOURS = BacktestRunner.HOURS;
+  private static final double TEMPERATURE = 10.0;
+
+  private ScenarioMatrix errors;
+  private FarmPowerCurve powerCurve;
+  private Instant first;
+
+  @Before
+  public void setUp ()
+  {
+    // no forecast error, so the offers follow the forecast
+    errors = new ScenarioMatrix(1, HOURS);
+    errors.setProbability(0, 1.0);
+    WindTurbine turbine = new WindTurbine("test");
+    turbine.setEfficiencyCurve(Arrays.asList("4-9", "9-14"),
+                               Arrays.asList("0.02", "-0.02"),
+                               Arrays.asList("0.2", "0.38"));
+    powerCurve = FarmPowerCurve.compile(Arrays.asList(turbine),
+                                        Arrays.asList(10));
+    first = new DateTime(2011, 1, 3, 0, 0, 0, 0, DateTimeZone.UTC).toInstant();
+  }
+
+  // A day with the same wind, price and system imbalance in every hour
+  private BacktestRunner.Day constantDay (double forecast, double wind,
+                                          double price, double imbalance)
+  {
+    BacktestRunner.Day day = new BacktestRunner.Day(first);
+    Arrays.fill(day.forecastWindSpeed, forecast);
+    Arrays.fill(day.temperature, TEMPERATURE);
+    Arrays.fill(day.windSpeed, wind);
+    Arrays.fill(day.clearingPrice, price);
+    Arrays.fill(day.systemImbalance, imbalance);
+    return day;
+  }
+
+  @Test
+  public void testSurplusSettlement ()
+  {
+    // nothing clears below the ask price; with down regulation the whole
+    // output is surplus paid at half the clearing price
+    BacktestRunner runner = new BacktestRunner(errors, powerCurve, 100.0, 1);
+    BacktestRunner.Result result =
+      runner.simulate(Arrays.asList(constantDay(8.0, 8.0, 40.0, -100.0)), 0);
+    double output =
+      powerCurve.getPowerOutput(8.0,
+                                WindfarmGenco.getDryAirDensity(WindForecast.defaultAirPressure,
+                                                               TEMPERATURE));
+    assertTrue("some output", output > 0.0);
+    assertEquals("days", 1, result.getDays());
+    assertEquals("nothing cleared", 0.0, result.getClearedVolume(), 0.0);
+    assertEquals("produced", HOURS * output, result.getProducedVolume(), 1e-9);
+    assertEquals("imbalance volume", HOURS * output,
+                 result.getImbalanceVolume(), 1e-9);
+    assertEquals("surplus earns", HOURS * 20.0 * output,
+                 result.getImbalanceSettlement(), 1e-6);
+    assertEquals("revenue", result.getImbalanceSettlement(),
+                 result.getRevenue(), 1e-9);
+  }
+
+  @Test
+  public void testShortfallSettlement ()
+  {
+    // the offers clear but the wind fails; with up regulation the
+    // shortfall pays twice the clearing price
+    BacktestRunner runner = new BacktestRunner(errors, powerCurve, 0.0, 1);
+    BacktestRunner.Result result =
+      runner.simulate(Arrays.asList(constantDay(8.0, 0.0, 40.0, 100.0)), 0);
+    double cleared = result.getClearedVolume();
+    assertTrue("offers cleared", cleared > 0.0);
+    assertEquals("nothing produced", 0.0, result.getProducedVolume(), 0.0);
+    assertEquals("imbalance volume", cleared, result.getImbalanceVolume(),
+                 1e-9);
+    assertEquals("shortfall pays", -80.0 * cleared,
+                 result.getImbalanceSettlement(), 1e-6);
+    assertEquals("revenue", 40.0 * cleared - 80.0 * cleared,
+                 result.getRevenue(), 1e-6);
+  }
+
+  @Test
+  public void testThreadCount () throws Exception
+  {
+    List<BacktestRunner.Day> days = BacktestRunner.syntheticDays(6, first, 7L);
+    BacktestRunner single = new BacktestRunner(errors, powerCurve, 1.0, 1);
+    single.setSeed(3L);
+    BacktestRunner parallel = new BacktestRunner(errors, powerCurve, 1.0, 3);
+    parallel.setSeed(3L);
+    BacktestRunner.Result expected = single.run(days);
+    BacktestRunner.Result actual = parallel.run(days);
+    assertEquals("days", 6, actual.getDays());
+    assertEquals("same revenue", Double.doubleToLongBits(expected.getRevenue()),
+                 Double.doubleToLongBits(actual.getRevenue()));
+    assertEquals("same cleared volume",
+                 Double.doubleToLongBits(expected.getClearedVolume()),
+                 Double.doubleToLongBits(actual.getClearedVolume()));
+    assertEquals("same imbalance volume",
+                 Double.doubleToLongBits(expected.getImbalanceVolume()),
+                 Double.doubleToLongBits(actual.getImbalanceVolume()));
+  }
+
+  @Test
+  public void testFailedDay () throws InterruptedException
+  {
+    // no power curve: every day fails
+    BacktestRunner runner = new BacktestRunner(errors, null, 1.0, 2);
+    try {
+      runner.run(BacktestRunner.syntheticDays(3, first, 7L));
+      fail("partial result returned");
+    }
+    catch (ExecutionException ee) {
+      assertNotNull("cause", ee.getCause());
+    }
+  }
+
+  @Test
+  public void testReadDays () throws IOException
+  {
+    StringBuilder csv = new StringBuilder();
+    csv.append("date,hour,forecastWindSpeed,temperature,windSpeed,"
+               + "clearingPrice,systemImbalance\n");
+    for (int h = 0; h < HOURS; h++) {
+      csv.append("2011-01-03, " + h + ", " + (5.0 + h) + ", 12.5, "
+                 + (6.0 + h) + ", " + (30.0 + h) + ", " + (h - 12) + "\n");
+    }
+    csv.append("\n");
+    // incomplete day, skipped
+    csv.append("2011-01-04,0,5,10,5,30,0\n");
+    csv.append("2011-01-04,1,5,10,5,30,0\n");
+    List<BacktestRunner.Day> days =
+      BacktestRunner.readDays(new StringReader(csv.toString()));
+    assertEquals("complete days", 1, days.size());
+    BacktestRunner.Day day = days.get(0);
+    assertEquals("start", first, day.getStart());
+    for (int h = 0; h < HOURS; h++) {
+      assertEquals("forecast " + h, 5.0 + h, day.forecastWindSpeed[h], 0.0);
+      assertEquals("temperature " + h, 12.5, day.temperature[h], 0.0);
+      assertEquals("wind " + h, 6.0 + h, day.windSpeed[h], 0.0);
+      assertEquals("price " + h, 30.0 + h, day.clearingPrice[h], 0.0);
+      assertEquals("imbalance " + h, h - 12.0, day.systemImbalance[h], 0.0);
+    }
+  }
+
+  @Test
+  public void testReadDaysErrors ()
+  {
+    String header = "date,hour,forecastWindSpeed,temperature,windSpeed,"
+                    + "clearingPrice,systemImbalance\n";
+    String[] bad = { "2011-01-03,0,5,10,5,30\n",
+                     "2011-01-03,0,5,10,five,30,0\n",
+                     "2011-01-03,24,5,10,5,30,0\n" };
+    for (String line : bad) {
+      try {
+        BacktestRunner.readDays(new StringReader(header + line));
+        fail("accepted " + line.trim());
+      }
+      catch (IOException ioe) {
+        assertTrue("line number in " + ioe.getMessage(),
+                   ioe.getMessage().startsWith("line 2"));
+      }
+    }
+  }
+
+} // class BacktestRunnerTest
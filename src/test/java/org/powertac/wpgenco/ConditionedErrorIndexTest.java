@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for ConditionedErrorIndex against a linear scan
+ * @author Shashank Pande
+ */
+public class ConditionedErrorIndexTest
+{
+  private static final int SCENARIOS = 300;
+  private static final int HOURS = 6;
+
+  private ScenarioMatrix errors;
+
+  @Before
+  public void setUp ()
+  {
+    Random random = new Random(17);
+    errors = new ScenarioMatrix(SCENARIOS, HOURS);
+    double total = 0.0;
+    for (int s = 0; s < SCENARIOS; s++) {
+      double p = 0.5 + random.nextDouble();
+      errors.setProbability(s, p);
+      total += p;
+      for (int h = 0; h < HOURS; h++) {
+        // errors on a 0.25 grid, so that there are ties and errors right
+        // at the bin edges
+        errors.setValue(s, h, 0.25 * (random.nextInt(49) - 24) * (1 + h * 0.2));
+      }
+    }
+    for (int s = 0; s < SCENARIOS; s++) {
+      errors.setProbability(s, errors.getProbability(s) / total);
+    }
+  }
+
+  // First index of the ascending errors at least -forecast, by scanning
+  private static int scanFirst (double[] sorted, double forecast)
+  {
+    int i = 0;
+    while (i < sorted.length && sorted[i] < -forecast) {
+      i++;
+    }
+    return i;
+  }
+
+  // Probability of the scenarios whose error is at least -forecast
+  private double scanMass (int hour, double forecast)
+  {
+    double result = 0.0;
+    for (int s = 0; s < SCENARIOS; s++) {
+      if (errors.getValue(s, hour) >= -forecast) {
+        result += errors.getProbability(s);
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void testMatchesScan ()
+  {
+    Random random = new Random(3);
+    for (double binWidth : new double[] { 0.5, 0.3, 2.0 }) {
+      ConditionedErrorIndex index =
+        ConditionedErrorIndex.fromMatrix(errors, binWidth);
+      assertEquals("hours", HOURS, index.getHours());
+      for (int h = 0; h < HOURS; h++) {
+        double[] sorted = index.getErrors(h);
+        double[] column = new double[SCENARIOS];
+        for (int s = 0; s < SCENARIOS; s++) {
+          column[s] = errors.getValue(s, h);
+        }
+        Arrays.sort(column);
+        assertArrayEquals("sorted errors at " + h, column, sorted, 0.0);
+        // bin edges, grid points, random speeds, negative and beyond all
+        // errors
+        double[] forecasts = new double[200];
+        for (int i = 0; i < 40; i++) {
+          forecasts[i] = i * binWidth;
+          forecasts[40 + i] = 0.25 * i;
+          forecasts[80 + i] = Math.nextAfter(0.25 * i, 0.0);
+        }
+        for (int i = 120; i < forecasts.length; i++) {
+          forecasts[i] = random.nextDouble() * 20.0 - 2.0;
+        }
+        for (double forecast : forecasts) {
+          String label = " at " + h + ", forecast " + forecast
+                         + ", bin width " + binWidth;
+          int first = index.firstPossible(h, forecast);
+          assertEquals("first" + label, scanFirst(sorted, forecast), first);
+          assertEquals("mass" + label, scanMass(h, forecast),
+                       index.getMass(h, first), 1e-12);
+        }
+      }
+    }
+  }
+
+} // class ConditionedErrorIndexTest
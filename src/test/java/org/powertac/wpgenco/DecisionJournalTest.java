@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for DecisionJournal
+ * @author Shashank Pande
+ */
+public class DecisionJournalTest
+{
+  private static final int MAX_SLOTS = 4;
+  // records that set the wind speed; later records reuse their ring
+  // entries without setting it
+  private static final int FIRST_PASS = 64;
+
+  private File journalFile;
+
+  @Before
+  public void setUp () throws IOException
+  {
+    journalFile = File.createTempFile("decision", ".journal");
+  }
+
+  @After
+  public void tearDown ()
+  {
+    journalFile.delete();
+  }
+
+  @Test
+  public void testRecordsWrittenOnClose () throws IOException
+  {
+    DecisionJournal journal = new DecisionJournal(journalFile, MAX_SLOTS);
+    // more activations than the ring holds; a claim dropped while the
+    // writer is behind is retried
+    int records = 200;
+    for (int r = 0; r < records; r++) {
+      int entry = journal.begin(1000L * r, r);
+      while (entry < 0) {
+        Thread.yield();
+        entry = journal.begin(1000L * r, r);
+      }
+      int slots = (r % 2 == 0) ? MAX_SLOTS : 1;
+      for (int i = 0; i < slots; i++) {
+        journal.set(entry, i, DecisionJournal.OFFERED, r + i);
+        journal.set(entry, i, DecisionJournal.SHORTFALL_PRICE, -2.0 * r);
+        journal.set(entry, i, DecisionJournal.OUTPUT_P90, 0.5 * i);
+        if (r < FIRST_PASS) {
+          journal.set(entry, i, DecisionJournal.WIND_SPEED, 7.0);
+        }
+      }
+      journal.commit(entry);
+    }
+    journal.close();
+
+    DataInputStream in = new DataInputStream(new FileInputStream(journalFile));
+    try {
+      for (int r = 0; r < records; r++) {
+        assertEquals("marker " + r, DecisionJournal.RECORD_MARKER, in.readInt());
+        int slots = in.readInt();
+        assertEquals("slots " + r, (r % 2 == 0) ? MAX_SLOTS : 1, slots);
+        assertEquals("time " + r, 1000L * r, in.readLong());
+        assertEquals("first serial " + r, r, in.readLong());
+        for (int i = 0; i < slots; i++) {
+          for (int f = 0; f < DecisionJournal.FIELDS; f++) {
+            double expected = 0.0;
+            if (f == DecisionJournal.OFFERED) {
+              expected = r + i;
+            }
+            else if (f == DecisionJournal.SHORTFALL_PRICE) {
+              expected = -2.0 * r;
+            }
+            else if (f == DecisionJournal.OUTPUT_P90) {
+              expected = 0.5 * i;
+            }
+            else if (f == DecisionJournal.WIND_SPEED && r < FIRST_PASS) {
+              expected = 7.0;
+            }
+            // fields left unset are 0, not those of an earlier record
+            assertEquals("field " + f + " of slot " + i + " in " + r,
+                         expected, in.readDouble(), 0.0);
+          }
+        }
+      }
+      assertEquals("truncated to the records", -1, in.read());
+    }
+    finally {
+      in.close();
+    }
+  }
+
+} // class DecisionJournalTest
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.TreeMap;
+
+import org.apache.commons.configuration.MapConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.config.Configurator;
+
+/**
+ * Tests for ErrorScenarioLibrary. The watcher is driven by calling its
+ * checks directly, with the modification times set by the test.
+ * @author Shashank Pande
+ */
+public class ErrorScenarioLibraryTest
+{
+  private static final int HOURS = 3;
+
+  private File scenarioFile;
+  private long modified;
+
+  @Before
+  public void setUp () throws IOException
+  {
+    scenarioFile = File.createTempFile("scenarios", ".xml");
+    modified = scenarioFile.lastModified() - 1000000L;
+    write(new double[] { 0.5, 0.5 }, HOURS, 1.0);
+  }
+
+  @After
+  public void tearDown ()
+  {
+    scenarioFile.delete();
+  }
+
+  // Writes scenarios with the given probabilities, errors offset plus the
+  // scenario number, as a later modification
+  private void write (double[] probabilities, int hours, double offset)
+    throws IOException
+  {
+    FileWriter out = new FileWriter(scenarioFile);
+    try {
+      out.write("<Scenarios>\n");
+      for (int s = 0; s < probabilities.length; s++) {
+        out.write("  <Scenario id=\"" + (s + 1) + "\" probability=\""
+                  + probabilities[s] + "\">\n");
+        for (int h = 1; h <= hours; h++) {
+          out.write("    <Value hour=\"" + h + "\" error=\""
+                    + (offset + s) + "\"/>\n");
+        }
+        out.write("  </Scenario>\n");
+      }
+      out.write("</Scenarios>\n");
+    }
+    finally {
+      out.close();
+    }
+    modified += 2000L;
+    scenarioFile.setLastModified(modified);
+  }
+
+  private static double firstError (WindForecastErrorScenarios scenarios)
+  {
+    return scenarios.getErrorMatrix().getValue(0, 0);
+  }
+
+  @Test
+  public void testReloadAfterHeldStill () throws IOException
+  {
+    ErrorScenarioLibrary library =
+      new ErrorScenarioLibrary(scenarioFile.getPath());
+    WindForecastErrorScenarios first = library.getScenarios();
+    assertEquals("first read", 1.0, firstError(first), 0.0);
+    library.checkFiles();
+    assertFalse("no change", library.swapPending());
+
+    write(new double[] { 0.5, 0.5 }, HOURS, 2.0);
+    library.checkFiles();
+    assertFalse("change not held still yet", library.swapPending());
+    // still being written
+    write(new double[] { 0.25, 0.75 }, HOURS, 3.0);
+    library.checkFiles();
+    assertFalse("changed again", library.swapPending());
+    library.checkFiles();
+    assertSame("pending until swapped", first, library.getScenarios());
+    assertEquals("no swap yet", 0, library.getVersion());
+
+    assertTrue("swapped", library.swapPending());
+    WindForecastErrorScenarios second = library.getScenarios();
+    assertEquals("last write read", 3.0, firstError(second), 0.0);
+    assertEquals("version", 1, library.getVersion());
+    assertFalse("nothing more pending", library.swapPending());
+    library.checkFiles();
+    assertFalse("not read again", library.swapPending());
+    assertSame("unchanged", second, library.getScenarios());
+  }
+
+  @Test
+  public void testInvalidRejected () throws IOException
+  {
+    ErrorScenarioLibrary library =
+      new ErrorScenarioLibrary(scenarioFile.getPath());
+    WindForecastErrorScenarios first = library.getScenarios();
+
+    write(new double[] { 0.5, 0.4 }, HOURS, 2.0);
+    library.checkFiles();
+    library.checkFiles();
+    assertFalse("probabilities rejected", library.swapPending());
+
+    write(new double[] { 0.5, 0.5 }, HOURS + 1, 2.0);
+    library.checkFiles();
+    library.checkFiles();
+    assertFalse("lead hours rejected", library.swapPending());
+
+    FileWriter out = new FileWriter(scenarioFile);
+    out.write("<Scenarios>\n  <Scenario id=\"1\"");
+    out.close();
+    modified += 2000L;
+    scenarioFile.setLastModified(modified);
+    library.checkFiles();
+    library.checkFiles();
+    assertFalse("malformed file rejected", library.swapPending());
+    assertSame("current kept", first, library.getScenarios());
+    assertEquals("version", 0, library.getVersion());
+
+    // a valid file after the invalid ones is taken
+    write(new double[] { 0.5, 0.5 }, HOURS, 4.0);
+    library.checkFiles();
+    library.checkFiles();
+    assertTrue("valid again", library.swapPending());
+    assertEquals("valid file read", 4.0, firstError(library.getScenarios()),
+                 0.0);
+  }
+
+  private static String synthetic (int hours, int seed)
+  {
+    return "synthetic:scenarios=4;hours=" + hours + ";seed=" + seed;
+  }
+
+  private static int hoursOf (WindForecastErrorScenarios scenarios)
+  {
+    return scenarios.getErrorMatrix().getHours();
+  }
+
+  @Test
+  public void testSites ()
+  {
+    ErrorScenarioLibrary library =
+      new ErrorScenarioLibrary(synthetic(24, 5));
+    TreeMap<String, String> map = new TreeMap<String, String>();
+    map.put("wpgenco.errorScenarioLibrary.scenarioFiles",
+            "north:24=" + synthetic(24, 2)
+            + ", north : 6 = " + synthetic(6, 1)
+            // range from the file
+            + ", south=" + synthetic(12, 3)
+            + ", south:48=" + synthetic(48, 4)
+            // no file, bad lead hours
+            + ", west, east:x=" + synthetic(6, 6));
+    Configurator config = new Configurator();
+    config.setConfiguration(new MapConfiguration(map));
+    config.configureSingleton(library);
+
+    WindForecastErrorScenarios north6 = library.getScenarios("north", 4);
+    assertEquals("shortest covering", 6, hoursOf(north6));
+    assertSame("exactly covering", north6, library.getScenarios("north", 6));
+    WindForecastErrorScenarios north24 = library.getScenarios("north", 7);
+    assertEquals("next range", 24, hoursOf(north24));
+    assertSame("longest if none covers", north24,
+               library.getScenarios("north", 30));
+
+    assertEquals("range read from the file", 12,
+                 hoursOf(library.getScenarios("south", 10)));
+    assertEquals("configured range", 48,
+                 hoursOf(library.getScenarios("south", 13)));
+    assertEquals("longest of the file ranges", 48,
+                 hoursOf(library.getScenarios("south", 100)));
+
+    WindForecastErrorScenarios defaults = library.getScenarios();
+    assertEquals("default file", 24, hoursOf(defaults));
+    assertSame("unknown location", defaults, library.getScenarios("up", 6));
+    assertSame("entry without a file", defaults,
+               library.getScenarios("west", 6));
+    assertSame("entry with bad lead hours", defaults,
+               library.getScenarios("east", 6));
+    assertTrue("own scenarios", defaults != north24);
+  }
+
+  @Test
+  public void testValidate ()
+  {
+    ScenarioMatrix matrix = new ScenarioMatrix(2, HOURS);
+    matrix.setProbability(0, 0.5);
+    matrix.setProbability(1, 0.5);
+    WindForecastErrorScenarios scenarios =
+      WindForecastErrorScenarios.fromMatrix(matrix);
+    assertNull("valid", ErrorScenarioLibrary.validate(scenarios, HOURS));
+    assertNull("any hours", ErrorScenarioLibrary.validate(scenarios, 0));
+    assertNotNull("other hours",
+                  ErrorScenarioLibrary.validate(scenarios, HOURS + 1));
+    matrix.setProbability(1, 0.5 + 2 * ErrorScenarioLibrary.PROBABILITY_TOLERANCE);
+    assertNotNull("sum beyond the tolerance",
+                  ErrorScenarioLibrary.validate(scenarios, HOURS));
+    matrix.setProbability(0, 1.5);
+    matrix.setProbability(1, -0.5);
+    assertNotNull("negative probability",
+                  ErrorScenarioLibrary.validate(scenarios, HOURS));
+    assertNotNull("no scenarios", ErrorScenarioLibrary.validate(null, HOURS));
+  }
+
+} // class ErrorScenarioLibraryTest
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for FarmPowerCurve
+ * @author Shashank Pande
+ */
+public class FarmPowerCurveTest
+{
+  @Test
+  public void testBlockKernel ()
+  {
+    WindTurbine turbine = new WindTurbine("test");
+    turbine.setEfficiencyCurve(Arrays.asList("4-5", "5-6", "6-7", "7-8", "8-14"),
+                               Arrays.asList("0.11", "0.05", "0.02", "0.01", "-0.05"),
+                               Arrays.asList("-0.2", "0.1", "0.26", "0.34", "1.0"));
+    FarmPowerCurve curve =
+      FarmPowerCurve.compile(Arrays.asList(turbine), Arrays.asList(20));
+    int hours = 24;
+    // more than one block, not a whole number of blocks
+    double[] speeds = new double[hours * 37];
+    Random random = new Random(5);
+    for (int i = 0; i < speeds.length; i++) {
+      speeds[i] = random.nextDouble() * 30.0 - 2.0;
+    }
+    // breakpoints themselves
+    speeds[3] = 4.0;
+    speeds[4] = 14.0;
+    double[] densities = new double[hours];
+    for (int h = 0; h < hours; h++) {
+      densities[h] = 1.15 + 0.005 * h;
+    }
+    double[] out = new double[speeds.length];
+    curve.getPowerOutputs(speeds, densities, hours, out);
+    for (int i = 0; i < speeds.length; i++) {
+      double expected = curve.getPowerOutput(speeds[i], densities[i % hours]);
+      assertEquals("same bits at " + i, Double.doubleToLongBits(expected),
+                   Double.doubleToLongBits(out[i]));
+    }
+  }
+}
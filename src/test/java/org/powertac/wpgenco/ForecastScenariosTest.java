@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for ForecastScenarios
+ * @author Shashank Pande
+ */
+public class ForecastScenariosTest
+{
+  private static final int HOURS = 24;
+
+  private FarmPowerCurve curve;
+  private WindForecast forecast;
+
+  @Before
+  public void setUp ()
+  {
+    WindTurbine turbine = new WindTurbine("test");
+    turbine.setEfficiencyCurve(Arrays.asList("4-5", "5-6", "6-7", "7-8", "8-14"),
+                               Arrays.asList("0.11", "0.05", "0.02", "0.01", "-0.05"),
+                               Arrays.asList("-0.2", "0.1", "0.26", "0.34", "1.0"));
+    curve = FarmPowerCurve.compile(Arrays.asList(turbine), Arrays.asList(20));
+    forecast = new WindForecast();
+  }
+
+  // Sets a forecast speed rising by 0.1 m/s an hour
+  private void setForecast (double speed)
+  {
+    setForecast(speed, 0.1);
+  }
+
+  // Sets a forecast speed rising by step m/s an hour, at 10 C
+  private void setForecast (double speed, double step)
+  {
+    List<Double> speeds = new ArrayList<Double>();
+    List<Double> pressures = new ArrayList<Double>();
+    List<Double> temperatures = new ArrayList<Double>();
+    for (int h = 0; h < HOURS; h++) {
+      speeds.add(speed + step * h);
+      pressures.add(101.325);
+      temperatures.add(10.0);
+    }
+    forecast.setForecast(speeds, pressures, temperatures);
+  }
+
+  // Probability of an output of at most q
+  private static double cdf (PowerDistribution dist, int hour, double q)
+  {
+    double result = 0.0;
+    double[] values = dist.getValues(hour);
+    double[] probs = dist.getProbabilities(hour);
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] <= q) {
+        result += probs[i];
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void testConditionedLowForecast ()
+  {
+    ScenarioMatrix errors =
+      SyntheticErrorScenarios.fromSpec("synthetic:scenarios=500;sigma=2.0;seed=7");
+    ForecastScenarios scenarios = new ForecastScenarios(errors, forecast, curve);
+    scenarios.setConditioning(0.5);
+    // low enough that many scenarios have a negative wind speed
+    setForecast(1.5);
+    scenarios.calcWindSpeedForecastScenarios();
+    scenarios.calcPowerOutputScenarios();
+    PowerDistribution full =
+      PowerDistribution.fromMatrix(scenarios.getPowerOutputMatrix());
+    PowerDistribution conditioned = scenarios.calcConditionedDistribution();
+    assertEquals("hours", full.getHours(), conditioned.getHours());
+    for (int h = 0; h < HOURS; h++) {
+      assertEquals("expected output at " + h, full.getExpectedValue(h),
+                   conditioned.getExpectedValue(h), 1e-9);
+      for (double q = 0.0; q <= curve.getCapacity(); q += 1.0) {
+        assertEquals("P(output <= " + q + ") at " + h, cdf(full, h, q),
+                     cdf(conditioned, h, q), 1e-9);
+      }
+    }
+  }
+
+  // Power output scenarios at the given parallel threshold, with or without
+  // the block kernel and intervals
+  private ScenarioMatrix powerOutputs (ScenarioMatrix errors, int threshold,
+                                       boolean blockKernel, int intervals)
+  {
+    ForecastScenarios scenarios =
+      new ForecastScenarios(errors, forecast, curve);
+    scenarios.setParallelThreshold(threshold);
+    scenarios.setBlockKernel(blockKernel);
+    scenarios.setIntervalsPerHour(intervals);
+    scenarios.calcWindSpeedForecastScenarios();
+    scenarios.calcPowerOutputScenarios();
+    return scenarios.getPowerOutputMatrix();
+  }
+
+  // Two scenarios with errors 0 and 0.5 m/s
+  private static ScenarioMatrix constantErrors ()
+  {
+    ScenarioMatrix errors = new ScenarioMatrix(2, HOURS);
+    for (int s = 0; s < 2; s++) {
+      errors.setProbability(s, 0.5);
+      for (int h = 0; h < HOURS; h++) {
+        errors.setValue(s, h, 0.5 * s);
+      }
+    }
+    return errors;
+  }
+
+  @Test
+  public void testIntervalsConstantForecast ()
+  {
+    int intervals = 4;
+    setForecast(7.0, 0.0);
+    ForecastScenarios scenarios =
+      new ForecastScenarios(constantErrors(), forecast, curve);
+    scenarios.setIntervalsPerHour(intervals);
+    assertEquals("intervals", intervals, scenarios.getIntervalsPerHour());
+    scenarios.calcWindSpeedForecastScenarios();
+    scenarios.calcPowerOutputScenarios();
+    ScenarioMatrix hourly = powerOutputs(constantErrors(), 0, false, 1);
+    ScenarioMatrix power = scenarios.getPowerOutputMatrix();
+    ScenarioMatrix fine = scenarios.getIntervalPowerOutputMatrix();
+    assertEquals("interval columns", HOURS * intervals, fine.getHours());
+    for (int s = 0; s < 2; s++) {
+      for (int h = 0; h < HOURS; h++) {
+        assertEquals("hourly output " + s + ", " + h, hourly.getValue(s, h),
+                     power.getValue(s, h), 1e-12);
+        for (int j = 0; j < intervals; j++) {
+          assertEquals("interval output " + s + ", " + h + ", " + j,
+                       hourly.getValue(s, h),
+                       fine.getValue(s, h * intervals + j), 1e-12);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testIntervalsLinearForecast ()
+  {
+    int intervals = 4;
+    double step = 0.3;
+    setForecast(5.0, step);
+    ForecastScenarios scenarios =
+      new ForecastScenarios(constantErrors(), forecast, curve);
+    scenarios.setIntervalsPerHour(intervals);
+    scenarios.calcWindSpeedForecastScenarios();
+    scenarios.calcPowerOutputScenarios();
+    ScenarioMatrix power = scenarios.getPowerOutputMatrix();
+    ScenarioMatrix fine = scenarios.getIntervalPowerOutputMatrix();
+    double density = WindfarmGenco.getDryAirDensity(101.325, 10.0);
+    for (int s = 0; s < 2; s++) {
+      for (int h = 0; h < HOURS; h++) {
+        double sum = 0.0;
+        for (int j = 0; j < intervals; j++) {
+          // hourly speeds hold at the middle of the hour; before the first
+          // and after the last middle the speed is held
+          double x = h + (j + 0.5) / intervals - 0.5;
+          x = Math.max(0.0, Math.min(HOURS - 1, x));
+          double speed = 5.0 + step * x + 0.5 * s;
+          double expected = curve.getPowerOutput(speed, density);
+          assertEquals("interval output " + s + ", " + h + ", " + j, expected,
+                       fine.getValue(s, h * intervals + j), 1e-9);
+          sum += expected;
+        }
+        assertEquals("hourly mean " + s + ", " + h, sum / intervals,
+                     power.getValue(s, h), 1e-9);
+      }
+    }
+    // the curve is not linear, so the mean differs from the output at the
+    // hourly speed somewhere
+    ScenarioMatrix hourly = powerOutputs(constantErrors(), 0, false, 1);
+    double largest = 0.0;
+    for (int h = 0; h < HOURS; h++) {
+      largest = Math.max(largest,
+                         Math.abs(hourly.getValue(0, h) - power.getValue(0, h)));
+    }
+    assertTrue("intervals change the hourly output", largest > 1e-6);
+  }
+
+  @Test
+  public void testParallelSameBits ()
+  {
+    // several blocks, not a whole number of them
+    ScenarioMatrix errors =
+      SyntheticErrorScenarios.fromSpec("synthetic:scenarios=1237;seed=5");
+    setForecast(6.0);
+    for (int intervals : new int[] { 1, 4 }) {
+      for (boolean blockKernel : new boolean[] { false, true }) {
+        ScenarioMatrix serial = powerOutputs(errors, 0, blockKernel, intervals);
+        ScenarioMatrix parallel =
+          powerOutputs(errors, 1, blockKernel, intervals);
+        double[] expected = serial.getValues();
+        double[] actual = parallel.getValues();
+        assertEquals("cells", expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+          assertEquals("same bits at " + i + ", block kernel " + blockKernel
+                       + ", intervals " + intervals,
+                       Double.doubleToLongBits(expected[i]),
+                       Double.doubleToLongBits(actual[i]));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testCompactStorage ()
+  {
+    ScenarioMatrix errors =
+      SyntheticErrorScenarios.fromSpec("synthetic:scenarios=200;seed=4");
+    long cells = 200L * HOURS;
+    setForecast(7.0);
+    ForecastScenarios exact = new ForecastScenarios(errors, forecast, curve);
+    exact.calcWindSpeedForecastScenarios();
+    exact.calcPowerOutputScenarios();
+    // wind speeds, power and one snapshot; the errors are shared
+    assertEquals("double bytes", 3 * cells * 8, exact.getStorageBytes());
+    ForecastScenarios compact = new ForecastScenarios(errors, forecast, curve);
+    compact.setStoragePrecision(CompactScenarioMatrix.FIXED16);
+    assertEquals("precision", CompactScenarioMatrix.FIXED16,
+                 compact.getStoragePrecision());
+    assertEquals("fixed16 bytes", 2 * cells * 2, compact.getStorageBytes());
+    compact.calcWindSpeedForecastScenarios();
+    compact.calcPowerOutputScenarios();
+    // the snapshot is copied at fixed16 without decoding
+    assertEquals("fixed16 bytes with a snapshot", 3 * cells * 2,
+                 compact.getStorageBytes());
+    ScenarioSnapshot snapshot = compact.acquireSnapshot();
+    assertEquals("snapshot precision", CompactScenarioMatrix.FIXED16,
+                 snapshot.getPrecision());
+    PowerDistribution expected = exact.getPowerDistribution();
+    PowerDistribution actual = compact.getPowerDistribution();
+    // the speed rounding moves the output by at most the steepest slope of
+    // the curve times the rounding error
+    double bound = compact.getMaxRoundingErrors()[2]
+                   + compact.getMaxRoundingErrors()[1] * curve.getCapacity();
+    assertEquals("errors not rounded", 0.0, compact.getMaxRoundingErrors()[0],
+                 0.0);
+    for (int h = 0; h < HOURS; h++) {
+      assertEquals("expected output at " + h, expected.getExpectedValue(h),
+                   actual.getExpectedValue(h), bound);
+    }
+    // the double matrix is decoded into on request
+    ScenarioMatrix decoded = compact.getPowerOutputMatrix();
+    assertEquals("decoded bytes", 3 * cells * 2 + cells * 8,
+                 compact.getStorageBytes());
+    for (int s = 0; s < 200; s++) {
+      for (int h = 0; h < HOURS; h++) {
+        assertEquals("snapshot " + s + ", " + h, decoded.getValue(s, h),
+                     snapshot.getValue(s, h), 0.0);
+      }
+    }
+    snapshot.release();
+    // one conditioning index for both
+    exact.setConditioning(0.5);
+    compact.setConditioning(0.5);
+    assertSame("shared index",
+               ConditionedErrorIndex.forMatrix(errors, 0.5),
+               ConditionedErrorIndex.forMatrix(errors, 0.5));
+    // conditioned offers compute no scenarios, so none are published
+    assertNull("no stale snapshot", compact.acquireSnapshot());
+    assertTrue("no scenarios", compact.getWindPowerOutputScenarios().isEmpty());
+  }
+
+  // Total of all values of a snapshot
+  private static double checksum (ScenarioSnapshot snapshot)
+  {
+    double result = 0.0;
+    for (int s = 0; s < snapshot.getScenarioCount(); s++) {
+      for (int h = 0; h < snapshot.getHours(); h++) {
+        result += snapshot.getValue(s, h);
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void testSnapshotReaders () throws InterruptedException
+  {
+    final int readers = 4;
+    int publications = 300;
+    ScenarioMatrix errors =
+      SyntheticErrorScenarios.fromSpec("synthetic:scenarios=50;seed=3");
+    final ForecastScenarios scenarios =
+      new ForecastScenarios(errors, forecast, curve);
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicReference<String> failure = new AtomicReference<String>();
+    Thread[] threads = new Thread[readers];
+    for (int r = 0; r < readers; r++) {
+      threads[r] = new Thread(new Runnable() {
+        @Override
+        public void run ()
+        {
+          long last = 0;
+          while (!done.get() && failure.get() == null) {
+            ScenarioSnapshot snapshot = scenarios.acquireSnapshot();
+            if (snapshot == null) {
+              continue;
+            }
+            long sequence = snapshot.getSequence();
+            double before = checksum(snapshot);
+            Thread.yield();
+            double after = checksum(snapshot);
+            if (snapshot.getSequence() != sequence || before != after) {
+              failure.compareAndSet(null, "snapshot " + sequence
+                                          + " refilled while held");
+            }
+            if (sequence < last) {
+              failure.compareAndSet(null, "sequence " + sequence
+                                          + " after " + last);
+            }
+            last = sequence;
+            snapshot.release();
+          }
+        }
+      });
+      threads[r].start();
+    }
+    // every snapshot is current once, right after it is published
+    Set<ScenarioSnapshot> published =
+      Collections.newSetFromMap(new IdentityHashMap<ScenarioSnapshot, Boolean>());
+    for (int p = 0; p < publications; p++) {
+      // a different output for each publication
+      setForecast(4.0 + 0.03 * p);
+      scenarios.calcWindSpeedForecastScenarios();
+      scenarios.calcPowerOutputScenarios();
+      ScenarioSnapshot current = scenarios.acquireSnapshot();
+      assertEquals("sequence of publication " + p, p + 1,
+                   current.getSequence());
+      published.add(current);
+      current.release();
+    }
+    done.set(true);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull("readers", failure.get());
+    // each reader holds at most one retired snapshot, besides the current
+    // one and the one being filled
+    assertTrue("pool of " + published.size(),
+               published.size() <= readers + 2);
+  }
+
+} // class ForecastScenariosTest
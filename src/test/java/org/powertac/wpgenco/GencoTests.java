@@ -32,6 +32,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
+import org.powertac.common.Broker;
 import org.powertac.common.Competition;
 import org.powertac.common.MarketPosition;
 import org.powertac.common.PluginConfig;
@@ -158,6 +159,42 @@ public class GencoTests
     assertEquals("second order for 100 mwh", -100.0, second.getMWh(), 1e-6);
   }
 
+  // positions added through the Broker are seen by the cache, including
+  // later clearings, and a slot 64 hours later replaces the cache entry
+  @Test
+  public void testPositionCache ()
+  {
+    Broker broker = windfarmGenco;
+    Timeslot ts0 = timeslotRepo.makeTimeslot(start);
+    for (int i = 1; i < 64; i++) {
+      timeslotRepo.makeTimeslot(start.plus(TimeService.HOUR * i));
+    }
+    Timeslot ts64 = timeslotRepo.makeTimeslot(start.plus(TimeService.HOUR * 64));
+    assertEquals("same cache entry", 64,
+                 ts64.getSerialNumber() - ts0.getSerialNumber());
+    assertEquals("nothing cleared", 0.0,
+                 windfarmGenco.getClearedQuantity(ts0), 0.0);
+
+    MarketPosition posn0 = new MarketPosition(windfarmGenco, ts0, -20.0);
+    broker.addMarketPosition(posn0, ts0);
+    assertSame("in the broker's positions", posn0,
+               windfarmGenco.findMarketPositionByTimeslot(ts0));
+    assertEquals("cleared through the broker", -20.0,
+                 windfarmGenco.getClearedQuantity(ts0), 1e-6);
+    posn0.updateBalance(-5.0);
+    assertEquals("later clearing", -25.0,
+                 windfarmGenco.getClearedQuantity(ts0), 1e-6);
+    assertEquals("other slot of the entry", 0.0,
+                 windfarmGenco.getClearedQuantity(ts64), 0.0);
+
+    MarketPosition posn64 = new MarketPosition(windfarmGenco, ts64, -30.0);
+    broker.addMarketPosition(posn64, ts64);
+    assertEquals("new slot", -30.0,
+                 windfarmGenco.getClearedQuantity(ts64), 1e-6);
+    assertEquals("stale entry", 0.0,
+                 windfarmGenco.getClearedQuantity(ts0), 0.0);
+  }
+
   // set commitment leadtime to a larger number and make sure ordering
   // behavior is correct
   @Test
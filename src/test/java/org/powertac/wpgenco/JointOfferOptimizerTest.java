@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for JointOfferOptimizer against exhaustive search on small grids
+ * @author Shashank Pande
+ */
+public class JointOfferOptimizerTest
+{
+  private static final double[] BIDS = { 0.0, 1.0, 2.0, 3.0 };
+  // slots 0-2 on one day, 3-4 on the next
+  private static final long[] DAYS = { 0, 0, 0, 1, 1 };
+  private static final int TRIALS = 200;
+
+  private Random random;
+
+  @Before
+  public void setUp ()
+  {
+    random = new Random(23);
+  }
+
+  // Random revenues, some negative, with some bids above 0 not allowed
+  private double[][] randomRevenue ()
+  {
+    double[][] result = new double[DAYS.length][BIDS.length];
+    for (int h = 0; h < DAYS.length; h++) {
+      for (int k = 0; k < BIDS.length; k++) {
+        result[h][k] = random.nextDouble() * 10.0 - 3.0;
+        if (k > 0 && random.nextInt(6) == 0) {
+          result[h][k] = Double.NEGATIVE_INFINITY;
+        }
+      }
+    }
+    return result;
+  }
+
+  private static double total (double[][] revenue, int[] chosen)
+  {
+    double result = 0;
+    for (int h = 0; h < chosen.length; h++) {
+      result += revenue[h][chosen[h]];
+    }
+    return result;
+  }
+
+  private static int[] indices (double[] quantities)
+  {
+    int[] result = new int[quantities.length];
+    for (int h = 0; h < quantities.length; h++) {
+      result[h] = (int) Math.round(quantities[h]);
+      assertEquals("on the grid", BIDS[result[h]], quantities[h], 0.0);
+    }
+    return result;
+  }
+
+  private static boolean withinRamp (int[] chosen, double rampLimit)
+  {
+    for (int h = 1; h < chosen.length; h++) {
+      if (rampLimit >= 0
+          && Math.abs(BIDS[chosen[h]] - BIDS[chosen[h - 1]]) > rampLimit + 1e-9) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean withinCap (int[] chosen, double dailyCap)
+  {
+    double[] perDay = new double[2];
+    for (int h = 0; h < chosen.length; h++) {
+      perDay[(int) DAYS[h]] += BIDS[chosen[h]];
+    }
+    return dailyCap < 0
+           || (perDay[0] <= dailyCap + 1e-9 && perDay[1] <= dailyCap + 1e-9);
+  }
+
+  private static double quantity (int[] chosen)
+  {
+    double result = 0;
+    for (int k : chosen) {
+      result += BIDS[k];
+    }
+    return result;
+  }
+
+  // Best total revenue of the allowed choices within the ramp limit and the
+  // daily cap that offer at most maxQuantity in all
+  private static double bruteForce (double[][] revenue, double rampLimit,
+                                    double dailyCap, double maxQuantity)
+  {
+    int slots = revenue.length;
+    int combinations = (int) Math.pow(BIDS.length, slots);
+    double best = Double.NEGATIVE_INFINITY;
+    int[] chosen = new int[slots];
+    for (int c = 0; c < combinations; c++) {
+      int rest = c;
+      for (int h = 0; h < slots; h++) {
+        chosen[h] = rest % BIDS.length;
+        rest /= BIDS.length;
+      }
+      if (withinRamp(chosen, rampLimit) && withinCap(chosen, dailyCap)
+          && quantity(chosen) <= maxQuantity + 1e-9) {
+        best = Math.max(best, total(revenue, chosen));
+      }
+    }
+    return best;
+  }
+
+  @Test
+  public void testNoConstraints ()
+  {
+    JointOfferOptimizer optimizer = new JointOfferOptimizer(BIDS);
+    assertFalse("no constraints", optimizer.hasConstraints());
+    for (int t = 0; t < TRIALS; t++) {
+      double[][] revenue = randomRevenue();
+      int[] chosen = indices(optimizer.optimize(revenue, DAYS));
+      for (int h = 0; h < chosen.length; h++) {
+        double best = Double.NEGATIVE_INFINITY;
+        for (double r : revenue[h]) {
+          best = Math.max(best, r);
+        }
+        if (best < 0) {
+          assertEquals("nothing rather than a loss in " + h, 0, chosen[h]);
+        }
+        else {
+          assertEquals("best bid in " + h, best, revenue[h][chosen[h]], 0.0);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testRampLimit ()
+  {
+    for (double rampLimit : new double[] { 0.0, 1.0, 2.0 }) {
+      JointOfferOptimizer optimizer = new JointOfferOptimizer(BIDS);
+      optimizer.setRampLimit(rampLimit);
+      for (int t = 0; t < TRIALS; t++) {
+        double[][] revenue = randomRevenue();
+        int[] chosen = indices(optimizer.optimize(revenue, DAYS));
+        assertTrue("within ramp " + rampLimit, withinRamp(chosen, rampLimit));
+        assertEquals("optimal with ramp " + rampLimit,
+                     bruteForce(revenue, rampLimit, -1.0, Double.MAX_VALUE),
+                     total(revenue, chosen), 1e-9);
+      }
+    }
+  }
+
+  @Test
+  public void testDailyCap ()
+  {
+    for (double rampLimit : new double[] { -1.0, 1.0 }) {
+      for (double dailyCap : new double[] { 2.0, 4.0, 6.0 }) {
+        JointOfferOptimizer optimizer = new JointOfferOptimizer(BIDS);
+        optimizer.setRampLimit(rampLimit);
+        optimizer.setDailyCap(dailyCap);
+        for (int t = 0; t < TRIALS; t++) {
+          double[][] revenue = randomRevenue();
+          for (int h = 0; h < revenue.length; h++) {
+            // offering nothing earns nothing, so that dropping a loss to
+            // nothing never lowers the total
+            revenue[h][0] = 0.0;
+          }
+          int[] chosen = indices(optimizer.optimize(revenue, DAYS));
+          String label = "ramp " + rampLimit + ", cap " + dailyCap;
+          assertTrue("within cap, " + label, withinCap(chosen, dailyCap));
+          assertTrue("within ramp, " + label, withinRamp(chosen, rampLimit));
+          // the relaxation is exact among choices of at most its quantity
+          assertEquals("best for its quantity, " + label,
+                       bruteForce(revenue, rampLimit, -1.0, quantity(chosen)),
+                       total(revenue, chosen), 1e-9);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testCapBelowSmallestBid ()
+  {
+    JointOfferOptimizer optimizer = new JointOfferOptimizer(BIDS);
+    optimizer.setRampLimit(1.0);
+    optimizer.setDailyCap(0.5);
+    for (int t = 0; t < TRIALS; t++) {
+      double[][] revenue = randomRevenue();
+      for (int h = 0; h < revenue.length; h++) {
+        // every slot would rather offer something
+        revenue[h][BIDS.length - 1] = 100.0;
+      }
+      double[] quantities = optimizer.optimize(revenue, DAYS);
+      for (int h = 0; h < quantities.length; h++) {
+        assertEquals("nothing offered in " + h, 0.0, quantities[h], 0.0);
+      }
+    }
+  }
+
+} // class JointOfferOptimizerTest
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for JointRevenueEvaluator against hand-computed revenues
+ * @author Shashank Pande
+ */
+public class JointRevenueEvaluatorTest
+{
+  // outcome 10 MW pairs with scenario 0, outcome 30 MW with scenario 1
+  private static final double[] MCP = { 40.0, 50.0 };
+  private static final double[] PPLUS = { 20.0, 25.0 };
+  private static final double[] PMINUS = { -60.0, -80.0 };
+  private static final double[] BIDS = { 0.0, 20.0, 40.0 };
+
+  private PowerDistribution power;
+
+  @Before
+  public void setUp ()
+  {
+    power = new PowerDistribution(new double[][] { { 10.0, 30.0 } },
+                                  new double[][] { { 0.5, 0.5 } });
+  }
+
+  @Test
+  public void testHandComputed ()
+  {
+    JointRevenueEvaluator evaluator =
+      new JointRevenueEvaluator(power, BIDS, null);
+    double[] revenue = new double[BIDS.length];
+    evaluator.evaluate(0, MCP, PPLUS, PMINUS, 2, revenue);
+    // 0 MW: all surplus, 10 * 20 and 30 * 25
+    assertEquals("no offer", 0.5 * 200.0 + 0.5 * 750.0, revenue[0], 1e-9);
+    // 20 MW: 10 short at -60 against 40 per MW sold, then 10 surplus at 25
+    assertEquals("shortfall and surplus",
+                 0.5 * (800.0 - 600.0) + 0.5 * (1000.0 + 250.0),
+                 revenue[1], 1e-9);
+    // 40 MW: short in both outcomes
+    assertEquals("all shortfall",
+                 0.5 * (1600.0 - 1800.0) + 0.5 * (2000.0 - 800.0),
+                 revenue[2], 1e-9);
+    evaluator.pairHour(0, 2);
+    for (int k = 0; k < BIDS.length; k++) {
+      assertEquals("single quantity " + BIDS[k], revenue[k],
+                   evaluator.revenueAt(0, BIDS[k], MCP, PPLUS, PMINUS, 2),
+                   1e-9);
+    }
+    // beyond the distribution only the mean clearing price counts
+    evaluator.evaluate(1, MCP, PPLUS, PMINUS, 2, revenue);
+    assertEquals("market only", 20.0 * 45.0, revenue[1], 1e-9);
+    assertEquals("market only at one quantity", 20.0 * 45.0,
+                 evaluator.revenueAt(1, 20.0, MCP, PPLUS, PMINUS, 2), 1e-9);
+  }
+
+  @Test
+  public void testImbalancePriceSlope ()
+  {
+    JointRevenueEvaluator evaluator =
+      new JointRevenueEvaluator(power, BIDS, null);
+    evaluator.setImbalancePriceSlope(1.0);
+    double[] revenue = new double[BIDS.length];
+    evaluator.evaluate(0, MCP, PPLUS, PMINUS, 2, revenue);
+    // 10 short pays 60 + 10, 10 surplus earns 25 - 10
+    assertEquals("shortfall and surplus",
+                 0.5 * (800.0 - 700.0) + 0.5 * (1000.0 + 150.0),
+                 revenue[1], 1e-9);
+    evaluator.pairHour(0, 2);
+    assertEquals("single quantity", revenue[1],
+                 evaluator.revenueAt(0, 20.0, MCP, PPLUS, PMINUS, 2), 1e-9);
+  }
+
+  @Test
+  public void testIndexPairing ()
+  {
+    // with no imbalance prices the revenue is q times the mean paired
+    // clearing price: outcomes 0, 1, 2 pair with scenarios 0, 1, 0
+    PowerDistribution three =
+      new PowerDistribution(new double[][] { { 0.0, 10.0, 20.0 } },
+                            new double[][] { { 0.25, 0.5, 0.25 } });
+    double[] mcp = { 10.0, 100.0 };
+    double[] zero = { 0.0, 0.0 };
+    JointRevenueEvaluator evaluator =
+      new JointRevenueEvaluator(three, new double[] { 1.0 }, null);
+    double[] revenue = new double[1];
+    evaluator.evaluate(0, mcp, zero, zero, 2, revenue);
+    assertEquals("paired by index", 0.25 * 10.0 + 0.5 * 100.0 + 0.25 * 10.0,
+                 revenue[0], 1e-12);
+    // the same again, whatever was evaluated in between
+    evaluator.evaluate(0, mcp, zero, zero, 1, revenue);
+    evaluator.evaluate(0, mcp, zero, zero, 2, revenue);
+    assertEquals("same pairing", 55.0, revenue[0], 1e-12);
+  }
+
+  @Test
+  public void testSampledPairing ()
+  {
+    double[] mcp = new double[7];
+    double[] pplus = new double[7];
+    double[] pminus = new double[7];
+    for (int j = 0; j < 7; j++) {
+      mcp[j] = 30.0 + 3.0 * j;
+      pplus[j] = 10.0 + j;
+      pminus[j] = -50.0 - 2.0 * j;
+    }
+    double[] first = new double[BIDS.length];
+    double[] second = new double[BIDS.length];
+    new JointRevenueEvaluator(power, BIDS, new Random(5))
+      .evaluate(0, mcp, pplus, pminus, 7, first);
+    new JointRevenueEvaluator(power, BIDS, new Random(5))
+      .evaluate(0, mcp, pplus, pminus, 7, second);
+    assertArrayEquals("same seed, same revenue", first, second, 0.0);
+  }
+
+} // class JointRevenueEvaluatorTest
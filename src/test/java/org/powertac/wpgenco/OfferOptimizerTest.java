@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests for the offer quantity optimizers
+ * @author Shashank Pande
+ */
+public class OfferOptimizerTest
+{
+  // concave revenue with its maximum at peak, counting evaluations
+  private static class Quadratic implements OfferOptimizer.RevenueFunction
+  {
+    private final double peak;
+    int evaluations = 0;
+
+    Quadratic (double peak)
+    {
+      this.peak = peak;
+    }
+
+    @Override
+    public double revenue (double quantity)
+    {
+      evaluations++;
+      return 100.0 - (quantity - peak) * (quantity - peak);
+    }
+  }
+
+  @Test
+  public void testGolden ()
+  {
+    Quadratic f = new Quadratic(37.3);
+    double q = new GoldenSectionOptimizer().maximize(f, 0, 150, 0.01);
+    assertEquals("maximum found", 37.3, q, 0.01);
+    assertTrue("fewer evaluations than a grid", f.evaluations < 50);
+  }
+
+  @Test
+  public void testBrent ()
+  {
+    Quadratic f = new Quadratic(37.3);
+    double q = new BrentOptimizer().maximize(f, 0, 150, 0.01);
+    assertEquals("maximum found", 37.3, q, 0.01);
+    assertTrue("fewer evaluations than golden section", f.evaluations < 20);
+  }
+
+  @Test
+  public void testMaximumAtBound ()
+  {
+    Quadratic f = new Quadratic(200.0);
+    assertEquals("upper bound", 150.0,
+                 new BrentOptimizer().maximize(f, 0, 150, 0.01), 1e-9);
+    assertEquals("upper bound", 150.0,
+                 new GoldenSectionOptimizer().maximize(f, 0, 150, 0.01), 1e-9);
+  }
+
+  @Test
+  public void testGrid ()
+  {
+    Quadratic f = new Quadratic(37.3);
+    double q = new GridOfferOptimizer().maximize(f, 0, 150, 0.1);
+    assertEquals("maximum found", 37.3, q, 0.1);
+  }
+}
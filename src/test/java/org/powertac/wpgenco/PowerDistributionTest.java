@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for ScenarioMatrix and PowerDistribution
+ * @author Shashank Pande
+ */
+public class PowerDistributionTest
+{
+  private ScenarioMatrix farm1;
+  private ScenarioMatrix farm2;
+
+  @Before
+  public void setUp ()
+  {
+    // two scenarios, two lead hours
+    farm1 = new ScenarioMatrix(2, 2);
+    farm1.setProbability(0, 0.25);
+    farm1.setProbability(1, 0.75);
+    farm1.setValue(0, 0, 10.0);
+    farm1.setValue(0, 1, 20.0);
+    farm1.setValue(1, 0, 30.0);
+    farm1.setValue(1, 1, 40.0);
+    farm2 = farm1.copy();
+    farm2.setValue(1, 0, 50.0);
+  }
+
+  @Test
+  public void testFromMatrix ()
+  {
+    PowerDistribution dist = PowerDistribution.fromMatrix(farm1);
+    assertEquals("two hours", 2, dist.getHours());
+    assertEquals("two outcomes", 2, dist.size(0));
+    assertEquals("hour 1 mean", 25.0, dist.getExpectedValue(0), 1e-9);
+    assertEquals("hour 2 mean", 35.0, dist.getExpectedValue(1), 1e-9);
+  }
+
+  @Test
+  public void testSharedSum ()
+  {
+    ScenarioMatrix sum = farm1.copy();
+    sum.add(farm2);
+    assertEquals("row sum", 80.0, sum.getValue(1, 0), 1e-9);
+    assertEquals("probability kept", 0.75, sum.getProbability(1), 1e-9);
+    PowerDistribution dist = PowerDistribution.fromMatrix(sum);
+    assertEquals("hour 1 mean", 25.0 + 40.0, dist.getExpectedValue(0), 1e-9);
+  }
+
+  @Test
+  public void testConvolve ()
+  {
+    PowerDistribution d1 = PowerDistribution.fromMatrix(farm1);
+    PowerDistribution d2 = PowerDistribution.fromMatrix(farm2);
+    PowerDistribution conv = d1.convolve(d2, 1.0);
+    // outcomes 20, 40, 60, 80 for hour 1
+    assertEquals("four outcomes", 4, conv.size(0));
+    double total = 0;
+    for (double p : conv.getProbabilities(0)) {
+      total += p;
+    }
+    assertEquals("probabilities sum to 1", 1.0, total, 1e-9);
+    assertEquals("means add", 25.0 + 40.0, conv.getExpectedValue(0), 1e-9);
+    assertEquals("lowest outcome", 20.0, conv.getValues(0)[0], 1e-9);
+    assertEquals("lowest probability", 0.0625, conv.getProbabilities(0)[0], 1e-9);
+  }
+
+  @Test
+  public void testConvolveOffGrid ()
+  {
+    farm1.setValue(0, 0, 10.4);
+    PowerDistribution d1 = PowerDistribution.fromMatrix(farm1);
+    PowerDistribution d2 = PowerDistribution.fromMatrix(farm2);
+    PowerDistribution conv = d1.convolve(d2, 1.0);
+    assertEquals("mean kept by grid split",
+                 d1.getExpectedValue(0) + d2.getExpectedValue(0),
+                 conv.getExpectedValue(0), 1e-9);
+  }
+
+  @Test
+  public void testTailShortfall ()
+  {
+    // hour 1 outcomes 10 (0.25), 30 (0.75)
+    PowerDistribution dist = PowerDistribution.fromMatrix(farm1).sorted();
+    assertTrue("sorted copy", dist.isSorted());
+    assertEquals("below every outcome", 0.0,
+                 dist.getTailShortfall(0, 5.0, 0.5), 1e-9);
+    // tail of 0.5: 10 with 0.25, 30 with 0.25
+    assertEquals("partial boundary outcome", (10.0 + 0.0) / 2,
+                 dist.getTailShortfall(0, 20.0, 0.5), 1e-9);
+    assertEquals("whole tail short", (0.25 * 30.0 + 0.25 * 10.0) / 0.5,
+                 dist.getTailShortfall(0, 40.0, 0.5), 1e-9);
+    assertEquals("full distribution is the mean shortfall", 40.0 - 25.0,
+                 dist.getTailShortfall(0, 40.0, 1.0), 1e-9);
+  }
+
+  @Test
+  public void testQuantile ()
+  {
+    // hour 1 outcomes 10 (0.25), 30 (0.75)
+    PowerDistribution dist = PowerDistribution.fromMatrix(farm1).sorted();
+    assertEquals("lowest", 10.0, dist.getQuantile(0, 0.1), 0.0);
+    assertEquals("at the boundary", 10.0, dist.getQuantile(0, 0.25), 0.0);
+    assertEquals("median", 30.0, dist.getQuantile(0, 0.5), 0.0);
+    assertEquals("highest", 30.0, dist.getQuantile(0, 1.0), 0.0);
+  }
+
+  @Test
+  public void testCompactStorage ()
+  {
+    farm1.setValue(0, 0, 10.3);
+    for (String precision : new String[] { CompactScenarioMatrix.FLOAT,
+                                           CompactScenarioMatrix.FIXED16 }) {
+      CompactScenarioMatrix compact =
+        CompactScenarioMatrix.encode(farm1, precision);
+      assertEquals("precision kept", precision, compact.getPrecision());
+      double bound = compact.getMaxRoundingError();
+      assertTrue("error reported", bound < 1e-3);
+      for (int s = 0; s < 2; s++) {
+        for (int h = 0; h < 2; h++) {
+          assertEquals("value within reported error", farm1.getValue(s, h),
+                       compact.getValue(s, h), bound + 1e-12);
+        }
+      }
+      PowerDistribution dist = PowerDistribution.fromCompact(compact);
+      assertEquals("hour 2 mean", 35.0, dist.getExpectedValue(1), 1e-3);
+    }
+    assertEquals("fixed16 uses 2 bytes a value", 8,
+                 CompactScenarioMatrix.encode(farm1, CompactScenarioMatrix.FIXED16)
+                   .getStorageBytes());
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for PriceStatistics
+ * @author Shashank Pande
+ */
+public class PriceStatisticsTest
+{
+  private PriceStatistics stats;
+
+  @Before
+  public void setUp ()
+  {
+    // 4 recent prices, histogram 0-100 in $1 bins
+    stats = new PriceStatistics(4, 0.5, 0.0, 100.0, 100);
+  }
+
+  @Test
+  public void testRing ()
+  {
+    for (int i = 1; i <= 6; i++) {
+      stats.record(3, PriceStatistics.CLEARING, 10.0 * i);
+    }
+    assertEquals("six recorded", 6, stats.getCount(3, PriceStatistics.CLEARING));
+    assertEquals("window of four", 4,
+                 stats.getRecentCount(3, PriceStatistics.CLEARING));
+    assertEquals("latest", 60.0,
+                 stats.getRecent(3, PriceStatistics.CLEARING, 0), 1e-9);
+    assertEquals("oldest kept", 30.0,
+                 stats.getRecent(3, PriceStatistics.CLEARING, 3), 1e-9);
+    assertEquals("other hour empty", 0,
+                 stats.getCount(4, PriceStatistics.CLEARING));
+    assertEquals("other series empty", 0,
+                 stats.getCount(3, PriceStatistics.REG_UP));
+  }
+
+  @Test
+  public void testMovingAverage ()
+  {
+    stats.record(0, PriceStatistics.REG_UP, 20.0);
+    assertEquals("first value", 20.0,
+                 stats.getMean(0, PriceStatistics.REG_UP), 1e-9);
+    stats.record(0, PriceStatistics.REG_UP, 40.0);
+    assertEquals("halfway", 30.0,
+                 stats.getMean(0, PriceStatistics.REG_UP), 1e-9);
+    assertEquals("variance", 100.0,
+                 stats.getVariance(0, PriceStatistics.REG_UP), 1e-9);
+  }
+
+  @Test
+  public void testQuantile ()
+  {
+    assertTrue("no data", Double.isNaN(stats.getQuantile(5, PriceStatistics.CLEARING, 0.5)));
+    for (int i = 0; i < 100; i++) {
+      stats.record(5, PriceStatistics.CLEARING, i + 0.5);
+    }
+    assertEquals("median", 50.0,
+                 stats.getQuantile(5, PriceStatistics.CLEARING, 0.5), 1.0);
+    assertEquals("90th percentile", 90.0,
+                 stats.getQuantile(5, PriceStatistics.CLEARING, 0.9), 1.0);
+  }
+
+  @Test
+  public void testMerge ()
+  {
+    PriceStatistics other = new PriceStatistics(4, 0.5, 0.0, 100.0, 100);
+    for (int i = 0; i < 10; i++) {
+      stats.record(1, PriceStatistics.CLEARING, 10.0);
+      other.record(1, PriceStatistics.CLEARING, 90.0);
+    }
+    stats.merge(other);
+    assertEquals("low quartile from own prices", 10.0,
+                 stats.getQuantile(1, PriceStatistics.CLEARING, 0.25), 1.0);
+    assertEquals("high quartile from merged prices", 90.0,
+                 stats.getQuantile(1, PriceStatistics.CLEARING, 0.75), 1.0);
+    assertEquals("own count unchanged", 10,
+                 stats.getCount(1, PriceStatistics.CLEARING));
+  }
+}
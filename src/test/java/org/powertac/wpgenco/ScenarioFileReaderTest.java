@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests for ScenarioFileReader
+ * @author Shashank Pande
+ */
+public class ScenarioFileReaderTest
+{
+  private ScenarioMatrix read (String xml) throws IOException
+  {
+    return ScenarioFileReader.read(new ByteArrayInputStream(xml.getBytes("UTF-8")),
+                                   "test");
+  }
+
+  @Test
+  public void testRead () throws IOException
+  {
+    ScenarioMatrix matrix =
+      read("<Scenarios>\n"
+           + "  <Scenario id=\"2\" probability=\"0.75\">\n"
+           + "    <Value hour=\"2\" error=\"-1.5\"/>\n"
+           + "    <Value hour=\"1\" error=\"0.5\"/>\n"
+           + "  </Scenario>\n"
+           + "  <Scenario id=\"1\" probability=\"0.25\">\n"
+           + "    <Value hour=\"1\" error=\"2.0\"/>\n"
+           + "    <Value hour=\"2\" error=\"3.0\"/>\n"
+           + "  </Scenario>\n"
+           + "</Scenarios>\n");
+    assertEquals("scenarios", 2, matrix.getScenarioCount());
+    assertEquals("hours", 2, matrix.getHours());
+    // rows in id order
+    assertEquals("first probability", 0.25, matrix.getProbability(0), 1e-12);
+    assertEquals("first row", 3.0, matrix.getValue(0, 1), 1e-12);
+    assertEquals("second row, hour 1", 0.5, matrix.getValue(1, 0), 1e-12);
+    assertEquals("second row, hour 2", -1.5, matrix.getValue(1, 1), 1e-12);
+  }
+
+  @Test
+  public void testMissingHour ()
+  {
+    try {
+      read("<Scenarios>\n"
+           + "  <Scenario id=\"1\" probability=\"0.5\">\n"
+           + "    <Value hour=\"1\" error=\"2.0\"/>\n"
+           + "    <Value hour=\"2\" error=\"3.0\"/>\n"
+           + "  </Scenario>\n"
+           + "  <Scenario id=\"2\" probability=\"0.5\">\n"
+           + "    <Value hour=\"2\" error=\"3.0\"/>\n"
+           + "  </Scenario>\n"
+           + "</Scenarios>\n");
+      fail("missing hour not reported");
+    }
+    catch (IOException ioe) {
+      assertTrue("line of the scenario end in " + ioe.getMessage(),
+                 ioe.getMessage().startsWith("test:8:"));
+    }
+  }
+
+  @Test
+  public void testBadValue ()
+  {
+    try {
+      read("<Scenarios>\n"
+           + "  <Scenario id=\"1\" probability=\"1.0\">\n"
+           + "    <Value hour=\"1\" error=\"x\"/>\n"
+           + "  </Scenario>\n"
+           + "</Scenarios>\n");
+      fail("bad error value not reported");
+    }
+    catch (IOException ioe) {
+      assertTrue("line of the value in " + ioe.getMessage(),
+                 ioe.getMessage().startsWith("test:3:"));
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Mockito.*;
+
+import java.util.TreeMap;
+
+import org.apache.commons.configuration.MapConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powertac.common.config.Configurator;
+import org.powertac.common.interfaces.BrokerProxy;
+import org.powertac.common.interfaces.ServerConfiguration;
+
+/**
+ * Tests for the setup done by SimpleGencoService before gencos are
+ * initialized.
+ *
+ * @author Shashank Pande
+ */
+public class SimpleGencoServiceTest
+{
+  private ServerConfiguration serverConfig;
+  private Configurator config;
+
+  @Before
+  public void setUp ()
+  {
+    TreeMap<String, String> map = new TreeMap<String, String>();
+    map.put("wpgenco.windTurbineEfficiencyCurve.cfgWindSpeedbands", "4-9,9-14");
+    map.put("wpgenco.windTurbineEfficiencyCurve.cfgSlope", "0.02,-0.02");
+    map.put("wpgenco.windTurbineEfficiencyCurve.cfgYIntercept", "0.2,0.38");
+    config = new Configurator();
+    config.setConfiguration(new MapConfiguration(map));
+    serverConfig = mock(ServerConfiguration.class);
+    doAnswer(new Answer<Object>() {
+      @Override
+      public Object answer (InvocationOnMock invocation)
+      {
+        config.configureSingleton(invocation.getArguments()[0]);
+        return null;
+      }
+    }).when(serverConfig).configureMe(anyObject());
+  }
+
+  @Test
+  public void testDefaultGencoInit ()
+  {
+    SimpleGencoService.configureDefaultCurve(serverConfig);
+    WindfarmGenco genco = new WindfarmGenco("farm");
+    genco.setScenarioLibrary(new ErrorScenarioLibrary("synthetic:scenarios=20"));
+    genco.init(mock(BrokerProxy.class));
+    // 100 default turbines of 1.5 MW
+    assertEquals("capacity", 150.0, genco.getPowerCurve().getCapacity(), 1e-9);
+    assertTrue("output at 10 m/s",
+               genco.getPowerCurve().getPowerOutput(10.0, 1.225) > 0.0);
+  }
+
+} // class SimpleGencoServiceTest
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests for SyntheticErrorScenarios
+ * @author Shashank Pande
+ */
+public class SyntheticErrorScenariosTest
+{
+  private static final int HOURS = 24;
+
+  @Test
+  public void testSameSeedSameBits ()
+  {
+    // several row blocks, generated in parallel
+    SyntheticErrorScenarios generator =
+      new SyntheticErrorScenarios(1.0, 0.03, 0.8, 42);
+    ScenarioMatrix first = generator.generate(2000, HOURS);
+    ScenarioMatrix second =
+      new SyntheticErrorScenarios(1.0, 0.03, 0.8, 42).generate(2000, HOURS);
+    double[] expected = first.getValues();
+    double[] actual = second.getValues();
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals("same bits at " + i, Double.doubleToLongBits(expected[i]),
+                   Double.doubleToLongBits(actual[i]));
+    }
+    // each row has its own stream, so fewer rows are a prefix
+    ScenarioMatrix fewer = generator.generate(100, HOURS);
+    for (int s = 0; s < 100; s++) {
+      for (int h = 0; h < HOURS; h++) {
+        assertEquals("prefix row " + s + " hour " + h,
+                     Double.doubleToLongBits(first.getValue(s, h)),
+                     Double.doubleToLongBits(fewer.getValue(s, h)));
+      }
+    }
+  }
+
+  @Test
+  public void testOtherSeed ()
+  {
+    ScenarioMatrix first =
+      SyntheticErrorScenarios.fromSpec("synthetic:scenarios=10;seed=1");
+    ScenarioMatrix second =
+      SyntheticErrorScenarios.fromSpec("synthetic:scenarios=10;seed=2");
+    int same = 0;
+    for (int s = 0; s < 10; s++) {
+      for (int h = 0; h < HOURS; h++) {
+        if (first.getValue(s, h) == second.getValue(s, h)) {
+          same++;
+        }
+      }
+    }
+    assertEquals("no value shared", 0, same);
+  }
+
+  @Test
+  public void testMoments ()
+  {
+    int scenarios = 20000;
+    double sigma = 1.5;
+    double growth = 0.05;
+    double phi = 0.6;
+    ScenarioMatrix errors =
+      new SyntheticErrorScenarios(sigma, growth, phi, 9).generate(scenarios,
+                                                                  HOURS);
+    for (int h = 0; h < HOURS; h++) {
+      double spread = sigma + growth * h;
+      double sum = 0.0;
+      double squares = 0.0;
+      double lagged = 0.0;
+      for (int s = 0; s < scenarios; s++) {
+        double e = errors.getValue(s, h);
+        sum += e;
+        squares += e * e;
+        if (h > 0) {
+          lagged += e * errors.getValue(s, h - 1);
+        }
+        assertEquals("probability", 1.0 / scenarios,
+                     errors.getProbability(s), 1e-15);
+      }
+      double stdDev = Math.sqrt(squares / scenarios);
+      assertEquals("mean at " + h, 0.0, sum / scenarios, 0.05 * spread);
+      assertEquals("standard deviation at " + h, spread, stdDev,
+                   0.03 * spread);
+      if (h > 0) {
+        double previous = sigma + growth * (h - 1);
+        assertEquals("correlation at " + h, phi,
+                     lagged / scenarios / (spread * previous), 0.03);
+      }
+    }
+  }
+
+} // class SyntheticErrorScenariosTest
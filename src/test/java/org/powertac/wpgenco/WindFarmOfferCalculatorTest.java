@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.Timeslot;
+
+/**
+ * Tests for WindFarmOfferCalculator
+ * @author Shashank Pande
+ */
+public class WindFarmOfferCalculatorTest
+{
+  private static final double MAX_CAPACITY = 60.0;
+  private static final int FIRST_HOUR = 5;
+
+  private WindFarmGencoPriceModel priceModel;
+  private PowerDistribution output;
+  private List<Timeslot> openSlots;
+
+  private static Instant at (int hour)
+  {
+    return new DateTime(2011, 1, 3, hour, 0, 0, 0, DateTimeZone.UTC).toInstant();
+  }
+
+  @Before
+  public void setUp ()
+  {
+    // down regulation after every clearing: surplus earns half the clearing
+    // price and a shortfall pays it, 20 and -40 on average
+    priceModel = new WindFarmGencoPriceModel(new Random(1));
+    openSlots = new ArrayList<Timeslot>();
+    for (int h = 0; h < 2; h++) {
+      Timeslot slot = new Timeslot(100 + h, at(FIRST_HOUR + h), null);
+      for (double price = 20.0; price <= 60.0; price += 10.0) {
+        priceModel.updatePrices(slot, -10.0, price);
+      }
+      openSlots.add(slot);
+    }
+    double[] values = { 0.0, 20.0, 40.0, 60.0 };
+    double[] probabilities = { 0.25, 0.25, 0.25, 0.25 };
+    output = new PowerDistribution(new double[][] { values, values },
+                                   new double[][] { probabilities,
+                                                    probabilities });
+  }
+
+  // Newsvendor quantity at clearing price c with surplus price 20 and
+  // shortfall price -40: the smallest outcome with F(q) >= (c - 20) / 20
+  private static double newsvendor (double c)
+  {
+    double ratio = (c - 20.0) / 20.0;
+    if (ratio <= 0) {
+      return 0.0;
+    }
+    if (ratio >= 1) {
+      return MAX_CAPACITY;
+    }
+    return 20.0 * (Math.ceil(ratio / 0.25 - 1e-9) - 1);
+  }
+
+  private WindFarmOfferCalculator createCalculator ()
+  {
+    return new WindFarmOfferCalculator(MAX_CAPACITY, output, priceModel);
+  }
+
+  // Revenue of offer q in slot i, outcome k paired with price scenario k;
+  // with the model's imbalance price slope s, x MW of imbalance is settled
+  // s * x below its price
+  private double pairedRevenue (int i, double q)
+  {
+    double slope = priceModel.getImbalancePriceSlope();
+    int maxPrices = priceModel.getMaxPriceScenarios();
+    double[] mcp = new double[maxPrices];
+    double[] pplus = new double[maxPrices];
+    double[] pminus = new double[maxPrices];
+    int count = priceModel.getPriceScenarios(openSlots.get(i), mcp, pplus,
+                                             pminus);
+    double result = 0.0;
+    for (int k = 0; k < output.size(i); k++) {
+      int j = k % count;
+      double p = output.getValues(i)[k];
+      double x = Math.abs(p - q);
+      double settlement =
+        ((p > q) ? pplus[j] * x : pminus[j] * x) - slope * x * x;
+      result += output.getProbabilities(i)[k] * (q * mcp[j] + settlement);
+    }
+    return result;
+  }
+
+  @Test
+  public void testOptimalOfferCapacities ()
+  {
+    List<Double> offers = createCalculator().getOptimalOfferCapacities(openSlots);
+    assertEquals("one offer per slot", 2, offers.size());
+    for (int i = 0; i < offers.size(); i++) {
+      double best = 0.0;
+      double bestRevenue = 0.0;
+      for (int k = 0; k <= 10; k++) {
+        double q = 0.1 * MAX_CAPACITY * k;
+        double revenue = pairedRevenue(i, q);
+        if (revenue > bestRevenue) {
+          best = q;
+          bestRevenue = revenue;
+        }
+      }
+      assertTrue("some revenue", bestRevenue > 0.0);
+      assertEquals("best grid offer in " + i, best, offers.get(i), 1e-9);
+    }
+  }
+
+  @Test
+  public void testRiskLimitedOffers ()
+  {
+    // the worst quarter of the outcomes is 0, so the CVaR of q is the mean
+    // shortfall price 40 times q
+    double limit = 800.0;
+    List<Double> unconstrained =
+      createCalculator().getOptimalOfferCapacities(openSlots);
+    WindFarmOfferCalculator calculator = createCalculator();
+    calculator.setRiskLimit(limit, 0.75);
+    List<Double> offers = calculator.getOptimalOfferCapacities(openSlots);
+    PowerDistribution sorted = output.sorted();
+    for (int i = 0; i < offers.size(); i++) {
+      double best = 0.0;
+      double bestRevenue = 0.0;
+      for (int k = 0; k <= 10; k++) {
+        double q = 0.1 * MAX_CAPACITY * k;
+        double revenue = pairedRevenue(i, q);
+        if (40.0 * q <= limit && revenue > bestRevenue) {
+          best = q;
+          bestRevenue = revenue;
+        }
+      }
+      assertEquals("best feasible grid offer in " + i, best, offers.get(i),
+                   1e-9);
+      assertTrue("within the limit in " + i,
+                 40.0 * sorted.getTailShortfall(i, offers.get(i), 0.25)
+                 <= limit);
+      assertTrue("smaller than unconstrained in " + i,
+                 offers.get(i) < unconstrained.get(i));
+    }
+  }
+
+  // Optimizer that counts the revenue evaluations of another
+  private static class CountingOptimizer implements OfferOptimizer
+  {
+    private final OfferOptimizer optimizer;
+    private int evaluations = 0;
+    private int searches = 0;
+    private double upper = Double.NaN;
+
+    CountingOptimizer (OfferOptimizer optimizer)
+    {
+      this.optimizer = optimizer;
+    }
+
+    @Override
+    public double maximize (final RevenueFunction function, double lower,
+                            double upper, double tolerance)
+    {
+      searches++;
+      this.upper = upper;
+      return optimizer.maximize(new RevenueFunction() {
+        @Override
+        public double revenue (double quantity)
+        {
+          evaluations++;
+          return function.revenue(quantity);
+        }
+      }, lower, upper, tolerance);
+    }
+  }
+
+  // Quantity with the highest revenue on a 0.01 MW grid
+  private double fineGridOffer (int i)
+  {
+    double best = 0.0;
+    double bestRevenue = pairedRevenue(i, 0.0);
+    for (int k = 1; k <= 6000; k++) {
+      double q = 0.01 * k;
+      double revenue = pairedRevenue(i, q);
+      if (revenue > bestRevenue) {
+        best = q;
+        bestRevenue = revenue;
+      }
+    }
+    return best;
+  }
+
+  @Test
+  public void testSearchedOffers ()
+  {
+    // the slope makes the revenue strictly concave in the offer
+    priceModel.setImbalancePriceSlope(0.5);
+    double[] expected = { fineGridOffer(0), fineGridOffer(1) };
+    OfferOptimizer[] optimizers =
+      { new GoldenSectionOptimizer(), new BrentOptimizer() };
+    for (OfferOptimizer optimizer : optimizers) {
+      for (double tolerance : new double[] { 0.5, 3.0 }) {
+        String label = optimizer.getClass().getSimpleName()
+                       + " to " + tolerance;
+        CountingOptimizer counting = new CountingOptimizer(optimizer);
+        WindFarmOfferCalculator calculator = createCalculator();
+        calculator.setOfferOptimizer(counting, tolerance);
+        List<Double> offers = calculator.getOptimalOfferCapacities(openSlots);
+        for (int i = 0; i < offers.size(); i++) {
+          assertEquals(label + ", slot " + i, expected[i], offers.get(i),
+                       tolerance);
+        }
+        assertEquals(label + ": one search per slot", 2, counting.searches);
+        assertEquals(label + ": full bracket", MAX_CAPACITY, counting.upper,
+                     0.0);
+        // a grid at the tolerance would take MAX_CAPACITY / tolerance + 1
+        assertTrue(label + ": " + counting.evaluations + " evaluations",
+                   counting.evaluations <= 2 * 25);
+      }
+    }
+  }
+
+  @Test
+  public void testSearchedOffersRiskLimit ()
+  {
+    // CVaR 40 q within 800 brackets the search at 20 MW, to the tolerance
+    double tolerance = 0.5;
+    CountingOptimizer counting =
+      new CountingOptimizer(new GoldenSectionOptimizer());
+    WindFarmOfferCalculator calculator = createCalculator();
+    calculator.setOfferOptimizer(counting, tolerance);
+    calculator.setRiskLimit(800.0, 0.75);
+    List<Double> offers = calculator.getOptimalOfferCapacities(openSlots);
+    assertEquals("bracket", 20.0 - tolerance / 2, counting.upper,
+                 tolerance / 2);
+    for (int i = 0; i < offers.size(); i++) {
+      assertTrue("within the limit in " + i, offers.get(i) <= 20.0);
+      // the revenue still rises at 20 MW, so the cap binds
+      assertEquals("at the bracket in " + i, counting.upper, offers.get(i),
+                   tolerance);
+    }
+  }
+
+  @Test
+  public void testSearchedOffersCoupled ()
+  {
+    // coupled slots fall back to the dynamic program on the bid grid
+    CountingOptimizer counting =
+      new CountingOptimizer(new BrentOptimizer());
+    WindFarmOfferCalculator searched = createCalculator();
+    searched.setOfferOptimizer(counting, 0.5);
+    searched.setCouplingLimits(-1.0, 50.0);
+    WindFarmOfferCalculator grid = createCalculator();
+    grid.setCouplingLimits(-1.0, 50.0);
+    assertEquals("same as the grid",
+                 grid.getOptimalOfferCapacities(openSlots),
+                 searched.getOptimalOfferCapacities(openSlots));
+    assertEquals("optimizer not used", 0, counting.searches);
+  }
+
+  @Test
+  public void testSupplyCurves ()
+  {
+    List<SupplyCurve> curves =
+      createCalculator().getSupplyCurves(openSlots, 30.0, 4);
+    assertEquals("one curve per slot", 2, curves.size());
+    for (SupplyCurve curve : curves) {
+      assertTrue("several levels", curve.getSegmentCount() > 1);
+      assertEquals("ask price first", 30.0, curve.getPrice(0), 0.0);
+      assertEquals("newsvendor quantity at the ask price", 20.0,
+                   curve.getQuantity(0), 0.0);
+      for (int l = 0; l < curve.getSegmentCount(); l++) {
+        assertEquals("quantity at " + curve.getPrice(l),
+                     newsvendor(curve.getPrice(l)), curve.getQuantity(l), 0.0);
+        if (l > 0) {
+          assertTrue("prices ascending",
+                     curve.getPrice(l) > curve.getPrice(l - 1));
+          assertTrue("quantities monotone",
+                     curve.getQuantity(l) >= curve.getQuantity(l - 1));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSupplyCurvesRiskLimit ()
+  {
+    // the worst quarter of the outcomes is 0, so the CVaR of q is 40 q
+    WindFarmOfferCalculator calculator = createCalculator();
+    calculator.setRiskLimit(800.0, 0.75);
+    List<SupplyCurve> curves = calculator.getSupplyCurves(openSlots, 30.0, 4);
+    double tolerance = 0.1 * MAX_CAPACITY;
+    for (SupplyCurve curve : curves) {
+      int top = curve.getSegmentCount() - 1;
+      assertTrue("uncapped below the limit", newsvendor(curve.getPrice(top)) > 20.0);
+      for (int l = 0; l <= top; l++) {
+        assertTrue("within the limit at " + curve.getPrice(l),
+                   curve.getQuantity(l) <= 20.0);
+      }
+      assertEquals("up to the limit", 20.0, curve.getQuantity(top), tolerance);
+    }
+  }
+
+  @Test
+  public void testSupplyCurvesDailyCap ()
+  {
+    WindFarmOfferCalculator calculator = createCalculator();
+    calculator.setCouplingLimits(-1.0, 50.0);
+    List<Double> caps = calculator.getOptimalOfferCapacities(openSlots);
+    List<SupplyCurve> curves = calculator.getSupplyCurves(openSlots, 30.0, 4);
+    double total = 0.0;
+    for (int i = 0; i < curves.size(); i++) {
+      SupplyCurve curve = curves.get(i);
+      for (int l = 0; l < curve.getSegmentCount(); l++) {
+        assertTrue("within the coupled offer at " + i + ", " + l,
+                   curve.getQuantity(l) <= caps.get(i) + 1e-9);
+      }
+      total += curve.getQuantity(curve.getSegmentCount() - 1);
+    }
+    assertTrue("daily cap at any clearing", total <= 50.0 + 1e-9);
+  }
+
+} // class WindFarmOfferCalculatorTest
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the lead hours of WindForecastErrorScenarios
+ * @author Shashank Pande
+ */
+public class WindForecastErrorScenariosTest
+{
+  private static final int KNOWN = 24;
+
+  private ScenarioMatrix errors;
+
+  @Before
+  public void setUp ()
+  {
+    errors = new ScenarioMatrix(3, KNOWN);
+    double[] probabilities = { 0.5, 0.3, 0.2 };
+    for (int s = 0; s < 3; s++) {
+      errors.setProbability(s, probabilities[s]);
+      for (int h = 0; h < KNOWN; h++) {
+        errors.setValue(s, h, (s - 1) * (1.0 + 0.1 * h) + 0.01 * s);
+      }
+    }
+  }
+
+  @Test
+  public void testExtend ()
+  {
+    ScenarioMatrix extended = WindForecastErrorScenarios.extendHorizon(errors, 48);
+    assertEquals("hours", 48, extended.getHours());
+    assertEquals("scenarios", 3, extended.getScenarioCount());
+    for (int s = 0; s < 3; s++) {
+      assertEquals("probability " + s, errors.getProbability(s),
+                   extended.getProbability(s), 0.0);
+      for (int h = 0; h < KNOWN; h++) {
+        assertEquals("copied " + s + ", " + h, errors.getValue(s, h),
+                     extended.getValue(s, h), 0.0);
+      }
+      double last = errors.getValue(s, KNOWN - 1);
+      for (int h = KNOWN; h < 48; h++) {
+        // lead hour h + 1
+        assertEquals("scaled " + s + ", " + h,
+                     last * Math.sqrt((h + 1.0) / KNOWN),
+                     extended.getValue(s, h), 1e-12);
+      }
+    }
+  }
+
+  @Test
+  public void testTruncate ()
+  {
+    ScenarioMatrix shorter = WindForecastErrorScenarios.extendHorizon(errors, 6);
+    assertEquals("hours", 6, shorter.getHours());
+    for (int s = 0; s < 3; s++) {
+      assertEquals("probability " + s, errors.getProbability(s),
+                   shorter.getProbability(s), 0.0);
+      for (int h = 0; h < 6; h++) {
+        assertEquals("kept " + s + ", " + h, errors.getValue(s, h),
+                     shorter.getValue(s, h), 0.0);
+      }
+    }
+  }
+
+  @Test
+  public void testHorizonsBuiltOnce ()
+  {
+    WindForecastErrorScenarios scenarios =
+      WindForecastErrorScenarios.fromMatrix(errors);
+    assertSame("own horizon", errors, scenarios.getErrorMatrix(KNOWN));
+    assertSame("no horizon", errors, scenarios.getErrorMatrix(0));
+    ScenarioMatrix week = scenarios.getErrorMatrix(168);
+    assertEquals("week hours", 168, week.getHours());
+    assertSame("week built once", week, scenarios.getErrorMatrix(168));
+    ScenarioMatrix shorter = scenarios.getErrorMatrix(12);
+    assertEquals("shorter hours", 12, shorter.getHours());
+    assertSame("shorter built once", shorter, scenarios.getErrorMatrix(12));
+  }
+
+} // class WindForecastErrorScenariosTest
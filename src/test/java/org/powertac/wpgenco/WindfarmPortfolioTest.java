@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2014 by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.commons.configuration.MapConfiguration;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.config.Configurator;
+
+/**
+ * Tests for WindfarmPortfolio
+ * @author Shashank Pande
+ */
+public class WindfarmPortfolioTest
+{
+  private static final int SCENARIOS = 50;
+  private static final int HOURS = 24;
+
+  private Instant start;
+  private Random random;
+
+  @Before
+  public void setUp ()
+  {
+    TurbineModelRegistry.setDefaultEfficiencyCurve(
+        new WindTurbineEfficiencyCurve(Arrays.asList("4-9", "9-14"),
+                                       Arrays.asList("0.02", "-0.02"),
+                                       Arrays.asList("0.2", "0.38")));
+    start = new DateTime(2011, 1, 1, 0, 0, 0, 0, DateTimeZone.UTC).toInstant();
+    random = new Random(11);
+  }
+
+  private ScenarioMatrix randomOutput (double capacity)
+  {
+    ScenarioMatrix result = new ScenarioMatrix(SCENARIOS, HOURS);
+    for (int s = 0; s < SCENARIOS; s++) {
+      result.setProbability(s, 1.0 / SCENARIOS);
+      for (int h = 0; h < HOURS; h++) {
+        result.setValue(s, h, random.nextDouble() * capacity);
+      }
+    }
+    return result;
+  }
+
+  // Farm with fixed output scenarios computed from the given error scenarios
+  private WindfarmGenco farm (String name, final ScenarioMatrix output,
+                              final WindForecastErrorScenarios errors)
+  {
+    WindfarmGenco result = new WindfarmGenco(name) {
+      @Override
+      ScenarioMatrix calcPowerOutputScenarios ()
+      {
+        return output;
+      }
+
+      @Override
+      WindForecastErrorScenarios getErrorScenarios ()
+      {
+        return errors;
+      }
+
+      @Override
+      protected PowerDistribution calcPowerDistribution (Instant firstHour)
+      {
+        return PowerDistribution.fromMatrix(output);
+      }
+    };
+    result.configureFleet(null);
+    return result;
+  }
+
+  private WindfarmPortfolio portfolio (String errorDependence, int gridPoints)
+  {
+    WindfarmPortfolio result = new WindfarmPortfolio("portfolio");
+    TreeMap<String, String> map = new TreeMap<String, String>();
+    map.put("wpgenco.windfarmPortfolio.errorDependence", errorDependence);
+    map.put("wpgenco.windfarmPortfolio.gridPoints", Integer.toString(gridPoints));
+    Configurator config = new Configurator();
+    config.setConfiguration(new MapConfiguration(map));
+    config.configureSingleton(result);
+    return result;
+  }
+
+  // Farm of default turbines, all of them on maintenance on 3 January
+  // 2011 from 08:00 to 16:00 if maintained
+  private WindfarmGenco configuredFarm (String name, int turbines,
+                                        boolean maintained)
+  {
+    WindfarmGenco result = new WindfarmGenco(name);
+    TreeMap<String, String> map = new TreeMap<String, String>();
+    map.put("wpgenco.windfarmGenco.numberOfTurbines", Integer.toString(turbines));
+    if (maintained) {
+      map.put("wpgenco.windfarmGenco.maintenanceSchedule",
+              turbines + "@2011-01-03T08:00Z/2011-01-03T16:00Z");
+    }
+    Configurator config = new Configurator();
+    config.setConfiguration(new MapConfiguration(map));
+    config.configureSingleton(result);
+    result.configureFleet(null);
+    return result;
+  }
+
+  private static Instant at (int day, int hour)
+  {
+    return new DateTime(2011, 1, day, hour, 0, 0, 0, DateTimeZone.UTC).toInstant();
+  }
+
+  private static void assertDistribution (String message,
+                                          PowerDistribution expected,
+                                          PowerDistribution actual)
+  {
+    assertEquals(message + " hours", expected.getHours(), actual.getHours());
+    for (int h = 0; h < expected.getHours(); h++) {
+      assertArrayEquals(message + " values at " + h, expected.getValues(h),
+                        actual.getValues(h), 1e-9);
+      assertArrayEquals(message + " probabilities at " + h,
+                        expected.getProbabilities(h),
+                        actual.getProbabilities(h), 1e-12);
+    }
+  }
+
+  @Test
+  public void testOperationFromFarms ()
+  {
+    WindfarmGenco maintained = configuredFarm("maintained", 10, true);
+    WindfarmGenco running = configuredFarm("running", 20, false);
+    WindfarmPortfolio both = portfolio(WindfarmPortfolio.SHARED_ERRORS, 1024);
+    both.addFarm(maintained);
+    both.addFarm(running);
+    both.init(null);
+    assertNull("no own fleet", both.getPowerCurve());
+    assertNull("no own availability", both.getAvailabilityModel());
+    assertEquals("nominal capacity",
+                 maintained.getMaxCapacity() + running.getMaxCapacity(),
+                 both.getMaxCapacity(), 1e-9);
+
+    both.updateModel(at(3, 7));
+    assertTrue("operating", both.isInOperation());
+    assertEquals("all in service",
+                 maintained.getMaxCapacity() + running.getMaxCapacity(),
+                 both.getCurrentCapacity(), 1e-9);
+    both.updateModel(at(3, 8));
+    assertTrue("one farm operating", both.isInOperation());
+    assertEquals("one farm on maintenance", running.getMaxCapacity(),
+                 both.getCurrentCapacity(), 1e-9);
+    assertEquals("farm updated", 0.0, maintained.getCurrentCapacity(), 0.0);
+
+    WindfarmPortfolio alone = portfolio(WindfarmPortfolio.SHARED_ERRORS, 1024);
+    alone.addFarm(maintained);
+    alone.init(null);
+    alone.updateModel(at(3, 8));
+    assertFalse("no farm operating", alone.isInOperation());
+    assertEquals("no capacity", 0.0, alone.getCurrentCapacity(), 0.0);
+    alone.updateModel(at(3, 16));
+    assertTrue("operating again", alone.isInOperation());
+    assertEquals("back in service", maintained.getMaxCapacity(),
+                 alone.getCurrentCapacity(), 1e-9);
+  }
+
+  @Test
+  public void testSharedErrors ()
+  {
+    WindForecastErrorScenarios errors =
+      WindForecastErrorScenarios.fromMatrix(randomOutput(1.0));
+    ScenarioMatrix a = randomOutput(30.0);
+    ScenarioMatrix b = randomOutput(20.0);
+    WindfarmPortfolio shared = portfolio(WindfarmPortfolio.SHARED_ERRORS, 1024);
+    shared.addFarm(farm("a", a, errors));
+    shared.addFarm(farm("b", b, errors));
+    ScenarioMatrix sum = a.copy();
+    sum.add(b);
+    assertDistribution("row sums", PowerDistribution.fromMatrix(sum),
+                       shared.calcPowerDistribution(start));
+  }
+
+  @Test
+  public void testDifferentErrorsConvolved ()
+  {
+    // same shape, but not the same error draw
+    ScenarioMatrix a = randomOutput(30.0);
+    ScenarioMatrix b = randomOutput(20.0);
+    WindfarmPortfolio shared = portfolio(WindfarmPortfolio.SHARED_ERRORS, 1024);
+    shared.addFarm(farm("a", a,
+                        WindForecastErrorScenarios.fromMatrix(randomOutput(1.0))));
+    shared.addFarm(farm("b", b,
+                        WindForecastErrorScenarios.fromMatrix(randomOutput(1.0))));
+    assertDistribution("convolution",
+                       PowerDistribution.fromMatrix(a)
+                         .convolve(PowerDistribution.fromMatrix(b), 1.0),
+                       shared.calcPowerDistribution(start));
+  }
+
+  @Test
+  public void testIndependentErrors ()
+  {
+    WindForecastErrorScenarios errors =
+      WindForecastErrorScenarios.fromMatrix(randomOutput(1.0));
+    ScenarioMatrix a = randomOutput(30.0);
+    ScenarioMatrix b = randomOutput(20.0);
+    WindfarmPortfolio independent =
+      portfolio(WindfarmPortfolio.INDEPENDENT_ERRORS, 1024);
+    independent.addFarm(farm("a", a, errors));
+    independent.addFarm(farm("b", b, errors));
+    assertDistribution("convolution",
+                       PowerDistribution.fromMatrix(a)
+                         .convolve(PowerDistribution.fromMatrix(b), 1.0),
+                       independent.calcPowerDistribution(start));
+  }
+
+  @Test
+  public void testIndependentGridBound ()
+  {
+    WindForecastErrorScenarios errors =
+      WindForecastErrorScenarios.fromMatrix(randomOutput(1.0));
+    int gridPoints = 16;
+    WindfarmPortfolio independent =
+      portfolio(WindfarmPortfolio.INDEPENDENT_ERRORS, gridPoints);
+    double[] expected = new double[HOURS];
+    int farms = 6;
+    for (int f = 0; f < farms; f++) {
+      ScenarioMatrix output = randomOutput(40.0);
+      PowerDistribution dist = PowerDistribution.fromMatrix(output);
+      for (int h = 0; h < HOURS; h++) {
+        expected[h] += dist.getExpectedValue(h);
+      }
+      independent.addFarm(farm("f" + f, output, errors));
+    }
+    PowerDistribution result = independent.calcPowerDistribution(start);
+    for (int h = 0; h < HOURS; h++) {
+      assertTrue("grid points at " + h,
+                 result.size(h) <= gridPoints + farms);
+      // spreading outcomes over the grid keeps the mean
+      assertEquals("expected output at " + h, expected[h],
+                   result.getExpectedValue(h), 1e-9);
+    }
+  }
+
+} // class WindfarmPortfolioTest